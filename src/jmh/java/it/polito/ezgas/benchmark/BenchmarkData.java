@@ -0,0 +1,37 @@
+package it.polito.ezgas.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import it.polito.ezgas.entity.GasStation;
+
+/**
+ * Synthetic datasets shared by the benchmarks: gas stations spread around
+ * Turin with random fuels, prices and car sharing.
+ */
+final class BenchmarkData {
+
+	private static final String[] CAR_SHARINGS = { "Enjoy", "Car2Go", null };
+
+	private BenchmarkData() {
+	}
+
+	static List<GasStation> gasStations(int size, Random random) {
+		List<GasStation> gasStations = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			GasStation gs = new GasStation("GS" + i, "Address " + i, random.nextBoolean(), random.nextBoolean(),
+					random.nextBoolean(), random.nextBoolean(), random.nextBoolean(), random.nextBoolean(),
+					CAR_SHARINGS[random.nextInt(CAR_SHARINGS.length)], 45.0 + random.nextDouble() * 0.2,
+					7.6 + random.nextDouble() * 0.2, price(random), price(random), price(random), price(random),
+					price(random), price(random), null, null, 0);
+			gs.setGasStationId(i + 1);
+			gasStations.add(gs);
+		}
+		return gasStations;
+	}
+
+	private static Double price(Random random) {
+		return 1 + Math.round(random.nextDouble() * 100) / 100.0;
+	}
+}
@@ -0,0 +1,59 @@
+package it.polito.ezgas.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.polito.ezgas.utils.CoordinateValidator;
+
+/**
+ * Validation of a pair of coordinates: the numeric range checks against the
+ * regular expressions checkCoordinates used before (String.valueOf plus
+ * String.matches, which compiles the pattern on every call).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CoordinateValidatorBenchmark {
+
+	private static final int SIZE = 1024;
+
+	private double[] lats = new double[SIZE];
+	private double[] lons = new double[SIZE];
+	private int next;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(42);
+		for (int i = 0; i < SIZE; i++) {
+			lats[i] = (random.nextDouble() - 0.5) * 190;
+			lons[i] = (random.nextDouble() - 0.5) * 370;
+		}
+	}
+
+	@Benchmark
+	public boolean numeric() {
+		int i = next++ & (SIZE - 1);
+		return CoordinateValidator.isValidLatitude(lats[i]) && CoordinateValidator.isValidLongitude(lons[i]);
+	}
+
+	@Benchmark
+	public boolean regex() {
+		int i = next++ & (SIZE - 1);
+		return String.valueOf(lats[i]).matches("^[-+]?([1-8]?\\d(\\.\\d+)?|90(\\.0+)?)$") && String.valueOf(lons[i])
+				.matches("^[-+]?(180(\\.0+)?|((1[0-7]\\d)|([1-9]?\\d))(\\.\\d+)?)$");
+	}
+}
@@ -0,0 +1,57 @@
+package it.polito.ezgas.benchmark;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.polito.ezgas.converter.GasStationConverter;
+import it.polito.ezgas.dto.GasStationDto;
+import it.polito.ezgas.entity.GasStation;
+import it.polito.ezgas.entity.User;
+
+/**
+ * Conversion of {size} gas stations to dto, half of them with the report user
+ * to convert too.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GasStationConverterBenchmark {
+
+	@Param({ "1000", "10000", "100000" })
+	public int size;
+
+	private List<GasStation> gasStations;
+	private GasStationConverter gasStationConverter = new GasStationConverter();
+
+	@Setup
+	public void setUp() {
+		gasStations = BenchmarkData.gasStations(size, new Random(42));
+		User user = new User("user", "password", "user@ezgas.com", 3);
+		user.setUserId(1);
+		for (int i = 0; i < gasStations.size(); i += 2) {
+			gasStations.get(i).setUser(user);
+			gasStations.get(i).setReportUser(user.getUserId());
+		}
+	}
+
+	@Benchmark
+	public List<GasStationDto> toGasStationDtoList() {
+		return gasStationConverter.toGasStationDtoList(gasStations);
+	}
+}
@@ -0,0 +1,98 @@
+package it.polito.ezgas.benchmark;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import exception.GPSDataException;
+import exception.InvalidCarSharingException;
+import exception.InvalidGasTypeException;
+import it.polito.ezgas.converter.GasStationConverter;
+import it.polito.ezgas.dto.GasStationDto;
+import it.polito.ezgas.entity.GasStation;
+import it.polito.ezgas.repository.GasStationRepository;
+import it.polito.ezgas.service.impl.GasStationServiceimpl;
+
+/**
+ * Filtering of the candidates of getGasStationsWithCoordinates (fuel type and
+ * car sharing): the single pass of the service against the old copy-and-remove
+ * loops, which scan the copied list on every remove.
+ *
+ * The repository returns the same {size} candidates for any box and the
+ * converter only counts the gas stations left, so only the filtering is
+ * measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GasStationFilterBenchmark {
+
+	@Param({ "1000", "10000", "100000" })
+	public int size;
+
+	private List<GasStation> candidates;
+	private GasStationServiceimpl gasStationService;
+	private int kept;
+
+	@Setup
+	public void setUp() {
+		candidates = BenchmarkData.gasStations(size, new Random(42));
+		GasStationRepository repository = (GasStationRepository) Proxy.newProxyInstance(
+				GasStationRepository.class.getClassLoader(), new Class<?>[] { GasStationRepository.class },
+				(proxy, method, args) -> {
+					if (method.getName().equals("findBylatBetweenAndLonBetween")) {
+						return candidates;
+					}
+					throw new UnsupportedOperationException(method.getName());
+				});
+		GasStationConverter converter = new GasStationConverter() {
+			@Override
+			public List<GasStationDto> toGasStationDtoList(List<GasStation> gasStationList) {
+				kept = gasStationList.size();
+				return Collections.emptyList();
+			}
+		};
+		gasStationService = new GasStationServiceimpl(repository, converter, null);
+		gasStationService.setUpdateDependability(true);
+	}
+
+	@Benchmark
+	public int singlePass() throws GPSDataException, InvalidGasTypeException, InvalidCarSharingException {
+		gasStationService.getGasStationsWithCoordinates(45.07, 7.68, 5, "diesel", "Enjoy");
+		return kept;
+	}
+
+	@Benchmark
+	public int copyAndRemove() {
+		List<GasStation> gasStationListNew = new ArrayList<>(candidates);
+		for (GasStation gs : candidates) {
+			if (gs.getCarSharing() == null || !gs.getCarSharing().equals("Enjoy")) {
+				gasStationListNew.remove(gs);
+			}
+		}
+		for (GasStation gs : candidates) {
+			if (!gs.getHasDiesel()) {
+				gasStationListNew.remove(gs);
+			}
+		}
+		return gasStationListNew.size();
+	}
+}
@@ -0,0 +1,143 @@
+package it.polito.ezgas.benchmark;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import it.polito.ezgas.BootEZGasApplication;
+import it.polito.ezgas.entity.GasStation;
+import it.polito.ezgas.entity.User;
+import it.polito.ezgas.repository.GasStationRepository;
+import it.polito.ezgas.repository.UserRepository;
+import it.polito.ezgas.service.impl.GasStationServiceimpl;
+import it.polito.ezgas.utils.ReportDate;
+
+/**
+ * Service paths that go through the database: the whole application context is
+ * started on an in-memory H2 instance filled with {size} gas stations (and a
+ * hundred users reporting their prices), so -p size=... changes the dataset.
+ *
+ * checkCoordinates and calculateDependability are private, they are called
+ * through method handles so that nothing else is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GasStationServiceBenchmark {
+
+	@Param({ "1000", "10000" })
+	public int size;
+
+	private ConfigurableApplicationContext context;
+	private GasStationServiceimpl gasStationService;
+	private MethodHandle checkCoordinates;
+	private MethodHandle calculateDependability;
+	private List<Integer> gasStationIds;
+	private Integer reporterId;
+	private Random random = new Random(42);
+
+	@Setup(Level.Trial)
+	public void setUp() throws ReflectiveOperationException {
+		context = new SpringApplicationBuilder(BootEZGasApplication.class).web(false).run(
+				"--spring.datasource.url=jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1",
+				"--spring.jpa.hibernate.ddl-auto=create-drop", "--ezgas.dependability.read-time=false", "--debug=false",
+				"--logging.level.root=WARN");
+		gasStationService = context.getBean(GasStationServiceimpl.class);
+		UserRepository userRepository = context.getBean(UserRepository.class);
+		GasStationRepository gasStationRepository = context.getBean(GasStationRepository.class);
+
+		List<User> users = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			users.add(new User("user" + i, "password", "user" + i + "@ezgas.com", random.nextInt(11) - 5));
+		}
+		users = userRepository.save(users);
+		reporterId = userRepository.save(new User("reporter", "password", "reporter@ezgas.com", 5)).getUserId();
+
+		long today = ReportDate.today();
+		List<GasStation> gasStations = BenchmarkData.gasStations(size, random);
+		for (GasStation gs : gasStations) {
+			User user = users.get(random.nextInt(users.size()));
+			gs.setGasStationId(null);
+			gs.setUser(user);
+			gs.setReportUser(user.getUserId());
+			gs.setReportDay(today - random.nextInt(10));
+		}
+		gasStationIds = new ArrayList<>();
+		for (GasStation gs : gasStationRepository.save(gasStations)) {
+			gasStationIds.add(gs.getGasStationId());
+		}
+		gasStationService.setUpdateDependability(true);
+
+		checkCoordinates = privateMethod("checkCoordinates", double.class, double.class);
+		calculateDependability = privateMethod("calculateDependability");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		context.close();
+	}
+
+	private MethodHandle privateMethod(String name, Class<?>... parameterTypes) throws ReflectiveOperationException {
+		Method method = GasStationServiceimpl.class.getDeclaredMethod(name, parameterTypes);
+		method.setAccessible(true);
+		return MethodHandles.lookup().unreflect(method).bindTo(gasStationService);
+	}
+
+	@Benchmark
+	public void checkCoordinates() throws Throwable {
+		checkCoordinates.invoke(45.0 + random.nextDouble(), 7.0 + random.nextDouble());
+	}
+
+	@Benchmark
+	public void setReport() throws Exception {
+		Integer gasStationId = gasStationIds.get(random.nextInt(gasStationIds.size()));
+		gasStationService.setReport(gasStationId, 1.5, 1.6, 1.7, 0.8, 0.9, 1.8, reporterId);
+	}
+
+	/*
+	 * reports from 8 threads at once, the conflicts on the same gas station are
+	 * retried: the throughput counts the reports applied
+	 */
+	@Benchmark
+	@Threads(8)
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public void setReportContended() throws Exception {
+		Integer gasStationId = gasStationIds.get(ThreadLocalRandom.current().nextInt(gasStationIds.size()));
+		gasStationService.setReport(gasStationId, 1.5, 1.6, 1.7, 0.8, 0.9, 1.8, reporterId);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 2)
+	@Measurement(iterations = 5)
+	public void calculateDependability() throws Throwable {
+		calculateDependability.invoke();
+	}
+}
@@ -0,0 +1,11 @@
+package exception;
+
+public class SessionLimitException extends InvalidLoginDataException {
+	
+	
+	public SessionLimitException(String errorMessage) {
+		
+		super(errorMessage);
+	}
+
+}
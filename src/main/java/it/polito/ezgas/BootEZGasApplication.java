@@ -1,51 +1,160 @@
 package it.polito.ezgas;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.annotation.PostConstruct;
+import javax.sql.DataSource;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 
+import it.polito.ezgas.entity.GasStation;
 import it.polito.ezgas.entity.User;
+import it.polito.ezgas.repository.GasStationRepository;
 import it.polito.ezgas.repository.UserRepository;
+import it.polito.ezgas.startup.StartupTimings;
+import it.polito.ezgas.sync.GasStationChangeLog;
+import it.polito.ezgas.utils.PasswordHash;
+import it.polito.ezgas.utils.ReportDate;
 
 
 @SpringBootApplication
 public class BootEZGasApplication {
 	@Autowired
 	UserRepository userRepository;
+	@Autowired
+	GasStationRepository gasStationRepository;
+	@Autowired(required = false)
+	GasStationChangeLog gasStationChangeLog;
+	@Autowired
+	DataSource dataSource;
+	@Autowired(required = false)
+	StartupTimings startupTimings;
 
 	
 
 	public static void main(String[] args) {
-		SpringApplication.run(BootEZGasApplication.class, args);
+		SpringApplication application = new SpringApplication(BootEZGasApplication.class);
+		StartupTimings startupTimings = new StartupTimings();
+		application.addListeners(startupTimings);
+		application.addInitializers(context -> context.getBeanFactory().registerSingleton("startupTimings",
+				startupTimings));
+		application.run(args);
+	}
+
+	private void phase(String name) {
+		if (startupTimings != null) {
+			startupTimings.phase(name);
+		}
 	}
 	
 	@PostConstruct
 	public void setupDbWithData() throws SQLException{
-	
-		
-		Connection conn = DriverManager.getConnection("jdbc:h2:./data/memo", "sa", "password");
-		conn.close();
-		boolean admin=false;
-		List<User> users = userRepository.findAll();
-		if(!users.isEmpty()) {
-		for(User user: users) {
-			if(user.getAdmin()) {
-				admin=user.getAdmin();
+		this.phase("context-refresh");
+
+		// the configured DB is reachable (from the pool, not a connection of its own),
+		// otherwise the startup fails here rather than at the first query
+		try (Connection conn = dataSource.getConnection()) {
+			if (!conn.isValid(5)) {
+				throw new SQLException("The connection to the database is not valid");
 			}
 		}
+		this.phase("setup-datasource");
+
+		// users stored before the emailKey column was added have it null: the first
+		// user (lowest id) with an email gets it, the later ones with the same email
+		// get User.duplicateEmailKey, they can't log in until their email is changed
+		List<User> unkeyed = userRepository.findByEmailKeyIsNull();
+		if (!unkeyed.isEmpty()) {
+			unkeyed.sort(Comparator.comparing(User::getUserId));
+			// the keys already taken, only looked up for the emails of more users
+			List<String> shared = userRepository.findSharedEmailKeys();
+			Set<String> emailKeys = new HashSet<>(shared.isEmpty() ? shared : userRepository.findEmailKeys(shared));
+			List<User> keyed = new ArrayList<>();
+			List<User> duplicates = new ArrayList<>();
+			for (User user : unkeyed) {
+				String emailKey = User.emailKey(user.getEmail());
+				if (emailKey == null) {
+					continue;
+				}
+				if (!emailKeys.add(emailKey)) {
+					duplicates.add(user);
+					continue;
+				}
+				user.setEmailKey(emailKey);
+				keyed.add(user);
+			}
+			userRepository.save(keyed);
+			userRepository.flush();
+			for (User user : duplicates) {
+				userRepository.updateEmailKey(user.getUserId(), User.duplicateEmailKey(user.getUserId()));
+			}
+		}
+		this.phase("setup-email-keys");
+
+		// an indexed lookup instead of reading all the users
+		if (!userRepository.existsByAdminTrue()) {
+			// the email is unique: a user already registered with it becomes the admin
+			User user = userRepository.findByEmail("admin@ezgas.com");
+			if (user == null) {
+				user = new User("admin", PasswordHash.hash("admin"), "admin@ezgas.com", 5);
 			}
-	 if(!admin || users.isEmpty()) {
-			User user= new User("admin", "admin", "admin@ezgas.com", 5);
 			user.setAdmin(true);
 			userRepository.saveAndFlush(user);
-		} 
+		}
+		this.phase("setup-admin");
+
+		// gas stations stored before the fuelMask column was added have it null
+		List<GasStation> gasStations = gasStationRepository.findByFuelMaskIsNull();
+		if (!gasStations.isEmpty()) {
+			for (GasStation gasStation : gasStations) {
+				gasStation.updateFuelMask();
+			}
+			gasStationRepository.save(gasStations);
+			gasStationRepository.flush();
+		}
+		this.phase("setup-fuel-mask");
+
+		// gas stations reported before the reportDay column was added have only the MM-dd-YYYY timestamp:
+		// once they are converted the lookup is an empty range of the reportDay index
+		long today = ReportDate.today();
+		List<GasStation> reported = new ArrayList<>();
+		for (GasStation gasStation : gasStationRepository.findByReportDayIsNullAndReportTimestampIsNotNull()) {
+			Long reportDay = ReportDate.fromLegacyTimestamp(gasStation.getReportTimestamp(), today);
+			if (reportDay != null) {
+				gasStation.setReportDay(reportDay);
+				reported.add(gasStation);
+			}
+		}
+		if (!reported.isEmpty()) {
+			gasStationRepository.save(reported);
+			gasStationRepository.flush();
+		}
+		this.phase("setup-report-day");
+
+		// gas stations stored before the change log (or outside the service) get a change number
+		List<GasStation> unnumbered = gasStationChangeLog == null ? new ArrayList<>()
+				: gasStationRepository.findByChangeSeqIsNull();
+		if (!unnumbered.isEmpty()) {
+			long changeSeq = gasStationChangeLog.begin();
+			try {
+				for (GasStation gasStation : unnumbered) {
+					gasStation.setChangeSeq(changeSeq);
+				}
+				gasStationRepository.save(unnumbered);
+				gasStationRepository.flush();
+			} finally {
+				gasStationChangeLog.end(changeSeq);
+			}
+		}
+		this.phase("setup-change-seq");
 		
 		
 		/*
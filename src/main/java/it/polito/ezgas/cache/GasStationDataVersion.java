@@ -0,0 +1,42 @@
+package it.polito.ezgas.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Version of the gas station data, bumped by every write that can change what
+ * the read endpoints return: gas stations saved or deleted, price reports,
+ * changes of the reporting users and of the dependabilities. The responses are
+ * tagged with it, so a client sending back the tag of an unchanged version gets
+ * a 304.
+ *
+ * The tag includes the instant the application started, so a tag sent before a
+ * restart never matches.
+ */
+@Component
+public class GasStationDataVersion {
+
+	private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+	private final AtomicLong version = new AtomicLong();
+
+	public long get() {
+		return version.get();
+	}
+
+	public long bump() {
+		return version.incrementAndGet();
+	}
+
+	/*
+	 * the (strong) ETag of the given version, suffix tells apart different
+	 * representations of the same data
+	 */
+	public String etag(long version, String suffix) {
+		return "\"" + epoch + "-" + version + (suffix == null ? "" : "-" + suffix) + "\"";
+	}
+
+	public String etag() {
+		return this.etag(version.get(), null);
+	}
+}
@@ -0,0 +1,319 @@
+package it.polito.ezgas.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import it.polito.ezgas.dto.GasStationDto;
+
+/**
+ * Converted gas stations kept in memory in front of the GasStationRepository:
+ * the dtos by gas station id and, for the searches by fuel type and car
+ * sharing, the ids of the gas stations found for each query. A query is a hit
+ * only if all its gas stations are still cached, so invalidating a gas station
+ * invalidates the searches returning it too.
+ *
+ * The maps are concurrent, nothing is locked. The dtos are copied when stored
+ * and when returned, so a caller can't change what the others read.
+ *
+ * Every invalidation takes a stamp from a counter and records it for what it
+ * invalidates: the gas station, the user reporting (all the gas stations it
+ * reported), the queries or everything. A reader that missed takes the
+ * generation (the counter) before loading from the DB, and what it loaded is
+ * stored only if none of its own gas stations, reporters or queries were
+ * invalidated after it: writes to other gas stations don't stop it. A store
+ * checks the stamps again after writing the entry and removes it if one came
+ * in meanwhile, while an invalidation records its stamp before removing.
+ *
+ * There are at most maxSize dtos, the oldest stored are evicted first (the ttl
+ * being the same for all, the first to expire anyway), and an entry expires
+ * ttl after it was stored. Hits, misses and evictions (expired entries
+ * included) are published to the actuator metrics.
+ */
+@Component
+public class GasStationDtoCache implements PublicMetrics {
+
+	private static final String METRIC_PREFIX = "ezgas.cache.gasstation.";
+
+	private final int maxSize;
+	private final long ttlMillis;
+	private final LongSupplier clock;
+	private final Map<Integer, Entry<GasStationDto>> gasStations = new ConcurrentHashMap<>();
+	private final Map<String, Entry<List<Integer>>> queries = new ConcurrentHashMap<>();
+	// the dtos in order of store, a node whose entry was replaced or removed is skipped
+	private final Queue<Node> stored = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger storedSize = new AtomicInteger();
+
+	private final AtomicLong generation = new AtomicLong();
+	// the stamp of the last invalidation of each gas station and reporter, one
+	// long for each one ever invalidated
+	private final Map<Integer, Long> invalidatedGasStations = new ConcurrentHashMap<>();
+	private final Map<Integer, Long> invalidatedReporters = new ConcurrentHashMap<>();
+	private volatile long invalidatedQueries;
+	private volatile long invalidatedAll;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	@Autowired
+	public GasStationDtoCache(@Value("${ezgas.cache.max-size:10000}") int maxSize,
+			@Value("${ezgas.cache.ttl-seconds:60}") long ttlSeconds) {
+		this(maxSize, TimeUnit.SECONDS.toMillis(ttlSeconds), System::currentTimeMillis);
+	}
+
+	public GasStationDtoCache(int maxSize, long ttlMillis, LongSupplier clock) {
+		this.maxSize = maxSize > 0 ? maxSize : 1;
+		this.ttlMillis = ttlMillis;
+		this.clock = clock;
+	}
+
+	/*
+	 * to be read before loading from the DB what will be stored with put or
+	 * putQuery
+	 */
+	public long generation() {
+		return generation.get();
+	}
+
+	/*
+	 * a copy of the cached dto of the gas station, null if it is missing or
+	 * expired
+	 */
+	public GasStationDto get(Integer gasStationId) {
+		GasStationDto gasStationDto = this.lookup(gasStationId, clock.getAsLong());
+		if (gasStationDto == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return new GasStationDto(gasStationDto);
+	}
+
+	public void put(GasStationDto gasStationDto, long generation) {
+		if (gasStationDto == null || gasStationDto.getGasStationId() == null) {
+			return;
+		}
+		this.store(new GasStationDto(gasStationDto), clock.getAsLong() + ttlMillis, generation);
+	}
+
+	/*
+	 * a new list with copies of the cached dtos found by the query, null if the
+	 * query or any of its gas stations is missing or expired
+	 */
+	public List<GasStationDto> getQuery(String key) {
+		long now = clock.getAsLong();
+		Entry<List<Integer>> entry = queries.get(key);
+		if (entry != null && entry.expires <= now) {
+			if (queries.remove(key, entry)) {
+				evictions.incrementAndGet();
+			}
+			entry = null;
+		}
+		List<GasStationDto> gasStationDtoList = null;
+		if (entry != null) {
+			gasStationDtoList = new ArrayList<>(entry.value.size());
+			for (Integer gasStationId : entry.value) {
+				GasStationDto gasStationDto = this.lookup(gasStationId, now);
+				if (gasStationDto == null) {
+					queries.remove(key, entry);
+					gasStationDtoList = null;
+					break;
+				}
+				gasStationDtoList.add(new GasStationDto(gasStationDto));
+			}
+		}
+		if (gasStationDtoList == null) {
+			misses.incrementAndGet();
+		} else {
+			hits.incrementAndGet();
+		}
+		return gasStationDtoList;
+	}
+
+	/*
+	 * the query is stored only if all its gas stations are
+	 */
+	public void putQuery(String key, List<GasStationDto> gasStationDtoList, long generation) {
+		if (gasStationDtoList.size() > maxSize || this.queriesInvalidatedAfter(generation)) {
+			return;
+		}
+		long expires = clock.getAsLong() + ttlMillis;
+		List<Integer> ids = new ArrayList<>(gasStationDtoList.size());
+		for (GasStationDto gasStationDto : gasStationDtoList) {
+			if (!this.store(new GasStationDto(gasStationDto), expires, generation)) {
+				return;
+			}
+			ids.add(gasStationDto.getGasStationId());
+		}
+		Entry<List<Integer>> entry = new Entry<>(ids, expires);
+		queries.put(key, entry);
+		if (this.queriesInvalidatedAfter(generation)) {
+			queries.remove(key, entry);
+		}
+	}
+
+	/*
+	 * the gas station changed (new prices or report): its dto and the queries
+	 * returning it are invalid. A new gas station (null id) has nothing cached
+	 */
+	public void invalidate(Integer gasStationId) {
+		if (gasStationId == null) {
+			return;
+		}
+		invalidatedGasStations.merge(gasStationId, generation.incrementAndGet(), Math::max);
+		gasStations.remove(gasStationId);
+	}
+
+	/*
+	 * a gas station was added, removed or changed its fuels or car sharing: the
+	 * results of all the queries may be different
+	 */
+	public void invalidateQueries() {
+		invalidatedQueries = generation.incrementAndGet();
+		queries.clear();
+	}
+
+	/*
+	 * the user (reputation, name...) changed: the dtos of the gas stations it
+	 * reported embed the old one
+	 */
+	public void invalidateReportUser(Integer userId) {
+		invalidatedReporters.merge(userId, generation.incrementAndGet(), Math::max);
+		gasStations.values().removeIf(entry -> userId.equals(entry.value.getReportUser()));
+	}
+
+	public void clear() {
+		invalidatedAll = generation.incrementAndGet();
+		gasStations.clear();
+		queries.clear();
+	}
+
+	public int size() {
+		return gasStations.size();
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		List<Metric<?>> metrics = new ArrayList<>();
+		metrics.add(new Metric<>(METRIC_PREFIX + "hits", hits.get()));
+		metrics.add(new Metric<>(METRIC_PREFIX + "misses", misses.get()));
+		metrics.add(new Metric<>(METRIC_PREFIX + "evictions", evictions.get()));
+		metrics.add(new Metric<>(METRIC_PREFIX + "size", gasStations.size()));
+		metrics.add(new Metric<>(METRIC_PREFIX + "queries", queries.size()));
+		return metrics;
+	}
+
+	/*
+	 * stores the dto unless it was invalidated after generation, evicting the
+	 * oldest ones above maxSize: false if it is not stored
+	 */
+	private boolean store(GasStationDto gasStationDto, long expires, long generation) {
+		if (this.invalidatedAfter(gasStationDto, generation)) {
+			return false;
+		}
+		Integer gasStationId = gasStationDto.getGasStationId();
+		Entry<GasStationDto> entry = new Entry<>(gasStationDto, expires);
+		gasStations.put(gasStationId, entry);
+		if (this.invalidatedAfter(gasStationDto, generation)) {
+			gasStations.remove(gasStationId, entry);
+			return false;
+		}
+		stored.add(new Node(gasStationId, entry));
+		if (storedSize.incrementAndGet() > maxSize) {
+			this.evict();
+		}
+		return true;
+	}
+
+	/*
+	 * the nodes of the entries already replaced or removed count too, they are
+	 * dropped without evicting anything
+	 */
+	private void evict() {
+		while (storedSize.get() > maxSize) {
+			Node oldest = stored.poll();
+			if (oldest == null) {
+				return;
+			}
+			storedSize.decrementAndGet();
+			if (gasStations.remove(oldest.gasStationId, oldest.entry)) {
+				evictions.incrementAndGet();
+			}
+		}
+	}
+
+	private boolean invalidatedAfter(GasStationDto gasStationDto, long generation) {
+		Integer reportUser = gasStationDto.getReportUser();
+		return invalidatedAll > generation
+				|| invalidatedGasStations.getOrDefault(gasStationDto.getGasStationId(), 0L) > generation
+				|| (reportUser != null && invalidatedReporters.getOrDefault(reportUser, 0L) > generation);
+	}
+
+	private boolean queriesInvalidatedAfter(long generation) {
+		return invalidatedAll > generation || invalidatedQueries > generation;
+	}
+
+	/*
+	 * the cached dto itself, not a copy
+	 */
+	private GasStationDto lookup(Integer gasStationId, long now) {
+		Entry<GasStationDto> entry = gasStations.get(gasStationId);
+		if (entry == null) {
+			return null;
+		}
+		if (entry.expires <= now) {
+			if (gasStations.remove(gasStationId, entry)) {
+				evictions.incrementAndGet();
+			}
+			return null;
+		}
+		return entry.value;
+	}
+
+	private static class Entry<V> {
+		private final V value;
+		private final long expires;
+
+		private Entry(V value, long expires) {
+			this.value = value;
+			this.expires = expires;
+		}
+	}
+
+	private static class Node {
+		private final Integer gasStationId;
+		private final Entry<GasStationDto> entry;
+
+		private Node(Integer gasStationId, Entry<GasStationDto> entry) {
+			this.gasStationId = gasStationId;
+			this.entry = entry;
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package it.polito.ezgas.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import it.polito.ezgas.dto.GasStationDto;
+
+/**
+ * The list of all the gas stations already encoded as JSON (and gzip), so that
+ * getAllGasStations doesn't load, convert and serialize every gas station at
+ * each request. The snapshot is built for a GasStationDataVersion: every write
+ * bumps it and the snapshot is rebuilt by the first request that follows.
+ */
+@Component
+public class GasStationSnapshot {
+
+	private final ObjectMapper objectMapper;
+	private final GasStationDataVersion dataVersion;
+	private volatile Snapshot snapshot;
+	private boolean gzip = true;
+
+	public GasStationSnapshot(ObjectMapper objectMapper, GasStationDataVersion dataVersion) {
+		this.objectMapper = objectMapper;
+		this.dataVersion = dataVersion;
+	}
+
+	/*
+	 * whether the gzip encoding is built too, for the clients accepting it
+	 */
+	@Value("${ezgas.snapshot.gzip:true}")
+	public void setGzip(boolean gzip) {
+		this.gzip = gzip;
+	}
+
+	/*
+	 * the current snapshot, rebuilt from the gas stations returned by loader if a
+	 * write happened since the last one. If a write happens while rebuilding, the
+	 * snapshot keeps the version read before loading, so the next get rebuilds it
+	 * again
+	 */
+	public Snapshot get(Supplier<List<GasStationDto>> loader) {
+		Snapshot current = snapshot;
+		if (current != null && current.version == dataVersion.get()) {
+			return current;
+		}
+		synchronized (this) {
+			long version = dataVersion.get();
+			current = snapshot;
+			if (current == null || current.version != version) {
+				byte[] json = this.encode(loader.get());
+				current = new Snapshot(version, dataVersion.etag(version, null), dataVersion.etag(version, "gz"),
+						json, gzip ? this.compress(json) : null);
+				snapshot = current;
+			}
+			return current;
+		}
+	}
+
+	private byte[] encode(List<GasStationDto> gasStationDtoList) {
+		try {
+			return objectMapper.writeValueAsBytes(gasStationDtoList);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private byte[] compress(byte[] json) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(json.length / 4 + 64);
+		try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+			out.write(json);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	public static final class Snapshot {
+		private final long version;
+		private final String etag;
+		private final String gzipEtag;
+		private final byte[] json;
+		private final byte[] gzip;
+
+		private Snapshot(long version, String etag, String gzipEtag, byte[] json, byte[] gzip) {
+			this.version = version;
+			this.etag = etag;
+			this.gzipEtag = gzipEtag;
+			this.json = json;
+			this.gzip = gzip;
+		}
+
+		public long getVersion() {
+			return version;
+		}
+
+		/*
+		 * the two encodings are different representations, so they have
+		 * different (strong) ETags
+		 */
+		public String getEtag(boolean gzipped) {
+			return gzipped ? gzipEtag : etag;
+		}
+
+		public byte[] getJson() {
+			return json;
+		}
+
+		/*
+		 * null if gzip is disabled
+		 */
+		public byte[] getGzip() {
+			return gzip;
+		}
+	}
+}
@@ -1,17 +1,43 @@
 package it.polito.ezgas.controller;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 import exception.*;
+import it.polito.ezgas.cache.GasStationDataVersion;
+import it.polito.ezgas.cache.GasStationSnapshot;
 import it.polito.ezgas.dto.PriceReportDto;
+import it.polito.ezgas.report.PriceReportQueue;
+import it.polito.ezgas.sync.PriceUpdateBroadcaster;
+import it.polito.ezgas.utils.FuelType;
+import it.polito.ezgas.utils.ReportOutcome;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import it.polito.ezgas.dto.GasStationChangesDto;
 import it.polito.ezgas.dto.GasStationDto;
 import it.polito.ezgas.service.GasStationService;
 
@@ -26,17 +52,42 @@ import it.polito.ezgas.utils.Constants;
  *
  * 3) issue 6		--->		"getGasStationsByProximity" and "getGasStationsWithCoordinates" have been updated to
  * 								support a customized search radius.
+ *
+ * The GET routes tag their responses with the GasStationDataVersion (ETag plus
+ * Cache-Control), a client sending back the tag of the current version gets a
+ * 304 without the gas stations being read.
  */
 @RequestMapping("/gasstation")
 @RestController
 
 public class GasStationController {
+
+	private static final String NDJSON = "application/x-ndjson";
 	
 	@Autowired
 	GasStationService gasStationService;
+	@Autowired
+	GasStationSnapshot gasStationSnapshot;
+	@Autowired
+	GasStationDataVersion gasStationDataVersion;
+	@Value("${ezgas.http.max-age:0}")
+	int maxAge;
+	@Autowired
+	PriceUpdateBroadcaster priceUpdateBroadcaster;
+	@Autowired
+	PriceReportQueue priceReportQueue;
+	@Value("${ezgas.price-updates.timeout-ms:1800000}")
+	long priceUpdatesTimeout;
+	@Autowired
+	ObjectMapper objectMapper;
+	@Value("${ezgas.reports.bulk-max-size:10000}")
+	int bulkMaxSize;
 	
 	@RequestMapping(Constants.GET_GASSTATION_BY_ID)
-	public GasStationDto getGasStationById(@PathVariable Integer gasStationId) {
+	public GasStationDto getGasStationById(ServletWebRequest request, @PathVariable Integer gasStationId) {
+		if (this.notModified(request, gasStationDataVersion.etag())) {
+			return null;
+		}
 		try {
 			return gasStationService.getGasStationById(gasStationId);
 		} catch (InvalidGasStationException e) {
@@ -45,9 +96,24 @@ public class GasStationController {
 		}
 	}
 	
+	/*
+	 * serves the pre-encoded snapshot (gzipped if the client accepts it), 304 if
+	 * the client already has the current one
+	 */
 	@RequestMapping(value = Constants.GET_ALL_GASSTATIONS, method = RequestMethod.GET)
-	public List<GasStationDto> getAllGasStations() {
-		return gasStationService.getAllGasStations();
+	public ResponseEntity<byte[]> getAllGasStations(ServletWebRequest request,
+			@RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+		GasStationSnapshot.Snapshot snapshot = gasStationSnapshot.get(gasStationService::getAllGasStations);
+		boolean gzipped = snapshot.getGzip() != null && acceptEncoding != null && acceptEncoding.contains("gzip");
+		request.getResponse().setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+		if (this.notModified(request, snapshot.getEtag(gzipped))) {
+			return null;
+		}
+		ResponseEntity.BodyBuilder response = ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8);
+		if (gzipped) {
+			return response.header(HttpHeaders.CONTENT_ENCODING, "gzip").body(snapshot.getGzip());
+		}
+		return response.body(snapshot.getJson());
 	}
 	
 	@RequestMapping(value = Constants.SAVE_GASSTATION, method = RequestMethod.POST)
@@ -73,7 +139,11 @@ public class GasStationController {
 	
 	
 	@RequestMapping(value = Constants.GET_GASSTATIONS_BY_GASOLINETYPE, method = RequestMethod.GET)
-	public List<GasStationDto> getGasStationsByGasolineType(@PathVariable String gasolinetype) {
+	public List<GasStationDto> getGasStationsByGasolineType(ServletWebRequest request,
+			@PathVariable String gasolinetype) {
+		if (this.notModified(request, gasStationDataVersion.etag())) {
+			return null;
+		}
 		ArrayList<GasStationDto> tmp = null;
 		
 		try {
@@ -101,7 +171,10 @@ public class GasStationController {
 	}*/
 
 	@RequestMapping(value = Constants.GET_GASSTATIONS_BY_PROXIMITY, method = RequestMethod.GET)
-	public List<GasStationDto> getGasStationsByProximity(@PathVariable Double myLat, @PathVariable Double myLon,@PathVariable Integer myRadius) {
+	public List<GasStationDto> getGasStationsByProximity(ServletWebRequest request, @PathVariable Double myLat, @PathVariable Double myLon,@PathVariable Integer myRadius) {
+		if (this.notModified(request, gasStationDataVersion.etag())) {
+			return null;
+		}
 		try {
 			return gasStationService.getGasStationsByProximity(myLat, myLon, myRadius);
 		} catch (GPSDataException e) {
@@ -111,6 +184,34 @@ public class GasStationController {
 		}
 	}
 	
+	@RequestMapping(value = Constants.GET_GASSTATIONS_BY_DISTANCE, method = RequestMethod.GET)
+	public List<GasStationDto> getGasStationsByDistance(ServletWebRequest request, @PathVariable Double myLat,
+			@PathVariable Double myLon, @PathVariable Integer myRadius) {
+		if (this.notModified(request, gasStationDataVersion.etag())) {
+			return null;
+		}
+		try {
+			return gasStationService.getGasStationsByDistance(myLat, myLon, myRadius);
+		} catch (GPSDataException e) {
+			System.out.println(e.getMessage());
+			return new ArrayList<GasStationDto>();
+		}
+	}
+	
+	@RequestMapping(value = Constants.GET_NEAREST_GASSTATIONS, method = RequestMethod.GET)
+	public List<GasStationDto> getNearestGasStations(ServletWebRequest request, @PathVariable Double myLat,
+			@PathVariable Double myLon, @PathVariable Integer k, @RequestParam(required = false) String gasolineType) {
+		if (this.notModified(request, gasStationDataVersion.etag())) {
+			return null;
+		}
+		try {
+			return gasStationService.getNearestGasStations(myLat, myLon, k, gasolineType);
+		} catch (GPSDataException | InvalidGasTypeException e) {
+			System.out.println(e.getMessage());
+			return new ArrayList<GasStationDto>();
+		}
+	}
+	
 	/*@RequestMapping(value = Constants.GET_GASSTATIONS_WITH_COORDINATES, method = RequestMethod.GET)
 	public List<GasStationDto> getGasStationsWithCoordinates(@PathVariable Double myLat, @PathVariable Double myLon, @PathVariable String gasolineType, @PathVariable String carSharing) {
 		
@@ -132,12 +233,16 @@ public class GasStationController {
 	}*/
 
 	@RequestMapping(value = Constants.GET_GASSTATIONS_WITH_COORDINATES, method = RequestMethod.GET)
-	public List<GasStationDto> getGasStationsWithCoordinates(@PathVariable Double myLat,
+	public List<GasStationDto> getGasStationsWithCoordinates(ServletWebRequest request,
+															 @PathVariable Double myLat,
 															 @PathVariable Double myLon,
 															 @PathVariable Integer myRadius,
 															 @PathVariable String gasolineType,
 															 @PathVariable String carSharing) {
 
+		if (this.notModified(request, gasStationDataVersion.etag())) {
+			return null;
+		}
 		ArrayList<GasStationDto> tmp = null;
 
 		try {
@@ -155,6 +260,64 @@ public class GasStationController {
 		return tmp;
 	}
 
+	/*
+	 * delta sync: what changed after the sequence number the client got last time
+	 */
+	@RequestMapping(value = Constants.GET_GASSTATION_CHANGES_SINCE, method = RequestMethod.GET)
+	public GasStationChangesDto getGasStationChangesSince(ServletWebRequest request, @PathVariable Long seq) {
+		if (this.notModified(request, gasStationDataVersion.etag())) {
+			return null;
+		}
+		return gasStationService.getGasStationChangesSince(seq);
+	}
+
+	/*
+	 * price reports of the gas station between from and to (epoch millis, by
+	 * default all of them)
+	 */
+	@RequestMapping(value = Constants.GET_PRICE_HISTORY, method = RequestMethod.GET)
+	public List<PriceReportDto> getPriceHistory(ServletWebRequest request, @PathVariable Integer gasStationId,
+			@RequestParam(required = false) Long from, @RequestParam(required = false) Long to) {
+		if (this.notModified(request, gasStationDataVersion.etag())) {
+			return null;
+		}
+		try {
+			return gasStationService.getPriceHistory(gasStationId, from == null ? 0 : from,
+					to == null ? Long.MAX_VALUE : to);
+		} catch (InvalidGasStationException e) {
+			System.out.println(e.getMessage());
+			return new ArrayList<PriceReportDto>();
+		}
+	}
+
+	/*
+	 * stream (Server-Sent Events) of the new prices of the gas stations inside the
+	 * box (bounds are optional) providing the fuel types, until timeout: then the
+	 * client reconnects. 400 for an invalid gasoline type, 503 if too many clients
+	 * are connected
+	 */
+	@RequestMapping(value = Constants.GET_PRICE_UPDATES, method = RequestMethod.GET,
+			produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	public ResponseEntity<SseEmitter> getPriceUpdates(@RequestParam(required = false) Double minLat,
+			@RequestParam(required = false) Double maxLat, @RequestParam(required = false) Double minLon,
+			@RequestParam(required = false) Double maxLon, @RequestParam(required = false) String gasolineType) {
+		int fuels = 0;
+		try {
+			if (gasolineType != null && !gasolineType.equals("null")) {
+				fuels = FuelType.parseMask(gasolineType);
+			}
+		} catch (InvalidGasTypeException e) {
+			System.out.println(e.getMessage());
+			return ResponseEntity.badRequest().build();
+		}
+		SseEmitter emitter = new SseEmitter(priceUpdatesTimeout);
+		if (!priceUpdateBroadcaster.subscribe(
+				new PriceUpdateBroadcaster.Filter(minLat, maxLat, minLon, maxLon, fuels), emitter)) {
+			return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+		}
+		return ResponseEntity.ok(emitter);
+	}
+
 	/*@RequestMapping(value = Constants.GET_GASSTATIONS_WITHOUT_COORDINATES, method = RequestMethod.GET)
 	public List<GasStationDto> getGasStationsWithoutCoordinates(@PathVariable String gasolineType, @PathVariable String carSharing) {
 		return gasStationService.getGasStationsWithoutCoordinates(gasolineType, carSharing);
@@ -200,8 +363,27 @@ public class GasStationController {
 			System.out.println(e.getMessage());
 		}
 	}*/
+	/*
+	 * with the asynchronous reports the report is only checked and queued: 202
+	 * with the depth of the queue, 400 if it is not valid, 503 (retry later) if
+	 * the queue is full
+	 */
 	@RequestMapping(value = Constants.SET_GASSTATION_REPORT, method = RequestMethod.POST)
-	public void setGasStationReport(@RequestBody PriceReportDto priceReportDto) {
+	public ResponseEntity<Void> setGasStationReport(@RequestBody PriceReportDto priceReportDto) {
+		if (priceReportQueue.isEnabled()) {
+			try {
+				if (!priceReportQueue.offer(priceReportDto)) {
+					return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1")
+							.header(Constants.REPORT_QUEUE_DEPTH_HEADER, String.valueOf(priceReportQueue.getDepth()))
+							.build();
+				}
+			} catch (InvalidGasStationException | InvalidUserException | PriceException e) {
+				System.out.println(e.getMessage());
+				return ResponseEntity.badRequest().build();
+			}
+			return ResponseEntity.status(HttpStatus.ACCEPTED)
+					.header(Constants.REPORT_QUEUE_DEPTH_HEADER, String.valueOf(priceReportQueue.getDepth())).build();
+		}
 
 		try {
 			gasStationService.setReport(priceReportDto.getGasStationId(),
@@ -222,5 +404,75 @@ public class GasStationController {
 			// TODO Auto-generated catch block
 			System.out.println(e.getMessage());
 		}
+		return ResponseEntity.ok().build();
+	}
+
+	/*
+	 * bulk version of setGasStationReport for the partner feeds: a JSON array of
+	 * reports, applied together in one transaction. Returns the outcome of each
+	 * report in the same order, 413 if there are more than bulk-max-size. The
+	 * array is read one report at a time, so an oversized one is refused at report
+	 * bulk-max-size + 1 without being parsed as a whole; 400 if it is not an array
+	 * of reports
+	 */
+	@RequestMapping(value = Constants.SET_GASSTATION_REPORTS, method = RequestMethod.POST,
+			consumes = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<List<ReportOutcome>> setGasStationReports(InputStream body) throws IOException {
+		try (JsonParser parser = objectMapper.getFactory().createParser(body)) {
+			if (parser.nextToken() != JsonToken.START_ARRAY) {
+				return ResponseEntity.badRequest().build();
+			}
+			// past the start of the array, the iterator reads its elements until its end
+			parser.clearCurrentToken();
+			return this.setGasStationReports(objectMapper.readerFor(PriceReportDto.class).readValues(parser));
+		} catch (JsonProcessingException e) {
+			System.out.println(e.getMessage());
+			return ResponseEntity.badRequest().build();
+		}
+	}
+
+	/*
+	 * the same with one report per line (NDJSON); 400 if a line is not a report
+	 */
+	@RequestMapping(value = Constants.SET_GASSTATION_REPORTS, method = RequestMethod.POST, consumes = NDJSON)
+	public ResponseEntity<List<ReportOutcome>> setGasStationReportLines(InputStream body) throws IOException {
+		try {
+			return this.setGasStationReports(objectMapper.readerFor(PriceReportDto.class).readValues(body));
+		} catch (JsonProcessingException e) {
+			System.out.println(e.getMessage());
+			return ResponseEntity.badRequest().build();
+		}
+	}
+
+	/*
+	 * reads the reports one at a time, stopping (413) once there are more than
+	 * bulk-max-size
+	 */
+	private ResponseEntity<List<ReportOutcome>> setGasStationReports(MappingIterator<PriceReportDto> values)
+			throws IOException {
+		List<PriceReportDto> reports = new ArrayList<>();
+		try (MappingIterator<PriceReportDto> iterator = values) {
+			while (iterator.hasNextValue()) {
+				if (reports.size() == bulkMaxSize) {
+					return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build();
+				}
+				reports.add(iterator.nextValue());
+			}
+		}
+		return ResponseEntity.ok(gasStationService.setReports(reports));
+	}
+
+	/*
+	 * sets the ETag and Cache-Control headers and tells if the client already has
+	 * that version (then the handler returns null and a 304 is sent). The tag is
+	 * read before the gas stations, so a write in between can only cause a
+	 * useless download, never a stale 304. With max-age 0 clients revalidate at
+	 * every use
+	 */
+	private boolean notModified(ServletWebRequest request, String etag) {
+		CacheControl cacheControl = maxAge > 0 ? CacheControl.maxAge(maxAge, TimeUnit.SECONDS).mustRevalidate()
+				: CacheControl.noCache();
+		request.getResponse().setHeader(HttpHeaders.CACHE_CONTROL, cacheControl.getHeaderValue());
+		return request.checkNotModified(etag);
 	}
 }
@@ -3,14 +3,19 @@ package it.polito.ezgas.controller;
 import java.util.List;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RestController;
 
 import exception.InvalidLoginDataException;
 import exception.InvalidUserException;
+import exception.SessionLimitException;
 import it.polito.ezgas.dto.IdPw;
 import it.polito.ezgas.dto.LoginDto;
 import it.polito.ezgas.dto.UserDto;
@@ -81,10 +86,16 @@ public class UserController {
 		}
 	}
 
+	/*
+	 * 503 (retry later) if the session store is full and refuses new sessions
+	 */
 	@RequestMapping(value = Constants.LOGIN, method = RequestMethod.POST)
-	public LoginDto login(@RequestBody IdPw credentials) {
+	public ResponseEntity<LoginDto> login(@RequestBody IdPw credentials) {
 		try {
-			return userService.login(credentials);
+			return ResponseEntity.ok(userService.login(credentials));
+		} catch (SessionLimitException e) {
+			System.out.println(e.getMessage());
+			return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "60").build();
 		} catch (InvalidLoginDataException e) {
 			// TODO Auto-generated catch block
 			System.out.println(e.getMessage());
@@ -92,4 +103,14 @@ public class UserController {
 		}
 	}
 
+	@RequestMapping(value = Constants.LOGOUT, method = RequestMethod.POST)
+	public Boolean logout(@RequestHeader(value = Constants.SESSION_TOKEN_HEADER, required = false) String token) {
+		return userService.logout(token);
+	}
+
+	@RequestMapping(Constants.GET_SESSION)
+	public LoginDto getSession(@RequestHeader(value = Constants.SESSION_TOKEN_HEADER, required = false) String token) {
+		return userService.getSession(token);
+	}
+
 }
@@ -0,0 +1,34 @@
+package it.polito.ezgas.converter;
+
+import it.polito.ezgas.dto.PriceReportDto;
+import it.polito.ezgas.entity.PriceReport;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.stereotype.Component;
+
+@Component
+public class PriceReportConverter {
+
+	public PriceReportDto toPriceReportDto(PriceReport priceReport) {
+
+		PriceReportDto prdto = new PriceReportDto(priceReport.getGasStationId(), priceReport.getDieselPrice(),
+				priceReport.getSuperPrice(), priceReport.getSuperPlusPrice(), priceReport.getGasPrice(),
+				priceReport.getMethanePrice(), priceReport.getPremiumDieselPrice(),
+				priceReport.getUserId());
+		prdto.setReportTime(priceReport.getReportTime());
+
+		return prdto;
+	}
+
+	public List<PriceReportDto> toPriceReportDtoList(List<PriceReport> priceReportList) {
+
+		List<PriceReportDto> prdtolist = new ArrayList<>();
+
+		for (PriceReport pr : priceReportList)
+			prdtolist.add(this.toPriceReportDto(pr));
+
+		return prdtolist;
+	}
+}
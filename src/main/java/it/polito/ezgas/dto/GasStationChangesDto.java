@@ -0,0 +1,60 @@
+package it.polito.ezgas.dto;
+
+import java.util.List;
+
+/**
+ * Answer of the delta sync: the gas stations changed and the ids of the ones
+ * deleted since the sequence number asked, plus the sequence number to ask
+ * next time. When reset is true the client must replace its copy with the
+ * changed gas stations (it asked from 0 or from a sequence number this server
+ * never gave).
+ */
+public class GasStationChangesDto {
+
+	private Long seq;
+	private boolean reset;
+	private List<GasStationDto> changed;
+	private List<Integer> deleted;
+
+	public GasStationChangesDto(Long seq, boolean reset, List<GasStationDto> changed, List<Integer> deleted) {
+		this.seq = seq;
+		this.reset = reset;
+		this.changed = changed;
+		this.deleted = deleted;
+	}
+
+	public GasStationChangesDto() {
+	}
+
+	public Long getSeq() {
+		return seq;
+	}
+
+	public void setSeq(Long seq) {
+		this.seq = seq;
+	}
+
+	public boolean isReset() {
+		return reset;
+	}
+
+	public void setReset(boolean reset) {
+		this.reset = reset;
+	}
+
+	public List<GasStationDto> getChanged() {
+		return changed;
+	}
+
+	public void setChanged(List<GasStationDto> changed) {
+		this.changed = changed;
+	}
+
+	public List<Integer> getDeleted() {
+		return deleted;
+	}
+
+	public void setDeleted(List<Integer> deleted) {
+		this.deleted = deleted;
+	}
+}
@@ -6,6 +6,8 @@ import java.util.List;
 import javax.persistence.Column;
 import javax.persistence.ManyToOne;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import it.polito.ezgas.entity.User;
 
 public class GasStationDto {
@@ -36,6 +38,9 @@ public class GasStationDto {
     UserDto userDto;
     String reportTimestamp;
     double reportDependability;
+    // km from the searched point, only set by the distance searches
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    Double distance;
 
 
  
@@ -100,6 +105,24 @@ public class GasStationDto {
 		this.reportDependability = reportDependability;
 	}
 
+	/*
+	 * a copy, with a copy of the reporter
+	 */
+	public GasStationDto(GasStationDto gasStationDto) {
+		this(gasStationDto.gasStationId, gasStationDto.gasStationName, gasStationDto.gasStationAddress,
+				gasStationDto.hasDiesel, gasStationDto.hasSuper, gasStationDto.hasSuperPlus, gasStationDto.hasGas,
+				gasStationDto.hasMethane, gasStationDto.hasPremiumDiesel, gasStationDto.carSharing, gasStationDto.lat,
+				gasStationDto.lon, gasStationDto.dieselPrice, gasStationDto.superPrice, gasStationDto.superPlusPrice,
+				gasStationDto.gasPrice, gasStationDto.methanePrice, gasStationDto.premiumDieselPrice,
+				gasStationDto.reportUser, gasStationDto.reportTimestamp, gasStationDto.reportDependability);
+		UserDto userDto = gasStationDto.userDto;
+		if (userDto != null) {
+			this.userDto = new UserDto(userDto.getUserId(), userDto.getUserName(), userDto.getPassword(),
+					userDto.getEmail(), userDto.getReputation(), userDto.getAdmin());
+		}
+		this.distance = gasStationDto.distance;
+	}
+
 	public double getReportDependability() {
 		return reportDependability;
 	}
@@ -287,4 +310,12 @@ public class GasStationDto {
 	public void setCarSharing(String carSharing) {
 		this.carSharing = carSharing;
 	}
+
+	public Double getDistance() {
+		return distance;
+	}
+
+	public void setDistance(Double distance) {
+		this.distance = distance;
+	}
 }
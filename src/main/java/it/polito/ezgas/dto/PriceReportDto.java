@@ -10,6 +10,8 @@ public class PriceReportDto {
     Double methanePrice;
     Double premiumDieselPrice;
     Integer userId;
+    // epoch millis, set only in the price history
+    Long reportTime;
 
     public PriceReportDto(Integer gasStationId, Double dieselPrice, Double superPrice, Double superPlusPrice, Double gasPrice, Double methanePrice, Double premiumDieselPrice, Integer userId) {
         this.gasStationId = gasStationId;
@@ -55,4 +57,8 @@ public class PriceReportDto {
     public Integer getUserId() { return userId; }
 
     public void setUserId(Integer userId) { this.userId = userId; }
+
+    public Long getReportTime() { return reportTime; }
+
+    public void setReportTime(Long reportTime) { this.reportTime = reportTime; }
 }
@@ -0,0 +1,151 @@
+package it.polito.ezgas.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import it.polito.ezgas.entity.GasStation;
+
+/**
+ * New prices of a gas station, pushed to the clients following the price
+ * updates. Only the prices of the fuels the gas station provides are sent,
+ * changeSeq (the high-water mark of the change log once the prices were
+ * committed) tells where to resume with the delta sync after a reconnection.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class PriceUpdateDto {
+
+	private Integer gasStationId;
+	private double lat;
+	private double lon;
+	private Double dieselPrice;
+	private Double superPrice;
+	private Double superPlusPrice;
+	private Double gasPrice;
+	private Double methanePrice;
+	private Double premiumDieselPrice;
+	private Integer reportUser;
+	private String reportTimestamp;
+	private double reportDependability;
+	private Long changeSeq;
+
+	public PriceUpdateDto(GasStation gasStation) {
+		this.gasStationId = gasStation.getGasStationId();
+		this.lat = gasStation.getLat();
+		this.lon = gasStation.getLon();
+		this.dieselPrice = gasStation.getHasDiesel() ? gasStation.getDieselPrice() : null;
+		this.superPrice = gasStation.getHasSuper() ? gasStation.getSuperPrice() : null;
+		this.superPlusPrice = gasStation.getHasSuperPlus() ? gasStation.getSuperPlusPrice() : null;
+		this.gasPrice = gasStation.getHasGas() ? gasStation.getGasPrice() : null;
+		this.methanePrice = gasStation.getHasMethane() ? gasStation.getMethanePrice() : null;
+		this.premiumDieselPrice = gasStation.getHasPremiumDiesel() ? gasStation.getPremiumDieselPrice() : null;
+		this.reportUser = gasStation.getReportUser();
+		this.reportTimestamp = gasStation.getReportTimestamp();
+		this.reportDependability = gasStation.getReportDependability();
+	}
+
+	public PriceUpdateDto() {
+	}
+
+	public Integer getGasStationId() {
+		return gasStationId;
+	}
+
+	public void setGasStationId(Integer gasStationId) {
+		this.gasStationId = gasStationId;
+	}
+
+	public double getLat() {
+		return lat;
+	}
+
+	public void setLat(double lat) {
+		this.lat = lat;
+	}
+
+	public double getLon() {
+		return lon;
+	}
+
+	public void setLon(double lon) {
+		this.lon = lon;
+	}
+
+	public Double getDieselPrice() {
+		return dieselPrice;
+	}
+
+	public void setDieselPrice(Double dieselPrice) {
+		this.dieselPrice = dieselPrice;
+	}
+
+	public Double getSuperPrice() {
+		return superPrice;
+	}
+
+	public void setSuperPrice(Double superPrice) {
+		this.superPrice = superPrice;
+	}
+
+	public Double getSuperPlusPrice() {
+		return superPlusPrice;
+	}
+
+	public void setSuperPlusPrice(Double superPlusPrice) {
+		this.superPlusPrice = superPlusPrice;
+	}
+
+	public Double getGasPrice() {
+		return gasPrice;
+	}
+
+	public void setGasPrice(Double gasPrice) {
+		this.gasPrice = gasPrice;
+	}
+
+	public Double getMethanePrice() {
+		return methanePrice;
+	}
+
+	public void setMethanePrice(Double methanePrice) {
+		this.methanePrice = methanePrice;
+	}
+
+	public Double getPremiumDieselPrice() {
+		return premiumDieselPrice;
+	}
+
+	public void setPremiumDieselPrice(Double premiumDieselPrice) {
+		this.premiumDieselPrice = premiumDieselPrice;
+	}
+
+	public Integer getReportUser() {
+		return reportUser;
+	}
+
+	public void setReportUser(Integer reportUser) {
+		this.reportUser = reportUser;
+	}
+
+	public String getReportTimestamp() {
+		return reportTimestamp;
+	}
+
+	public void setReportTimestamp(String reportTimestamp) {
+		this.reportTimestamp = reportTimestamp;
+	}
+
+	public double getReportDependability() {
+		return reportDependability;
+	}
+
+	public void setReportDependability(double reportDependability) {
+		this.reportDependability = reportDependability;
+	}
+
+	public Long getChangeSeq() {
+		return changeSeq;
+	}
+
+	public void setChangeSeq(Long changeSeq) {
+		this.changeSeq = changeSeq;
+	}
+}
@@ -7,10 +7,21 @@ import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+import javax.persistence.Table;
+import javax.persistence.Version;
+
+import it.polito.ezgas.utils.FuelType;
+import it.polito.ezgas.utils.ReportDate;
 
 @Entity
+@Table(indexes = { @Index(name = "IDX_GAS_STATION_FUEL_MASK_CAR_SHARING", columnList = "fuelMask, carSharing"),
+		@Index(name = "IDX_GAS_STATION_CHANGE_SEQ", columnList = "changeSeq"),
+		@Index(name = "IDX_GAS_STATION_REPORT_DAY", columnList = "reportDay") })
 public class GasStation implements Serializable {
 	
 	
@@ -40,6 +51,9 @@ public class GasStation implements Serializable {
 
     @Column
     private String carSharing;
+    // FuelType mask of the has* flags, kept in sync on every insert and update
+    @Column
+    private Integer fuelMask;
     @Column
     private double lat;
     @Column
@@ -61,8 +75,19 @@ public class GasStation implements Serializable {
     private Integer reportUser;
     @Column
     private String reportTimestamp;
+    // epoch day of reportTimestamp, the days passed since the report are today - reportDay
+    @Column
+    private Long reportDay;
     @Column
     private double reportDependability;
+    // GasStationChangeLog sequence number of the last change, for the delta sync
+    @Column
+    private Long changeSeq;
+    // optimistic lock, a report applied on a stale copy of the gas station fails instead of overwriting a newer one.
+    // The default gives a version to the gas stations stored before the column was added
+    @Version
+    @Column(columnDefinition = "bigint default 0 not null")
+    private long version;
 
     @ManyToOne(optional = true)
     @JoinColumn(name = "USER_ID")
@@ -148,6 +173,7 @@ public class GasStation implements Serializable {
 		this.reportUser = reportUser;
 		this.user = null;
 		this.reportTimestamp = reportTimestamp;
+		this.reportDay = ReportDate.toEpochDay(reportTimestamp);
 		this.reportDependability = reportDependability;
 	}
     
@@ -174,6 +200,19 @@ public class GasStation implements Serializable {
 
 	public void setReportTimestamp(String reportTimestamp) {
 		this.reportTimestamp = reportTimestamp;
+		this.reportDay = ReportDate.toEpochDay(reportTimestamp);
+	}
+
+	public Long getReportDay() {
+		return reportDay;
+	}
+
+	/*
+	 * sets the day of the report and its timestamp in the MM-dd-yyyy format
+	 */
+	public void setReportDay(Long reportDay) {
+		this.reportDay = reportDay;
+		this.reportTimestamp = reportDay == null ? null : ReportDate.format(reportDay);
 	}
 
 	public boolean getHasDiesel() {
@@ -304,6 +343,36 @@ public class GasStation implements Serializable {
 		this.carSharing = carSharing;
 	}
 
+	public Integer getFuelMask() {
+		return fuelMask;
+	}
+
+	public void setFuelMask(Integer fuelMask) {
+		this.fuelMask = fuelMask;
+	}
+
+	public Long getChangeSeq() {
+		return changeSeq;
+	}
+
+	public void setChangeSeq(Long changeSeq) {
+		this.changeSeq = changeSeq;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public void setVersion(long version) {
+		this.version = version;
+	}
+
+	@PrePersist
+	@PreUpdate
+	public void updateFuelMask() {
+		this.fuelMask = FuelType.maskOf(this);
+	}
+
 	
 	
 	
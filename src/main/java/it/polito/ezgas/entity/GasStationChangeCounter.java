@@ -0,0 +1,50 @@
+package it.polito.ezgas.entity;
+
+import java.io.Serializable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+/**
+ * The single row holding the greatest GasStationChangeLog sequence number that
+ * may have been given, so that after a restart the sequence goes on above it
+ * even if the changes numbered last were never written.
+ */
+@Entity
+public class GasStationChangeCounter implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	public static final Integer ID = 1;
+
+	@Column
+	@Id
+	private Integer counterId;
+	@Column
+	private Long reserved;
+
+	public GasStationChangeCounter() {
+	}
+
+	public GasStationChangeCounter(Long reserved) {
+		this.counterId = ID;
+		this.reserved = reserved;
+	}
+
+	public Integer getCounterId() {
+		return counterId;
+	}
+
+	public void setCounterId(Integer counterId) {
+		this.counterId = counterId;
+	}
+
+	public Long getReserved() {
+		return reserved;
+	}
+
+	public void setReserved(Long reserved) {
+		this.reserved = reserved;
+	}
+}
@@ -0,0 +1,50 @@
+package it.polito.ezgas.entity;
+
+import java.io.Serializable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+/**
+ * A deleted gas station, kept with the GasStationChangeLog sequence number of
+ * its deletion so that the delta sync can tell the clients to drop it.
+ */
+@Entity
+@Table(indexes = @Index(name = "IDX_GAS_STATION_TOMBSTONE_CHANGE_SEQ", columnList = "changeSeq"))
+public class GasStationTombstone implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	@Column
+	@Id
+	private Integer gasStationId;
+	@Column
+	private Long changeSeq;
+
+	public GasStationTombstone() {
+	}
+
+	public GasStationTombstone(Integer gasStationId, Long changeSeq) {
+		this.gasStationId = gasStationId;
+		this.changeSeq = changeSeq;
+	}
+
+	public Integer getGasStationId() {
+		return gasStationId;
+	}
+
+	public void setGasStationId(Integer gasStationId) {
+		this.gasStationId = gasStationId;
+	}
+
+	public Long getChangeSeq() {
+		return changeSeq;
+	}
+
+	public void setChangeSeq(Long changeSeq) {
+		this.changeSeq = changeSeq;
+	}
+}
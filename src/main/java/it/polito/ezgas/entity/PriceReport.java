@@ -5,9 +5,16 @@ import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
-import javax.persistence.ManyToOne;
+import javax.persistence.Index;
+import javax.persistence.Table;
 
+/*
+ * an accepted price report, rows are only appended: the history of the prices of a gas station
+ * (gasStationId and userId are plain columns, so the history survives the deletion of the gas
+ * station and of the user)
+ */
 @Entity
+@Table(indexes = @Index(name = "IDX_PRICE_REPORT_GAS_STATION_TIME", columnList = "gasStationId, reportTime"))
 public class PriceReport {
 	
     private static final long serialVersionUID = 0x62A6DA99AABDA8A9L;
@@ -16,19 +23,28 @@ public class PriceReport {
 	@GeneratedValue(strategy = GenerationType.AUTO)
 	@Id
 	private Integer priceReportId;
-    @ManyToOne
-    private User user;
+    @Column
+    private Integer userId;
+	@Column
+	private Integer gasStationId;
+	// epoch millis of the report
+	@Column
+	private Long reportTime;
 	
 	
 	@Column
-	private double dieselPrice;
+	private Double dieselPrice;
 
 	@Column
-	private double superPrice;
+	private Double superPrice;
 	@Column
-	private double superPlusPrice;
+	private Double superPlusPrice;
 	@Column
-	private double gasPrice;
+	private Double gasPrice;
+	@Column
+	private Double methanePrice;
+	@Column
+	private Double premiumDieselPrice;
 	
 	
 	
@@ -37,45 +53,85 @@ public class PriceReport {
 	
 	public PriceReport(User user, double dieselPrice, double superPrice, double superPlusPrice, double gasPrice) {
 		super();
-		this.user = user;
+		this.userId = user.getUserId();
+		this.dieselPrice = dieselPrice;
+		this.superPrice = superPrice;
+		this.superPlusPrice = superPlusPrice;
+		this.gasPrice = gasPrice;
+	}
+
+	public PriceReport(Integer userId, Integer gasStationId, Long reportTime, Double dieselPrice, Double superPrice,
+			Double superPlusPrice, Double gasPrice, Double methanePrice, Double premiumDieselPrice) {
+		this.userId = userId;
+		this.gasStationId = gasStationId;
+		this.reportTime = reportTime;
 		this.dieselPrice = dieselPrice;
 		this.superPrice = superPrice;
 		this.superPlusPrice = superPlusPrice;
 		this.gasPrice = gasPrice;
+		this.methanePrice = methanePrice;
+		this.premiumDieselPrice = premiumDieselPrice;
+	}
+
+	public PriceReport() {
 	}
 	
 	
 	
-	public User getUser() {
-		return user;
+	public Integer getUserId() {
+		return userId;
+	}
+	public void setUserId(Integer userId) {
+		this.userId = userId;
+	}
+	public Integer getGasStationId() {
+		return gasStationId;
+	}
+	public void setGasStationId(Integer gasStationId) {
+		this.gasStationId = gasStationId;
 	}
-	public void setUser(User user) {
-		this.user = user;
+	public Long getReportTime() {
+		return reportTime;
 	}
-	public double getDieselPrice() {
+	public void setReportTime(Long reportTime) {
+		this.reportTime = reportTime;
+	}
+	public Double getDieselPrice() {
 		return dieselPrice;
 	}
-	public void setDieselPrice(double dieselPrice) {
+	public void setDieselPrice(Double dieselPrice) {
 		this.dieselPrice = dieselPrice;
 	}
-	public double getSuperPrice() {
+	public Double getSuperPrice() {
 		return superPrice;
 	}
-	public void setSuperPrice(double superPrice) {
+	public void setSuperPrice(Double superPrice) {
 		this.superPrice = superPrice;
 	}
-	public double getSuperPlusPrice() {
+	public Double getSuperPlusPrice() {
 		return superPlusPrice;
 	}
-	public void setSuperPlusPrice(double superPlusPrice) {
+	public void setSuperPlusPrice(Double superPlusPrice) {
 		this.superPlusPrice = superPlusPrice;
 	}
-	public double getGasPrice() {
+	public Double getGasPrice() {
 		return gasPrice;
 	}
-	public void setGasPrice(double gasPrice) {
+	public void setGasPrice(Double gasPrice) {
 		this.gasPrice = gasPrice;
 	}
+	public Double getMethanePrice() {
+		return methanePrice;
+	}
+	public void setMethanePrice(Double methanePrice) {
+		this.methanePrice = methanePrice;
+	}
+	public Double getPremiumDieselPrice() {
+		return premiumDieselPrice;
+	}
+	public void setPremiumDieselPrice(Double premiumDieselPrice) {
+		this.premiumDieselPrice = premiumDieselPrice;
+	}
 
 
 
@@ -1,17 +1,25 @@
 package it.polito.ezgas.entity;
 
 import java.io.Serializable;
+import java.util.Locale;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
 
 /**
  * Created by softeng on 27/4/2020.
  */
 @Entity
+@Table(uniqueConstraints = @UniqueConstraint(name = "UK_USER_EMAIL_KEY", columnNames = "emailKey"),
+		indexes = @Index(name = "IDX_USER_ADMIN", columnList = "admin"))
 public class User implements Serializable{
 
     private static final long serialVersionUID = 0x62A6DA99AABDA8A8L;
@@ -26,6 +34,12 @@ public class User implements Serializable{
     private String password;
     @Column
     private String email;
+    /*
+     * the email as compared (trimmed, lower case), unique: derived from email
+     * when the user is stored
+     */
+    @Column
+    private String emailKey;
     @Column
     private Integer reputation;
     @Column
@@ -63,6 +77,14 @@ public class User implements Serializable{
     	this.email = email;
     }
 
+    public String getEmailKey() {
+    	return emailKey;
+    }
+
+    public void setEmailKey(String emailKey) {
+    	this.emailKey = emailKey;
+    }
+
     public User() {
     }
 
@@ -88,4 +110,24 @@ public class User implements Serializable{
     public void setAdmin(Boolean admin) {
     	this.admin = admin;
     }
+
+    @PrePersist
+    @PreUpdate
+    public void updateEmailKey() {
+    	this.emailKey = emailKey(email);
+    }
+
+    public static String emailKey(String email) {
+    	return email == null ? null : email.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /*
+     * the key of a user stored before the emailKey column with the email of an
+     * older user: unique, and starting with a blank so no (trimmed) email
+     * matches it. The user can't log in until the email is changed, which
+     * derives the key again
+     */
+    public static String duplicateEmailKey(Integer userId) {
+    	return " duplicate " + userId;
+    }
 }
@@ -0,0 +1,42 @@
+package it.polito.ezgas.history;
+
+import java.util.List;
+
+import org.springframework.stereotype.Component;
+
+import it.polito.ezgas.entity.PriceReport;
+import it.polito.ezgas.repository.PriceReportRepository;
+
+/**
+ * Appends the accepted price reports to the history. The rows are inserted in
+ * the transaction applying the reports (the ones of a setReports chunk together,
+ * JDBC batched with the gas station updates), so a report is in the history if
+ * and only if it was applied: nothing waits in memory to be dropped or lost
+ * with the process, and reading the history is a plain query.
+ */
+@Component
+public class PriceReportRecorder {
+
+	private final PriceReportRepository priceReportRepository;
+
+	public PriceReportRecorder(PriceReportRepository priceReportRepository) {
+		this.priceReportRepository = priceReportRepository;
+	}
+
+	/*
+	 * to be called in the transaction of the reports, rolled back (and replayed)
+	 * with it
+	 */
+	public void record(List<PriceReport> priceReports) {
+		if (!priceReports.isEmpty()) {
+			priceReportRepository.save(priceReports);
+		}
+	}
+
+	/*
+	 * the reports of the gas station between from and to (epoch millis)
+	 */
+	public List<PriceReport> findHistory(Integer gasStationId, long from, long to) {
+		return priceReportRepository.findHistory(gasStationId, from, to);
+	}
+}
@@ -0,0 +1,124 @@
+package it.polito.ezgas.index;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.stereotype.Component;
+
+import it.polito.ezgas.entity.GasStation;
+import it.polito.ezgas.repository.GasStationRepository;
+import it.polito.ezgas.utils.FuelType;
+
+/**
+ * Spatial index of the gas stations kept in memory, so that the proximity
+ * searches can find the ids of the stations inside an area (or the closest ones)
+ * without scanning the lat/lon columns of the database. Each station is tagged
+ * with the FuelType mask of the fuels it provides.
+ *
+ * It is filled at startup and then kept in sync by the GasStationService on
+ * every save and delete. Many readers can search at the same time, writers are
+ * exclusive.
+ */
+@Component
+public class GasStationIndex {
+
+	private final RTree tree = new RTree();
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private GasStationRepository gasStationRepository;
+
+	public GasStationIndex(GasStationRepository gasStationRepository) {
+		this.gasStationRepository = gasStationRepository;
+	}
+
+	/*
+	 * bulk loads the coordinates of all the gas stations stored in the DB
+	 */
+	@PostConstruct
+	public void rebuild() {
+		List<RTree.Entry> points = new ArrayList<>();
+		for (Object[] row : gasStationRepository.findAllCoordinates()) {
+			int fuels = FuelType.maskOf((Boolean) row[3], (Boolean) row[4], (Boolean) row[5], (Boolean) row[6],
+					(Boolean) row[7], (Boolean) row[8]);
+			points.add(new RTree.Entry((Integer) row[0], (Double) row[1], (Double) row[2], fuels));
+		}
+		lock.writeLock().lock();
+		try {
+			tree.load(points);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * adds the gas station to the index or updates it if its coordinates or fuels
+	 * changed
+	 */
+	public void put(GasStation gasStation) {
+		if (gasStation == null || gasStation.getGasStationId() == null) {
+			return;
+		}
+		lock.writeLock().lock();
+		try {
+			RTree.Entry old = tree.get(gasStation.getGasStationId());
+			int fuels = FuelType.maskOf(gasStation);
+			if (old == null || old.getLat() != gasStation.getLat() || old.getLon() != gasStation.getLon()
+					|| old.getTags() != fuels) {
+				tree.insert(gasStation.getGasStationId(), gasStation.getLat(), gasStation.getLon(), fuels);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public void remove(Integer gasStationId) {
+		lock.writeLock().lock();
+		try {
+			tree.remove(gasStationId);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * returns the ids (sorted) of the gas stations inside the box, bounds included
+	 */
+	public List<Integer> findWithin(double minLat, double maxLat, double minLon, double maxLon) {
+		List<Integer> ids;
+		lock.readLock().lock();
+		try {
+			ids = tree.search(minLat, maxLat, minLon, maxLon);
+		} finally {
+			lock.readLock().unlock();
+		}
+		Collections.sort(ids);
+		return ids;
+	}
+
+	/*
+	 * returns the ids of the k gas stations closest to (lat, lon) providing all the
+	 * fuels in the mask (0 for any), the closest first
+	 */
+	public List<Integer> findNearest(double lat, double lon, int k, int fuels) {
+		lock.readLock().lock();
+		try {
+			return tree.nearest(lat, lon, k, fuels);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return tree.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+}
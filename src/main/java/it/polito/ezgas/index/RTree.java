@@ -0,0 +1,458 @@
+package it.polito.ezgas.index;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * In-memory R-tree of points (latitude, longitude) identified by an integer id.
+ * Each point carries a bit mask of tags (e.g. the fuels of a gas station) and
+ * every node keeps the union of the tags below it, so the searches filtered by
+ * tags can skip whole subtrees.
+ *
+ * The tree can be bulk loaded with the Sort-Tile-Recursive algorithm and is then
+ * kept up to date with single inserts (quadratic split) and removals (underfull
+ * nodes are dissolved and their points reinserted). It is not thread safe, the
+ * owner has to synchronize the accesses.
+ */
+public class RTree {
+
+	static final int MAX_ENTRIES = 16;
+	static final int MIN_ENTRIES = 6;
+
+	private Node root = new Node(true);
+	private final Map<Integer, Entry> entries = new HashMap<>();
+
+	/*
+	 * replaces the whole content of the tree with the given points, building it
+	 * bottom-up with the STR packing (much faster and tighter than inserting them
+	 * one at a time)
+	 */
+	public void load(Collection<Entry> points) {
+		entries.clear();
+		List<Box> level = new ArrayList<>();
+		for (Entry e : points) {
+			if (entries.put(e.id, e) == null) {
+				level.add(e);
+			}
+		}
+		boolean leaf = true;
+		do {
+			level = pack(level, leaf);
+			leaf = false;
+		} while (level.size() > 1);
+		root = (Node) level.get(0);
+	}
+
+	/*
+	 * adds a point, moving it if the id is already in the tree
+	 */
+	public void insert(int id, double lat, double lon, int tags) {
+		remove(id);
+		Entry e = new Entry(id, lat, lon, tags);
+		entries.put(id, e);
+		insert(e);
+	}
+
+	/*
+	 * removes a point, returns false if the id was not in the tree
+	 */
+	public boolean remove(int id) {
+		Entry e = entries.remove(id);
+		if (e == null) {
+			return false;
+		}
+		List<Entry> orphans = new ArrayList<>();
+		remove(root, e, orphans);
+		if (!root.leaf && root.items.size() == 1) {
+			root = (Node) root.items.get(0);
+		} else if (root.items.isEmpty()) {
+			root = new Node(true);
+		}
+		for (Entry orphan : orphans) {
+			insert(orphan);
+		}
+		return true;
+	}
+
+	public boolean contains(int id) {
+		return entries.containsKey(id);
+	}
+
+	public Entry get(int id) {
+		return entries.get(id);
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	/*
+	 * collects the ids of all the points inside the box (bounds included)
+	 */
+	public List<Integer> search(double minLat, double maxLat, double minLon, double maxLon) {
+		List<Integer> result = new ArrayList<>();
+		if (!root.items.isEmpty()) {
+			search(root, minLat, maxLat, minLon, maxLon, result);
+		}
+		return result;
+	}
+
+	private void search(Node node, double minLat, double maxLat, double minLon, double maxLon, List<Integer> result) {
+		for (Box b : node.items) {
+			if (b.intersects(minLat, maxLat, minLon, maxLon)) {
+				if (node.leaf) {
+					result.add(((Entry) b).id);
+				} else {
+					search((Node) b, minLat, maxLat, minLon, maxLon, result);
+				}
+			}
+		}
+	}
+
+	/*
+	 * best-first search of the k points closest to (lat, lon) having all the given
+	 * tags: nodes are visited in order of minimum possible distance, so the search
+	 * stops after k points without looking at the rest of the tree. Distances are
+	 * equirectangular (longitudes scaled by cos(lat)), good for ranking nearby
+	 * points
+	 */
+	public List<Integer> nearest(double lat, double lon, int k, int tags) {
+		List<Integer> result = new ArrayList<>();
+		double cosLat = Math.cos(Math.toRadians(lat));
+		PriorityQueue<Candidate> queue = new PriorityQueue<>();
+		if (!root.items.isEmpty() && root.hasTags(tags)) {
+			queue.add(new Candidate(root, 0));
+		}
+		while (!queue.isEmpty() && result.size() < k) {
+			Box b = queue.poll().box;
+			if (b instanceof Entry) {
+				result.add(((Entry) b).id);
+				continue;
+			}
+			for (Box item : ((Node) b).items) {
+				if (item.hasTags(tags)) {
+					queue.add(new Candidate(item, item.minDistance(lat, lon, cosLat)));
+				}
+			}
+		}
+		return result;
+	}
+
+	private void insert(Entry e) {
+		Node sibling = insert(root, e);
+		if (sibling != null) {
+			Node newRoot = new Node(false);
+			newRoot.add(root);
+			newRoot.add(sibling);
+			root = newRoot;
+		}
+	}
+
+	/*
+	 * inserts the entry in the subtree and returns the node created by a split, if
+	 * any, so that the caller can link it
+	 */
+	private Node insert(Node node, Entry e) {
+		if (node.leaf) {
+			node.add(e);
+		} else {
+			Node child = chooseSubtree(node, e);
+			Node sibling = insert(child, e);
+			node.include(e);
+			if (sibling != null) {
+				node.add(sibling);
+			}
+		}
+		return node.items.size() > MAX_ENTRIES ? split(node) : null;
+	}
+
+	private Node chooseSubtree(Node node, Box b) {
+		Node best = null;
+		double bestEnlargement = Double.POSITIVE_INFINITY;
+		double bestArea = Double.POSITIVE_INFINITY;
+		for (Box item : node.items) {
+			double area = item.area();
+			double enlargement = item.areaWith(b) - area;
+			if (enlargement < bestEnlargement || (enlargement == bestEnlargement && area < bestArea)) {
+				best = (Node) item;
+				bestEnlargement = enlargement;
+				bestArea = area;
+			}
+		}
+		return best;
+	}
+
+	/*
+	 * quadratic split (Guttman): the two items that would waste the most area
+	 * together become the seeds of the two groups, the others go where they cause
+	 * the least enlargement. The node keeps the first group, the second one is
+	 * returned as a new node
+	 */
+	private Node split(Node node) {
+		List<Box> items = new ArrayList<>(node.items);
+		int seed1 = 0;
+		int seed2 = 1;
+		double worst = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < items.size(); i++) {
+			for (int j = i + 1; j < items.size(); j++) {
+				Box a = items.get(i);
+				Box b = items.get(j);
+				double waste = a.areaWith(b) - a.area() - b.area();
+				if (waste > worst) {
+					worst = waste;
+					seed1 = i;
+					seed2 = j;
+				}
+			}
+		}
+		Node group1 = node;
+		Node group2 = new Node(node.leaf);
+		group1.clear();
+		group1.add(items.get(seed1));
+		group2.add(items.get(seed2));
+		items.remove(seed2);
+		items.remove(seed1);
+
+		while (!items.isEmpty()) {
+			if (group1.items.size() + items.size() == MIN_ENTRIES) {
+				for (Box b : items) {
+					group1.add(b);
+				}
+				break;
+			}
+			if (group2.items.size() + items.size() == MIN_ENTRIES) {
+				for (Box b : items) {
+					group2.add(b);
+				}
+				break;
+			}
+			// pick the item with the strongest preference for one of the groups
+			int next = 0;
+			double maxDiff = -1;
+			for (int i = 0; i < items.size(); i++) {
+				Box b = items.get(i);
+				double diff = Math.abs((group1.areaWith(b) - group1.area()) - (group2.areaWith(b) - group2.area()));
+				if (diff > maxDiff) {
+					maxDiff = diff;
+					next = i;
+				}
+			}
+			Box b = items.remove(next);
+			double d1 = group1.areaWith(b) - group1.area();
+			double d2 = group2.areaWith(b) - group2.area();
+			if (d1 < d2 || (d1 == d2 && group1.items.size() <= group2.items.size())) {
+				group1.add(b);
+			} else {
+				group2.add(b);
+			}
+		}
+		return group2;
+	}
+
+	/*
+	 * removes the entry from the subtree, dissolving the nodes left with less than
+	 * MIN_ENTRIES items: their points are collected in orphans to be reinserted
+	 */
+	private boolean remove(Node node, Entry e, List<Entry> orphans) {
+		if (node.leaf) {
+			if (node.items.remove(e)) {
+				node.recompute();
+				return true;
+			}
+			return false;
+		}
+		for (Iterator<Box> it = node.items.iterator(); it.hasNext();) {
+			Node child = (Node) it.next();
+			if (child.intersects(e.lat, e.lat, e.lon, e.lon) && remove(child, e, orphans)) {
+				if (child.items.size() < MIN_ENTRIES) {
+					it.remove();
+					collect(child, orphans);
+				}
+				node.recompute();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void collect(Node node, List<Entry> out) {
+		for (Box b : node.items) {
+			if (node.leaf) {
+				out.add((Entry) b);
+			} else {
+				collect((Node) b, out);
+			}
+		}
+	}
+
+	/*
+	 * one STR pass: sorts the items by longitude in vertical slices, then each
+	 * slice by latitude, and packs them in nodes of MAX_ENTRIES items
+	 */
+	private static List<Box> pack(List<Box> items, boolean leaf) {
+		List<Box> nodes = new ArrayList<>();
+		if (items.isEmpty()) {
+			nodes.add(new Node(leaf));
+			return nodes;
+		}
+		int nodeCount = (items.size() + MAX_ENTRIES - 1) / MAX_ENTRIES;
+		int sliceCount = (int) Math.ceil(Math.sqrt(nodeCount));
+		int sliceSize = sliceCount * MAX_ENTRIES;
+		items.sort(Comparator.comparingDouble(Box::centerLon));
+		for (int s = 0; s < items.size(); s += sliceSize) {
+			List<Box> slice = items.subList(s, Math.min(s + sliceSize, items.size()));
+			slice.sort(Comparator.comparingDouble(Box::centerLat));
+			for (int i = 0; i < slice.size(); i += MAX_ENTRIES) {
+				Node node = new Node(leaf);
+				for (Box b : slice.subList(i, Math.min(i + MAX_ENTRIES, slice.size()))) {
+					node.add(b);
+				}
+				nodes.add(node);
+			}
+		}
+		return nodes;
+	}
+
+	/*
+	 * bounding box, common to the points and to the nodes
+	 */
+	abstract static class Box {
+		double minLat = Double.POSITIVE_INFINITY;
+		double maxLat = Double.NEGATIVE_INFINITY;
+		double minLon = Double.POSITIVE_INFINITY;
+		double maxLon = Double.NEGATIVE_INFINITY;
+		int tags;
+
+		boolean hasTags(int tags) {
+			return (this.tags & tags) == tags;
+		}
+
+		/*
+		 * squared equirectangular distance (in degrees) from the point to the
+		 * closest point of the box
+		 */
+		double minDistance(double lat, double lon, double cosLat) {
+			double dLat = lat < minLat ? minLat - lat : (lat > maxLat ? lat - maxLat : 0);
+			double dLon = lon < minLon ? minLon - lon : (lon > maxLon ? lon - maxLon : 0);
+			dLon *= cosLat;
+			return dLat * dLat + dLon * dLon;
+		}
+
+		boolean intersects(double minLat, double maxLat, double minLon, double maxLon) {
+			return this.minLat <= maxLat && this.maxLat >= minLat && this.minLon <= maxLon && this.maxLon >= minLon;
+		}
+
+		double area() {
+			return (maxLat - minLat) * (maxLon - minLon);
+		}
+
+		double areaWith(Box b) {
+			return (Math.max(maxLat, b.maxLat) - Math.min(minLat, b.minLat))
+					* (Math.max(maxLon, b.maxLon) - Math.min(minLon, b.minLon));
+		}
+
+		void include(Box b) {
+			minLat = Math.min(minLat, b.minLat);
+			maxLat = Math.max(maxLat, b.maxLat);
+			minLon = Math.min(minLon, b.minLon);
+			maxLon = Math.max(maxLon, b.maxLon);
+			tags |= b.tags;
+		}
+
+		double centerLat() {
+			return (minLat + maxLat) / 2;
+		}
+
+		double centerLon() {
+			return (minLon + maxLon) / 2;
+		}
+	}
+
+	/*
+	 * a point stored in the leaves
+	 */
+	public static class Entry extends Box {
+		final int id;
+		final double lat;
+		final double lon;
+
+		public Entry(int id, double lat, double lon, int tags) {
+			this.id = id;
+			this.lat = lat;
+			this.lon = lon;
+			this.minLat = lat;
+			this.maxLat = lat;
+			this.minLon = lon;
+			this.maxLon = lon;
+			this.tags = tags;
+		}
+
+		public int getId() {
+			return id;
+		}
+
+		public double getLat() {
+			return lat;
+		}
+
+		public double getLon() {
+			return lon;
+		}
+
+		public int getTags() {
+			return tags;
+		}
+	}
+
+	private static class Candidate implements Comparable<Candidate> {
+		final Box box;
+		final double distance;
+
+		Candidate(Box box, double distance) {
+			this.box = box;
+			this.distance = distance;
+		}
+
+		@Override
+		public int compareTo(Candidate o) {
+			return Double.compare(distance, o.distance);
+		}
+	}
+
+	static class Node extends Box {
+		final boolean leaf;
+		final List<Box> items = new ArrayList<>(MAX_ENTRIES + 1);
+
+		Node(boolean leaf) {
+			this.leaf = leaf;
+		}
+
+		void add(Box b) {
+			items.add(b);
+			include(b);
+		}
+
+		void clear() {
+			items.clear();
+			minLat = Double.POSITIVE_INFINITY;
+			maxLat = Double.NEGATIVE_INFINITY;
+			minLon = Double.POSITIVE_INFINITY;
+			maxLon = Double.NEGATIVE_INFINITY;
+			tags = 0;
+		}
+
+		void recompute() {
+			List<Box> copy = new ArrayList<>(items);
+			clear();
+			for (Box b : copy) {
+				add(b);
+			}
+		}
+	}
+}
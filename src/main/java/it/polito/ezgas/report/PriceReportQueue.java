@@ -0,0 +1,205 @@
+package it.polito.ezgas.report;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import exception.InvalidGasStationException;
+import exception.InvalidUserException;
+import exception.PriceException;
+import it.polito.ezgas.dto.PriceReportDto;
+import it.polito.ezgas.service.GasStationService;
+import it.polito.ezgas.utils.ReportOutcome;
+
+/**
+ * Write-behind queue of the price reports, used by setGasStationReport when
+ * ezgas.reports.async is true. The request only checks what can be checked
+ * without the DB and puts the report in a bounded queue; a worker thread waits
+ * window-ms after the first report arrives, then applies up to batch-size
+ * reports with GasStationService.setReports, so the reports of the same gas
+ * station in a window cost one read and one write.
+ *
+ * When the queue is full the report is refused and the client is told to
+ * retry later, the depth of the queue is sent back with every accepted report.
+ */
+@Component
+public class PriceReportQueue implements PublicMetrics {
+
+	private static final String METRIC_PREFIX = "ezgas.report-queue.";
+
+	private final GasStationService gasStationService;
+	private final BlockingQueue<PriceReportDto> pending;
+	private final int capacity;
+	private final Object applyLock = new Object();
+	private final AtomicLong enqueued = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong batches = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private boolean enabled;
+	private int batchSize = 500;
+	private long windowMillis = 200;
+	private volatile Thread worker;
+
+	public PriceReportQueue(GasStationService gasStationService,
+			@Value("${ezgas.reports.queue-size:10000}") int queueSize) {
+		this.gasStationService = gasStationService;
+		this.capacity = Math.max(1, queueSize);
+		this.pending = new ArrayBlockingQueue<>(capacity);
+	}
+
+	@Value("${ezgas.reports.async:false}")
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	@Value("${ezgas.reports.batch-size:500}")
+	public void setBatchSize(int batchSize) {
+		this.batchSize = Math.max(1, batchSize);
+	}
+
+	@Value("${ezgas.reports.window-ms:200}")
+	public void setWindowMillis(long windowMillis) {
+		this.windowMillis = Math.max(0, windowMillis);
+	}
+
+	@PostConstruct
+	public void start() {
+		if (enabled && worker == null) {
+			worker = new Thread(this::work, "price-report-writer");
+			worker.setDaemon(true);
+			worker.start();
+		}
+	}
+
+	/*
+	 * the checks that don't need the DB: the ids and the sign of the prices (the
+	 * fuels of the gas station are not known yet). False if the queue is full
+	 */
+	public boolean offer(PriceReportDto report)
+			throws InvalidGasStationException, InvalidUserException, PriceException {
+		if (report.getGasStationId() == null || report.getGasStationId() <= 0) {
+			throw new InvalidGasStationException("Invalid gas station " + report.getGasStationId());
+		}
+		if (report.getUserId() == null || report.getUserId() < 0) {
+			throw new InvalidUserException("User id non valid " + report.getUserId());
+		}
+		for (Double price : new Double[] { report.getDieselPrice(), report.getSuperPrice(),
+				report.getSuperPlusPrice(), report.getGasPrice(), report.getMethanePrice(),
+				report.getPremiumDieselPrice() }) {
+			if (price != null && !(price >= 0)) {
+				throw new PriceException("Negative price is not valid");
+			}
+		}
+		if (!pending.offer(report)) {
+			rejected.incrementAndGet();
+			return false;
+		}
+		enqueued.incrementAndGet();
+		return true;
+	}
+
+	public int getDepth() {
+		return pending.size();
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/*
+	 * applies all the queued reports on the calling thread
+	 */
+	public void flush() {
+		List<PriceReportDto> batch = new ArrayList<>();
+		synchronized (applyLock) {
+			while (pending.drainTo(batch, batchSize) > 0) {
+				this.apply(batch);
+				batch.clear();
+			}
+		}
+	}
+
+	/*
+	 * the worker is not interrupted (an interrupted JDBC call may close the DB
+	 * file), it sees it has been replaced within a poll timeout
+	 */
+	@PreDestroy
+	public void stop() throws InterruptedException {
+		Thread thread = worker;
+		worker = null;
+		if (thread != null) {
+			thread.join(TimeUnit.SECONDS.toMillis(10));
+		}
+		this.flush();
+	}
+
+	private void work() {
+		List<PriceReportDto> batch = new ArrayList<>();
+		while (worker == Thread.currentThread()) {
+			try {
+				PriceReportDto first = pending.poll(1, TimeUnit.SECONDS);
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+				if (pending.size() < batchSize - 1) {
+					TimeUnit.MILLISECONDS.sleep(windowMillis);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			synchronized (applyLock) {
+				pending.drainTo(batch, batchSize - 1);
+				this.apply(batch);
+			}
+			batch.clear();
+		}
+	}
+
+	/*
+	 * a failing batch (e.g. the DB is down) is lost, like a failed synchronous
+	 * report, and counted
+	 */
+	private void apply(List<PriceReportDto> batch) {
+		try {
+			List<ReportOutcome> outcomes = gasStationService.setReports(batch);
+			long stations = batch.stream().map(PriceReportDto::getGasStationId).distinct().count();
+			coalesced.addAndGet(batch.size() - stations);
+			failed.addAndGet(outcomes.stream().filter(outcome -> outcome != ReportOutcome.ACCEPTED
+					&& outcome != ReportOutcome.KEPT).count());
+		} catch (RuntimeException e) {
+			failed.addAndGet(batch.size());
+		}
+		batches.incrementAndGet();
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		List<Metric<?>> metrics = new ArrayList<>();
+		metrics.add(new Metric<>(METRIC_PREFIX + "depth", pending.size()));
+		metrics.add(new Metric<>(METRIC_PREFIX + "enqueued", enqueued.get()));
+		metrics.add(new Metric<>(METRIC_PREFIX + "rejected", rejected.get()));
+		metrics.add(new Metric<>(METRIC_PREFIX + "batches", batches.get()));
+		metrics.add(new Metric<>(METRIC_PREFIX + "coalesced", coalesced.get()));
+		metrics.add(new Metric<>(METRIC_PREFIX + "failed", failed.get()));
+		return metrics;
+	}
+}
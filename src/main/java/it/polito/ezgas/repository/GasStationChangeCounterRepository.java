@@ -0,0 +1,10 @@
+package it.polito.ezgas.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import it.polito.ezgas.entity.GasStationChangeCounter;
+
+@Repository
+public interface GasStationChangeCounterRepository extends JpaRepository<GasStationChangeCounter, Integer> {
+}
@@ -1,10 +1,14 @@
 package it.polito.ezgas.repository;
 
+import java.util.Collection;
 import java.util.List;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import it.polito.ezgas.entity.GasStation;
 
@@ -15,30 +19,69 @@ public interface GasStationRepository extends JpaRepository<GasStation, Integer>
 
 	List<GasStation> findBylatBetweenAndLonBetween(double lat1, double lat2, double lon1, double lon2);
 
-	List<GasStation> findByhasDiesel(boolean fuel);
+	/*
+	 * returns {gasStationId, lat, lon, hasDiesel, hasSuper, hasSuperPlus, hasGas,
+	 * hasMethane, hasPremiumDiesel} of every gas station, used to build the spatial
+	 * index without loading the whole entities
+	 */
+	@Query("select g.gasStationId, g.lat, g.lon, g.hasDiesel, g.hasSuper, g.hasSuperPlus, g.hasGas, g.hasMethane,"
+			+ " g.hasPremiumDiesel from GasStation g")
+	List<Object[]> findAllCoordinates();
 
-	List<GasStation> findByhasSuper(boolean fuel);
+	/*
+	 * returns the page of gas stations (with their report user) following the
+	 * given id, in id order, so that all the table can be walked in chunks without
+	 * offsets
+	 */
+	@Query("select g from GasStation g left join fetch g.user where g.gasStationId > ?1 order by g.gasStationId")
+	List<GasStation> findChunkAfter(Integer gasStationId, Pageable pageable);
 
-	List<GasStation> findByhasGas(boolean fuel);
+	/*
+	 * gas stations (with their report user) changed after the given
+	 * GasStationChangeLog sequence number
+	 */
+	@Query("select g from GasStation g left join fetch g.user where g.changeSeq > ?1 order by g.changeSeq")
+	List<GasStation> findChangedAfter(Long changeSeq);
 
-	List<GasStation> findByhasSuperPlus(boolean fuel);
+	/*
+	 * gas station with its last reporter, in one query
+	 */
+	@Query("select g from GasStation g left join fetch g.user where g.gasStationId = ?1")
+	GasStation findOneWithReporter(Integer gasStationId);
 
-	List<GasStation> findByhasMethane(boolean fuel);
-	
-	List<GasStation> findByhasPremiumDiesel(boolean fuel);
-	
-	List<GasStation> findByhasDieselAndCarSharing(boolean fuel, String carSharing);
+	@Query("select g from GasStation g left join fetch g.user where g.gasStationId in ?1")
+	List<GasStation> findAllWithReporter(Collection<Integer> gasStationIds);
 
-	List<GasStation> findByhasSuperAndCarSharing(boolean fuel, String carSharing);
+	@Query("select g.version from GasStation g where g.gasStationId = ?1")
+	Long findVersion(Integer gasStationId);
 
-	List<GasStation> findByhasGasAndCarSharing(boolean fuel, String carSharing);
+	@Query("select max(g.changeSeq) from GasStation g")
+	Long findMaxChangeSeq();
 
-	List<GasStation> findByhasSuperPlusAndCarSharing(boolean fuel, String carSharing);
+	List<GasStation> findByChangeSeqIsNull();
+
+	/*
+	 * gas stations whose fuelMask is one of the given masks, FuelType.supersetsOf
+	 * turns "provides all these fuels" into such a list
+	 */
+	List<GasStation> findByFuelMaskIn(Collection<Integer> fuelMasks);
+
+	List<GasStation> findByCarSharingAndFuelMaskIn(String carSharing, Collection<Integer> fuelMasks);
+
+	List<GasStation> findByFuelMaskIsNull();
+
+	List<GasStation> findByReportDayIsNullAndReportTimestampIsNotNull();
 
-	List<GasStation> findByhasMethaneAndCarSharing(boolean fuel, String carSharing);
-	
-	List<GasStation> findByhasPremiumDieselAndCarSharing(boolean fuel, String carSharing);
-		
 	List<GasStation> findByCarSharing(String carSharing);
 
+	/*
+	 * gives the change number to the gas stations last reported by the users
+	 * (their delta embeds the reporter), bumping the version so that a concurrent
+	 * report read before is retried instead of writing back the old number
+	 */
+	@Modifying(clearAutomatically = true)
+	@Transactional
+	@Query("update GasStation g set g.changeSeq = ?2, g.version = g.version + 1 where g.user.userId in ?1")
+	int updateChangeSeqByReporter(Collection<Integer> userIds, Long changeSeq);
+
 }
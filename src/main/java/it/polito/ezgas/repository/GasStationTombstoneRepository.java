@@ -0,0 +1,23 @@
+package it.polito.ezgas.repository;
+
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import it.polito.ezgas.entity.GasStationTombstone;
+
+@Repository
+public interface GasStationTombstoneRepository extends JpaRepository<GasStationTombstone, Integer> {
+
+	/*
+	 * ids of the gas stations deleted after the given GasStationChangeLog sequence
+	 * number
+	 */
+	@Query("select t.gasStationId from GasStationTombstone t where t.changeSeq > ?1 order by t.changeSeq")
+	List<Integer> findDeletedAfter(Long changeSeq);
+
+	@Query("select max(t.changeSeq) from GasStationTombstone t")
+	Long findMaxChangeSeq();
+}
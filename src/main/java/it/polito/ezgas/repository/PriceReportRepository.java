@@ -0,0 +1,21 @@
+package it.polito.ezgas.repository;
+
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import it.polito.ezgas.entity.PriceReport;
+
+@Repository
+public interface PriceReportRepository extends JpaRepository<PriceReport, Integer> {
+
+	/*
+	 * the reports of the gas station between from and to (epoch millis, both
+	 * included) in time order, read through the (gasStationId, reportTime) index
+	 */
+	@Query("select p from PriceReport p where p.gasStationId = ?1"
+			+ " and p.reportTime between ?2 and ?3 order by p.reportTime")
+	List<PriceReport> findHistory(Integer gasStationId, Long from, Long to);
+}
@@ -3,14 +3,87 @@
  */
 package it.polito.ezgas.repository;
 
+import java.util.Collection;
+import java.util.List;
+
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import it.polito.ezgas.entity.User;
 
 @Repository
-public interface UserRepository extends JpaRepository<User, Integer> {
+public interface UserRepository extends JpaRepository<User, Integer>, UserRepositoryCustom {
 	
-	User findByEmail(String email);
+	/*
+	 * the email is compared trimmed and ignoring the case, on the unique emailKey
+	 * index
+	 */
+	default User findByEmail(String email) {
+		return this.findByEmailKey(User.emailKey(email));
+	}
+
+	User findByEmailKey(String emailKey);
+
+	List<User> findByEmailKeyIsNull();
+
+	/*
+	 * the emails (trimmed, lower case) of more than one user, keyed or not: one
+	 * grouped query for the migration of the users stored without the emailKey
+	 */
+	@Query("select lower(trim(u.email)) from User u where u.email is not null"
+			+ " group by lower(trim(u.email)) having count(u) > 1")
+	List<String> findSharedEmailKeys();
+
+	@Query("select u.emailKey from User u where u.emailKey in ?1")
+	List<String> findEmailKeys(Collection<String> emailKeys);
+
+	/*
+	 * the key only, bypassing the entity callback that derives it from the email
+	 */
+	@Modifying(clearAutomatically = true)
+	@Transactional
+	@Query("update User u set u.emailKey = ?2 where u.userId = ?1")
+	int updateEmailKey(Integer userId, String emailKey);
+
+	boolean existsByAdminTrue();
+
+	/*
+	 * adds 1 to the reputation in the DB, unless it is already 5: returns the
+	 * number of users changed (0 for an unknown user or a reputation at the bound)
+	 */
+	@Modifying(clearAutomatically = true)
+	@Transactional
+	@Query("update User u set u.reputation = u.reputation + 1 where u.userId = ?1 and u.reputation < 5")
+	int increaseReputation(Integer userId);
+
+	@Modifying(clearAutomatically = true)
+	@Transactional
+	@Query("update User u set u.reputation = u.reputation - 1 where u.userId = ?1 and u.reputation > -5")
+	int decreaseReputation(Integer userId);
+
+	/*
+	 * adds the net delta of the buffered votes, keeping the reputation in [-5, 5]
+	 */
+	@Modifying(clearAutomatically = true)
+	@Transactional
+	@Query("update User u set u.reputation = case when u.reputation + ?2 > 5 then 5"
+			+ " when u.reputation + ?2 < -5 then -5 else (u.reputation + ?2) end"
+			+ " where u.userId = ?1")
+	int addReputation(Integer userId, Integer delta);
+
+	/*
+	 * only the password, so the rest of the user (the reputation) is not written
+	 * back
+	 */
+	@Modifying(clearAutomatically = true)
+	@Transactional
+	@Query("update User u set u.password = ?2 where u.userId = ?1")
+	int updatePassword(Integer userId, String password);
+
+	@Query("select u.reputation from User u where u.userId = ?1")
+	Integer findReputation(Integer userId);
 	
 }
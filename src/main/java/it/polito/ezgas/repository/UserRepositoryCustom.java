@@ -0,0 +1,12 @@
+package it.polito.ezgas.repository;
+
+import it.polito.ezgas.entity.User;
+
+public interface UserRepositoryCustom {
+
+	/*
+	 * inserts a new user, relying on the unique index of the email to refuse a
+	 * taken one (DataIntegrityViolationException)
+	 */
+	User insert(User user);
+}
@@ -0,0 +1,33 @@
+package it.polito.ezgas.repository;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.PersistenceException;
+
+import org.springframework.transaction.annotation.Transactional;
+
+import it.polito.ezgas.entity.User;
+
+public class UserRepositoryImpl implements UserRepositoryCustom {
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	/*
+	 * the refused user is left in the persistence context without an id, which
+	 * would fail every later flush of a transaction of the caller: it is cleared
+	 * (that transaction can only roll back anyway)
+	 */
+	@Override
+	@Transactional
+	public User insert(User user) {
+		try {
+			entityManager.persist(user);
+			entityManager.flush();
+		} catch (PersistenceException e) {
+			entityManager.clear();
+			throw e;
+		}
+		return user;
+	}
+}
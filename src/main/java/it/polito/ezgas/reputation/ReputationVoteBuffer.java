@@ -0,0 +1,113 @@
+package it.polito.ezgas.reputation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+/**
+ * Aggregates the reputation votes in memory when ezgas.reputation.buffered is
+ * true: a vote only adds 1 or -1 to the counter of the user (a LongAdder, so
+ * the votes on a popular reporter don't contend), and every flush-ms the
+ * service writes the net delta of each user with one UPDATE, clamped to
+ * [-5, 5].
+ *
+ * The votes of a user between two flushes are applied together, so their
+ * order is lost: +1 and -1 on a reputation of 5 leave it at 5.
+ */
+@Component
+public class ReputationVoteBuffer implements PublicMetrics {
+
+	private static final String METRIC_PREFIX = "ezgas.reputation-votes.";
+
+	/*
+	 * one counter per user voted since the start: they are never removed, a vote
+	 * could be adding to a removed one
+	 */
+	private final Map<Integer, LongAdder> deltas = new ConcurrentHashMap<>();
+	private final AtomicLong votes = new AtomicLong();
+	private final AtomicLong flushed = new AtomicLong();
+	private boolean enabled;
+
+	@Value("${ezgas.reputation.buffered:false}")
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void vote(Integer userId, boolean increase) {
+		deltas.computeIfAbsent(userId, id -> new LongAdder()).add(increase ? 1 : -1);
+		votes.incrementAndGet();
+	}
+
+	/*
+	 * the votes on the user not written yet
+	 */
+	public long getPending(Integer userId) {
+		LongAdder delta = deltas.get(userId);
+		return delta == null ? 0 : delta.sum();
+	}
+
+	/*
+	 * the users with votes not written yet
+	 */
+	public int getPendingUsers() {
+		int users = 0;
+		for (LongAdder delta : deltas.values()) {
+			if (delta.sum() != 0) {
+				users++;
+			}
+		}
+		return users;
+	}
+
+	/*
+	 * takes the net delta of every user with pending votes. The delta read is
+	 * subtracted rather than reset, so the votes arriving meanwhile stay for the
+	 * next flush
+	 */
+	public Map<Integer, Long> drain() {
+		Map<Integer, Long> drained = new HashMap<>();
+		deltas.forEach((userId, delta) -> {
+			long sum = delta.sum();
+			if (sum != 0) {
+				delta.add(-sum);
+				drained.put(userId, sum);
+			}
+		});
+		return drained;
+	}
+
+	/*
+	 * gives back the deltas of a flush that failed, they are retried with the next
+	 * one
+	 */
+	public void restore(Map<Integer, Long> drained) {
+		drained.forEach((userId, sum) -> deltas.computeIfAbsent(userId, id -> new LongAdder()).add(sum));
+	}
+
+	public void flushed(int users) {
+		flushed.addAndGet(users);
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		List<Metric<?>> metrics = new ArrayList<>();
+		metrics.add(new Metric<>(METRIC_PREFIX + "pending", this.getPendingUsers()));
+		metrics.add(new Metric<>(METRIC_PREFIX + "votes", votes.get()));
+		metrics.add(new Metric<>(METRIC_PREFIX + "flushed", flushed.get()));
+		return metrics;
+	}
+}
@@ -3,7 +3,10 @@ package it.polito.ezgas.service;
 import java.util.List;
 
 import exception.*;
+import it.polito.ezgas.dto.GasStationChangesDto;
 import it.polito.ezgas.dto.GasStationDto;
+import it.polito.ezgas.dto.PriceReportDto;
+import it.polito.ezgas.utils.ReportOutcome;
 
 /** 
  *
@@ -79,6 +82,23 @@ public interface GasStationService {
 	 */
 	List<GasStationDto> getGasStationsByProximity(double lat, double lon, int radius) throws GPSDataException;
 
+	/*
+	 * Returns all gas stations whose great-circle distance from the GeoPoint is at most radius km, sorted by
+	 * increasing distance. Each GasStationDto carries its distance (in km) from the GeoPoint.
+	 * If radius is equals to zero or it is a negative integer the default value (1Km) will be considered.
+	 * Throws an exception if an invalid value is given for latitude and/or longitude
+	 */
+	List<GasStationDto> getGasStationsByDistance(double lat, double lon, int radius) throws GPSDataException;
+
+	/*
+	 * Returns the k gas stations closest to the GeoPoint, sorted by increasing distance (set in each GasStationDto).
+	 * If gasolinetype is different than "null" (string) only the gas stations providing such gasoline type are considered.
+	 * If k is equals to zero or it is a negative integer the default value (10) will be considered, at most 100
+	 * gas stations are returned.
+	 * Throws an exception if an invalid value is given for latitude and/or longitude or gasolinetype
+	 */
+	List<GasStationDto> getNearestGasStations(double lat, double lon, int k, String gasolinetype) throws GPSDataException, InvalidGasTypeException;
+
     /*
      * Returns all gas stations within 1km from the GeoPoint whose latitude and longitude are passed as parameters.
      * It receives as parameters a gasolinetype and a carsharing value. 
@@ -114,6 +134,13 @@ public interface GasStationService {
 	 */
 	void setReport(Integer gasStationId, Double dieselPrice, Double superPrice, Double superPlusPrice, Double gasPrice, Double methanePrice, Double premiumDieselPrice, Integer userId) throws InvalidGasStationException, PriceException, InvalidUserException;
 
+	/*
+	 * Applies a batch of reports in the given order, with the same rules as setReport, reading and saving every gas
+	 * station only once per chunk. Returns the outcome of each report, in the same order; a refused report doesn't
+	 * stop the others
+	 */
+	List<ReportOutcome> setReports(List<PriceReportDto> reports);
+
 
 	/*
      * Returns all gas stations that provide the car sharing service passed as parameter, sorted by alphabetical order.
@@ -121,4 +148,16 @@ public interface GasStationService {
 	 */
 	List<GasStationDto> getGasStationByCarSharing(String carSharing);
 
+	/*
+	 * Returns the gas stations changed and the ids of the ones deleted after the change sequence number seq, with the
+	 * sequence number to ask next time. With seq 0 (or unknown) all the gas stations are returned and reset is true
+	 */
+	GasStationChangesDto getGasStationChangesSince(long seq);
+
+	/*
+	 * Returns the price reports accepted for the gas station between from and to (epoch millis, both included) in time
+	 * order. Throws an exception if the gas station id is not valid
+	 */
+	List<PriceReportDto> getPriceHistory(Integer gasStationId, long from, long to) throws InvalidGasStationException;
+
 }
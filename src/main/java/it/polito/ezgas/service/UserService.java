@@ -65,4 +65,16 @@ public interface UserService {
      * Returns the current value of user reputation
      */  
     Integer decreaseUserReputation(Integer userId) throws InvalidUserException;
+    
+    /*
+     * Returns the user logged in with the given token (its reputation is not included)
+     * Returns null if the token is unknown or expired
+     */
+    LoginDto getSession(String token);
+    
+    /*
+     * Ends the session of the given token
+     * Returns true if the session existed
+     */
+    Boolean logout(String token);
 }
@@ -1,23 +1,33 @@
 package it.polito.ezgas.service.impl;
 
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.time.format.FormatStyle;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Date;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.metrics.GaugeService;
 import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import exception.GPSDataException;
 import exception.InvalidCarSharingException;
@@ -25,13 +35,29 @@ import exception.InvalidGasStationException;
 import exception.InvalidGasTypeException;
 import exception.InvalidUserException;
 import exception.PriceException;
+import it.polito.ezgas.cache.GasStationDataVersion;
+import it.polito.ezgas.cache.GasStationDtoCache;
 import it.polito.ezgas.converter.GasStationConverter;
+import it.polito.ezgas.converter.PriceReportConverter;
+import it.polito.ezgas.dto.GasStationChangesDto;
 import it.polito.ezgas.dto.GasStationDto;
+import it.polito.ezgas.dto.PriceReportDto;
 import it.polito.ezgas.entity.GasStation;
+import it.polito.ezgas.entity.PriceReport;
+import it.polito.ezgas.history.PriceReportRecorder;
 import it.polito.ezgas.entity.User;
+import it.polito.ezgas.index.GasStationIndex;
 import it.polito.ezgas.repository.GasStationRepository;
 import it.polito.ezgas.repository.UserRepository;
 import it.polito.ezgas.service.GasStationService;
+import it.polito.ezgas.sync.GasStationChangeLog;
+import it.polito.ezgas.sync.PriceUpdateBroadcaster;
+import it.polito.ezgas.utils.CoordinateValidator;
+import it.polito.ezgas.utils.FuelType;
+import it.polito.ezgas.utils.GeoDistance;
+import it.polito.ezgas.utils.ReportDate;
+import it.polito.ezgas.utils.ReportDependability;
+import it.polito.ezgas.utils.ReportOutcome;
 
 /**
  * Created by softeng on 27/4/2020.
@@ -39,10 +65,12 @@ import it.polito.ezgas.service.GasStationService;
 @EnableScheduling
 @Service
 public class GasStationServiceimpl implements GasStationService {
-	private static final int MILLIS_TO_DAYS = 1000 * 3600 * 24;
-	private static final int OBSOLESCENCE_50 = 50;
 	private static final double LON_DIFF = 0.012733784;
 	private static final double LAT_DIFF = 0.0089977776;
+	private static final int DEFAULT_NEAREST = 10;
+	private static final int MAX_NEAREST = 100;
+	private static final String DEPENDABILITY_PROGRESS = "ezgas.dependability.progress";
+	private static final String REPORT_RETRIES = "ezgas.reports.retries";
 //	@Autowired
 //	GasStationRepository gasStationRepository;
 //	@Autowired
@@ -51,10 +79,25 @@ public class GasStationServiceimpl implements GasStationService {
 //	UserRepository userRepository;
 
 	private boolean updateDependability = false;
+	private boolean readTimeDependability = false;
+	private int dependabilityChunkSize = 500;
+	private int maxRetries = 10;
+	private int reportChunkSize = 100;
+	private final AtomicLong retries = new AtomicLong();
+	private volatile double dependabilityProgress = 0;
 
 	private GasStationRepository gasStationRepository;
 	private GasStationConverter gasStationConverter;
 	private UserRepository userRepository;
+	private GasStationIndex gasStationIndex;
+	private TransactionTemplate transactionTemplate;
+	private GaugeService gaugeService;
+	private GasStationDtoCache gasStationDtoCache;
+	private GasStationDataVersion gasStationDataVersion;
+	private GasStationChangeLog gasStationChangeLog;
+	private PriceUpdateBroadcaster priceUpdateBroadcaster;
+	private PriceReportRecorder priceReportRecorder;
+	private PriceReportConverter priceReportConverter = new PriceReportConverter();
 
 	public GasStationServiceimpl(GasStationRepository gasStationRepository, GasStationConverter gasStationConverter,
 			UserRepository userRepository) {
@@ -63,21 +106,145 @@ public class GasStationServiceimpl implements GasStationService {
 		this.userRepository = userRepository;
 	}
 
+	/*
+	 * when the spatial index is available the proximity searches use it instead of
+	 * querying the DB on the lat/lon columns
+	 */
+	@Autowired(required = false)
+	public void setGasStationIndex(GasStationIndex gasStationIndex) {
+		this.gasStationIndex = gasStationIndex;
+	}
+
+	/*
+	 * in read-time mode the report dependability is computed while converting the
+	 * gas stations to dto, so the stored values are never recomputed (neither at
+	 * the first request nor by the midnight job)
+	 */
+	@Value("${ezgas.dependability.read-time:false}")
+	public void setReadTimeDependability(boolean readTimeDependability) {
+		this.readTimeDependability = readTimeDependability;
+	}
+
+	public boolean isReadTimeDependability() {
+		return readTimeDependability;
+	}
+
+	/*
+	 * number of gas stations loaded and updated together by the dependability job
+	 */
+	@Value("${ezgas.dependability.chunk-size:500}")
+	public void setDependabilityChunkSize(int dependabilityChunkSize) {
+		this.dependabilityChunkSize = dependabilityChunkSize > 0 ? dependabilityChunkSize : 1;
+	}
+
+	/*
+	 * each chunk of the dependability job is updated in its own transaction, so
+	 * the changed rows are flushed together as a JDBC batch
+	 */
+	@Autowired(required = false)
+	public void setTransactionTemplate(TransactionTemplate transactionTemplate) {
+		this.transactionTemplate = transactionTemplate;
+	}
+
+	/*
+	 * times a write conflicting with a concurrent one is tried, each time on the
+	 * data read again
+	 */
+	@Value("${ezgas.reports.max-retries:10}")
+	public void setMaxRetries(int maxRetries) {
+		this.maxRetries = Math.max(1, maxRetries);
+	}
+
+	/*
+	 * number of reports of a batch applied together, in one transaction
+	 */
+	@Value("${ezgas.reports.chunk-size:100}")
+	public void setReportChunkSize(int reportChunkSize) {
+		this.reportChunkSize = Math.max(1, reportChunkSize);
+	}
+
+	public long getRetries() {
+		return retries.get();
+	}
+
+	@Autowired(required = false)
+	public void setGaugeService(GaugeService gaugeService) {
+		this.gaugeService = gaugeService;
+	}
+
+	/*
+	 * when the cache is available the lookups by id and the searches by fuel type
+	 * and car sharing are served from memory until a write invalidates them
+	 */
+	@Autowired(required = false)
+	public void setGasStationDtoCache(GasStationDtoCache gasStationDtoCache) {
+		this.gasStationDtoCache = gasStationDtoCache;
+	}
+
+	/*
+	 * bumped by every write, the responses (and the snapshot of all the gas
+	 * stations) are tagged with it
+	 */
+	@Autowired(required = false)
+	public void setGasStationDataVersion(GasStationDataVersion gasStationDataVersion) {
+		this.gasStationDataVersion = gasStationDataVersion;
+	}
+
+	/*
+	 * every write is numbered in the change log (deletions leave a tombstone), so
+	 * the clients can ask only for the gas stations changed since their last sync
+	 */
+	@Autowired(required = false)
+	public void setGasStationChangeLog(GasStationChangeLog gasStationChangeLog) {
+		this.gasStationChangeLog = gasStationChangeLog;
+	}
+
+	/*
+	 * the committed reports are pushed to the clients following the price updates
+	 */
+	@Autowired(required = false)
+	public void setPriceUpdateBroadcaster(PriceUpdateBroadcaster priceUpdateBroadcaster) {
+		this.priceUpdateBroadcaster = priceUpdateBroadcaster;
+	}
+
+	/*
+	 * every accepted report is appended to the price history, in the transaction
+	 * applying it
+	 */
+	@Autowired(required = false)
+	public void setPriceReportRecorder(PriceReportRecorder priceReportRecorder) {
+		this.priceReportRecorder = priceReportRecorder;
+	}
+
+	/*
+	 * percentage of the gas stations processed by the last (or running)
+	 * dependability job
+	 */
+	public double getDependabilityProgress() {
+		return dependabilityProgress;
+	}
+
 	/*
 	 * retrieve a gas station from the DataBase and returns the DTO
 	 */
 	@Override
 	public GasStationDto getGasStationById(Integer gasStationId) throws InvalidGasStationException {
-		if (!updateDependability) {
-			this.calculateDependability();
-			this.updateDependability = true;
-		}
+		this.checkDependability();
 		this.checkId(gasStationId);
+		GasStationDto gasStationDto = gasStationDtoCache == null ? null : gasStationDtoCache.get(gasStationId);
+		if (gasStationDto != null) {
+			return gasStationDto;
+		}
+		long generation = gasStationDtoCache == null ? 0 : gasStationDtoCache.generation();
 		GasStation gasStation = gasStationRepository.findOne(gasStationId);
 		if (gasStation == null) {
 			return null;
 		}
-		return gasStationConverter.toGasStationDto(gasStation);
+		gasStationDto = this.toGasStationDto(gasStation);
+		if (gasStationDtoCache != null) {
+			gasStationDtoCache.put(gasStationDto, generation);
+		}
+		return gasStationDto;
 	}
 
 	/*
@@ -113,12 +280,33 @@ public class GasStationServiceimpl implements GasStationService {
 			prices.add(gasStationDto.getPremiumDieselPrice());
 		}
 		this.checkPriceList(prices);
+		Long changeSeq = this.beginChange();
+		GasStation gasStation;
+		try {
+			gasStation = this.withRetry(() -> {
+				GasStation converted = gasStationConverter.toGasStation(gasStationDto);
+				if (changeSeq != null) {
+					converted.setChangeSeq(changeSeq);
+				}
+				if (gasStationDto.getGasStationId() != null) {
+					// the administrator edits the gas station as it is now, whatever reports came before
+					Long version = gasStationRepository.findVersion(gasStationDto.getGasStationId());
+					if (version != null) {
+						converted.setVersion(version);
+					}
+				}
+				return gasStationRepository.saveAndFlush(converted);
+			});
+		} finally {
+			this.endChange(changeSeq);
+		}
+		if (gasStationIndex != null) {
+			gasStationIndex.put(gasStation);
+		}
+		this.invalidate(gasStationDto.getGasStationId(), true);
 		if (gasStationDto.getGasStationId() == null) {
-			return gasStationConverter.toGasStationDto(
-					gasStationRepository.saveAndFlush(gasStationConverter.toGasStation(gasStationDto)));
-
+			return this.toGasStationDto(gasStation);
 		}
-		gasStationRepository.saveAndFlush(gasStationConverter.toGasStation(gasStationDto));
 		return gasStationDto;
 	}
 
@@ -128,12 +316,9 @@ public class GasStationServiceimpl implements GasStationService {
 	 */
 	@Override
 	public List<GasStationDto> getAllGasStations() {
-		if (!updateDependability) {
-			this.calculateDependability();
-			this.updateDependability = true;
-		}
+		this.checkDependability();
 
-		return gasStationConverter.toGasStationDtoList(gasStationRepository.findAll());
+		return this.toGasStationDtoList(gasStationRepository.findAll());
 	}
 
 	public boolean isUpdateDependability() {
@@ -152,43 +337,50 @@ public class GasStationServiceimpl implements GasStationService {
 	@Override
 	public Boolean deleteGasStation(Integer gasStationId) throws InvalidGasStationException {
 		this.checkId(gasStationId);
+		if (gasStationChangeLog != null && !gasStationRepository.exists(gasStationId)) {
+			// no change number for a gas station that is not there
+			return null;
+		}
+		Long changeSeq = this.beginChange();
 		try {
-			gasStationRepository.delete(gasStationId);
+			if (changeSeq == null) {
+				gasStationRepository.delete(gasStationId);
+			} else if (transactionTemplate == null) {
+				gasStationRepository.delete(gasStationId);
+				gasStationChangeLog.recordDeletion(gasStationId, changeSeq);
+			} else {
+				// the row and its tombstone go together
+				transactionTemplate.execute(status -> {
+					gasStationRepository.delete(gasStationId);
+					gasStationChangeLog.recordDeletion(gasStationId, changeSeq);
+					return null;
+				});
+			}
 		} catch (EmptyResultDataAccessException e) {
 			return null;
+		} finally {
+			this.endChange(changeSeq);
 		}
+		if (gasStationIndex != null) {
+			gasStationIndex.remove(gasStationId);
+		}
+		this.invalidate(gasStationId, true);
 		return true;
 	}
 
 	/*
 	 * first checks if the gas stations report dependabilities have been updated
-	 * since the startup calls the right repository method based on the gasolinetype
-	 * provided throws an InvalidGasTypeException if the provided gasolinetype
-	 * doesn't match with the avaiable ones
+	 * since the startup then looks for the gas stations whose fuelMask contains the
+	 * gasolinetype provided (more types can be separated by commas, e.g.
+	 * "diesel,methane") throws an InvalidGasTypeException if the provided
+	 * gasolinetype doesn't match with the avaiable ones
 	 */
 	@Override
 	public List<GasStationDto> getGasStationsByGasolineType(String gasolinetype) throws InvalidGasTypeException {
-		if (!updateDependability) {
-			this.calculateDependability();
-			this.updateDependability = true;
-		}
-		gasolinetype = gasolinetype.toLowerCase().replaceAll("\\s+", "");
-		switch (gasolinetype) {
-		case "diesel":
-			return gasStationConverter.toGasStationDtoList(gasStationRepository.findByhasDiesel(true));
-		case "super":
-			return gasStationConverter.toGasStationDtoList(gasStationRepository.findByhasSuper(true));
-		case "methane":
-			return gasStationConverter.toGasStationDtoList(gasStationRepository.findByhasMethane(true));
-		case "gas":
-			return gasStationConverter.toGasStationDtoList(gasStationRepository.findByhasGas(true));
-		case "superplus":
-			return gasStationConverter.toGasStationDtoList(gasStationRepository.findByhasSuperPlus(true));
-		case "premiumdiesel":
-			return gasStationConverter.toGasStationDtoList(gasStationRepository.findByhasPremiumDiesel(true));
-		default:
-			throw new InvalidGasTypeException("invalid fuel type " + gasolinetype);
-		}
+		this.checkDependability();
+		int fuels = FuelType.parseMask(gasolinetype);
+		return this.cachedQuery("fuels:" + fuels,
+				() -> gasStationRepository.findByFuelMaskIn(FuelType.supersetsOf(fuels)));
 	}
 
 	/*
@@ -208,17 +400,94 @@ public class GasStationServiceimpl implements GasStationService {
 	 */
 	@Override
 	public List<GasStationDto> getGasStationsByProximity(double lat, double lon, int radius) throws GPSDataException {
-		if (!updateDependability) {
-			this.calculateDependability();
-			this.updateDependability = true;
+		this.checkDependability();
+		this.checkCoordinates(lat, lon);
+		if (radius <= 0) {
+			radius = 1;
 		}
+		return this.toGasStationDtoList(this.findInBox(lat - (LAT_DIFF * radius),
+				lat + (LAT_DIFF * radius), lon - (LON_DIFF * radius), lon + (LON_DIFF * radius)));
+	}
+
+	/*
+	 * first checks if the gas stations report dependabilities have been updated
+	 * since the startup, then takes the gas stations in the box containing the
+	 * circle (computed for the actual latitude, not with LAT_DIFF/LON_DIFF, and
+	 * continued on the other side of the antimeridian), keeps only the ones really
+	 * within radius km and sorts them by distance
+	 */
+	@Override
+	public List<GasStationDto> getGasStationsByDistance(double lat, double lon, int radius) throws GPSDataException {
+		this.checkDependability();
 		this.checkCoordinates(lat, lon);
 		if (radius <= 0) {
 			radius = 1;
 		}
-		return gasStationConverter
-				.toGasStationDtoList(gasStationRepository.findBylatBetweenAndLonBetween(lat - (LAT_DIFF * radius),
-						lat + (LAT_DIFF * radius), lon - (LON_DIFF * radius), lon + (LON_DIFF * radius)));
+		GeoDistance geoDistance = new GeoDistance(lat, lon);
+		double latDelta = geoDistance.latDelta(radius);
+		double lonDelta = geoDistance.lonDelta(radius);
+		List<GasStation> candidates = new ArrayList<>();
+		if (lonDelta >= 180) {
+			candidates.addAll(this.findInBox(lat - latDelta, lat + latDelta, -180, 180));
+		} else {
+			candidates.addAll(this.findInBox(lat - latDelta, lat + latDelta, Math.max(lon - lonDelta, -180),
+					Math.min(lon + lonDelta, 180)));
+			if (lon - lonDelta < -180) {
+				candidates.addAll(this.findInBox(lat - latDelta, lat + latDelta, lon - lonDelta + 360, 180));
+			} else if (lon + lonDelta > 180) {
+				candidates.addAll(this.findInBox(lat - latDelta, lat + latDelta, -180, lon + lonDelta - 360));
+			}
+		}
+		List<GasStationDto> gasStationDtoList = new ArrayList<>();
+		for (GasStation gs : candidates) {
+			double distance = geoDistance.km(gs.getLat(), gs.getLon(), radius);
+			if (distance <= radius) {
+				GasStationDto gsDto = this.toGasStationDto(gs);
+				gsDto.setDistance(distance);
+				gasStationDtoList.add(gsDto);
+			}
+		}
+		gasStationDtoList.sort(Comparator.comparingDouble(GasStationDto::getDistance));
+		return gasStationDtoList;
+	}
+
+	/*
+	 * first checks if the gas stations report dependabilities have been updated
+	 * since the startup, then asks the spatial index for the k closest gas
+	 * stations providing the fuel (best-first search, the cost depends on k and
+	 * not on the area covered). Without the index all the gas stations are ranked.
+	 * The result is sorted by the exact (haversine) distance
+	 */
+	@Override
+	public List<GasStationDto> getNearestGasStations(double lat, double lon, int k, String gasolinetype)
+			throws GPSDataException, InvalidGasTypeException {
+		this.checkDependability();
+		this.checkCoordinates(lat, lon);
+		if (k <= 0) {
+			k = DEFAULT_NEAREST;
+		}
+		k = Math.min(k, MAX_NEAREST);
+		int fuels = 0;
+		if (gasolinetype != null && !gasolinetype.equals("null")) {
+			fuels = FuelType.parse(gasolinetype).getBit();
+		}
+		List<GasStation> gasStationList;
+		if (gasStationIndex != null) {
+			List<Integer> ids = gasStationIndex.findNearest(lat, lon, k, fuels);
+			gasStationList = ids.isEmpty() ? new ArrayList<>() : gasStationRepository.findAll(ids);
+		} else {
+			gasStationList = gasStationRepository.findAll();
+		}
+		List<GasStationDto> gasStationDtoList = new ArrayList<>();
+		for (GasStation gs : gasStationList) {
+			if ((FuelType.maskOf(gs) & fuels) == fuels) {
+				GasStationDto gsDto = this.toGasStationDto(gs);
+				gsDto.setDistance(GeoDistance.haversine(lat, lon, gs.getLat(), gs.getLon()));
+				gasStationDtoList.add(gsDto);
+			}
+		}
+		gasStationDtoList.sort(Comparator.comparingDouble(GasStationDto::getDistance));
+		return gasStationDtoList.size() > k ? new ArrayList<>(gasStationDtoList.subList(0, k)) : gasStationDtoList;
 	}
 
 	/*
@@ -228,96 +497,41 @@ public class GasStationServiceimpl implements GasStationService {
 	 * {[x1: lat-(LAT_DIFF *radius), y1:lat-(LON_DIFF *radius)], [x2: lat+(LAT_DIFF
 	 * *radius), y2: lat+(LON_DIFF *radius)]} where LAT_DIFF is the difference in
 	 * latitude of 2 points distant 1km, same for longitude it generates a list of
-	 * all the gas stations in the area and then removes some according to filters
-	 * using two different lists to avoid concurrent access to memory
+	 * all the gas stations in the area and then keeps, in a single pass, the ones
+	 * providing the fuel types (comma separated) with the car sharing
 	 */
 	@Override
 	public List<GasStationDto> getGasStationsWithCoordinates(double lat, double lon, int radius, String gasolinetype,
 			String carsharing) throws InvalidGasTypeException, GPSDataException, InvalidCarSharingException {
-		if (!updateDependability) {
-			this.calculateDependability();
-			this.updateDependability = true;
-		}
+		this.checkDependability();
 		this.checkCoordinates(lat, lon);
 		this.checkCarSharing(carsharing);
 		if (radius <= 0) {
 			radius = 1;
 		}
-		List<GasStation> gasStationList = gasStationRepository.findBylatBetweenAndLonBetween(lat - (LAT_DIFF * radius),
-				lat + (LAT_DIFF * radius), lon - (LON_DIFF * radius), lon + (LON_DIFF * radius));
-		List<GasStation> gasStationListNew = new ArrayList<>(gasStationList);
-		if (carsharing != null && !carsharing.equals("null")) {
-			for (GasStation gs : gasStationList) {
-				if (gs.getCarSharing() == null || !gs.getCarSharing().equals(carsharing)) {
-					gasStationListNew.remove(gs);
-				}
-			}
-		}
-		if (gasolinetype != null && !gasolinetype.equals("null")) {
-			gasolinetype = gasolinetype.toLowerCase().replaceAll("\\s+", "");
-			switch (gasolinetype) {
-			case "diesel":
-				for (GasStation gs : gasStationList) {
-					if (!gs.getHasDiesel()) {
-						gasStationListNew.remove(gs);
-
-					}
-				}
-				break;
-			case "super":
-				for (GasStation gs : gasStationList) {
-					if (!gs.getHasSuper()) {
-						gasStationListNew.remove(gs);
-					}
-				}
-				break;
-			case "methane":
-				for (GasStation gs : gasStationList) {
-					if (!gs.getHasMethane()) {
-						gasStationListNew.remove(gs);
-					}
-				}
-				break;
-			case "gas":
-				for (GasStation gs : gasStationList) {
-					if (!gs.getHasGas()) {
-						gasStationListNew.remove(gs);
-					}
-				}
-				break;
-			case "superplus":
-				for (GasStation gs : gasStationList) {
-					if (!gs.getHasSuperPlus()) {
-						gasStationListNew.remove(gs);
-					}
-				}
-				break;
-			case "premiumdiesel":
-				for (GasStation gs : gasStationList) {
-					if (!gs.getHasPremiumDiesel()) {
-						gasStationListNew.remove(gs);
-					}
-				}
-				break;
-			default:
-				throw new InvalidGasTypeException("invalid gas type " + gasolinetype);
+		List<GasStation> gasStationList = this.findInBox(lat - (LAT_DIFF * radius), lat + (LAT_DIFF * radius),
+				lon - (LON_DIFF * radius), lon + (LON_DIFF * radius));
+		int fuels = gasolinetype == null || gasolinetype.equals("null") ? 0 : FuelType.parseMask(gasolinetype);
+		boolean anyCarSharing = carsharing == null || carsharing.equals("null");
+		List<GasStation> gasStationListNew = new ArrayList<>();
+		for (GasStation gs : gasStationList) {
+			if ((FuelType.maskOf(gs) & fuels) == fuels && (anyCarSharing || carsharing.equals(gs.getCarSharing()))) {
+				gasStationListNew.add(gs);
 			}
 		}
-		return gasStationConverter.toGasStationDtoList(gasStationListNew);
+		return this.toGasStationDtoList(gasStationListNew);
 	}
 
 	/*
 	 * first checks if the gas stations report dependabilities have been updated
-	 * since the startup returns all the gas stations that have the fueltype and
-	 * carsharing specified (no filtering if it's null)
+	 * since the startup returns all the gas stations that have the fueltype (or the
+	 * fuel types separated by commas) and carsharing specified (no filtering if it's
+	 * null), both are matched by the (carSharing, fuelMask) index
 	 */
 	@Override
 	public List<GasStationDto> getGasStationsWithoutCoordinates(String gasolinetype, String carsharing)
 			throws InvalidGasTypeException, InvalidCarSharingException {
-		if (!updateDependability) {
-			this.calculateDependability();
-			this.updateDependability = true;
-		}
+		this.checkDependability();
 		checkCarSharing(carsharing);
 
 		if ((carsharing == null || carsharing.equals("null"))
@@ -328,106 +542,194 @@ public class GasStationServiceimpl implements GasStationService {
 				&& (gasolinetype == null || gasolinetype.equals("null"))) {
 			return getGasStationByCarSharing(carsharing);
 		}
-		gasolinetype = gasolinetype.toLowerCase().replaceAll("\\s+", "");
-		switch (gasolinetype) {
-		case "diesel":
-			return gasStationConverter
-					.toGasStationDtoList(gasStationRepository.findByhasDieselAndCarSharing(true, carsharing));
-		case "super":
-			return gasStationConverter
-					.toGasStationDtoList(gasStationRepository.findByhasSuperAndCarSharing(true, carsharing));
-		case "methane":
-			return gasStationConverter
-					.toGasStationDtoList(gasStationRepository.findByhasMethaneAndCarSharing(true, carsharing));
-		case "gas":
-			return gasStationConverter
-					.toGasStationDtoList(gasStationRepository.findByhasGasAndCarSharing(true, carsharing));
-		case "superplus":
-			return gasStationConverter
-					.toGasStationDtoList(gasStationRepository.findByhasSuperPlusAndCarSharing(true, carsharing));
-		case "premiumdiesel":
-			return gasStationConverter
-					.toGasStationDtoList(gasStationRepository.findByhasPremiumDieselAndCarSharing(true, carsharing));
-		default:
-			throw new InvalidGasTypeException("invalid gas type " + gasolinetype);
-		}
+		int fuels = FuelType.parseMask(gasolinetype);
+		return this.cachedQuery("carSharing:" + carsharing + ",fuels:" + fuels,
+				() -> gasStationRepository.findByCarSharingAndFuelMaskIn(carsharing, FuelType.supersetsOf(fuels)));
 	}
 
 	/*
 	 * updates the prices of a gas station (CR4) checks if the user trying to update
 	 * prices has a lower reputation if it is lower then checks how many days passed
-	 * if the update attempt is consistent with UC7 the prices are updated
+	 * if the update attempt is consistent with UC7 the prices are updated. The gas
+	 * station is read together with its last reporter, so only the new reporter is
+	 * read apart (not even it when it is the same user), and it is updated in the
+	 * same transaction: at most three statements per report
 	 */
 	@Override
 	public void setReport(Integer gasStationId, Double dieselPrice, Double superPrice, Double superPlusPrice,
 			Double gasPrice, Double methanePrice, Double premiumDieselPrice, Integer userId)
 			throws InvalidGasStationException, PriceException, InvalidUserException {
 		this.checkId(gasStationId);
-		DateFormat formatter = new SimpleDateFormat("MM-dd-YYYY");
-		GasStation gasStation = gasStationRepository.findOne(gasStationId);
-		if (gasStation != null) {
-			User user1 = userRepository.findOne(userId);
-			if (user1 == null || userId < 0) {
-				throw new InvalidUserException("User id non valid " + userId);
-			}
-			if (gasStation != null && gasStation.getReportUser()!= null) {
-				User user2 = userRepository.findOne(gasStation.getReportUser());
-				if (user2 != null) { // otherwise gasStation has never had a report
-					Date oldDate;
-					Date newDate; // current date, the one of user1
-
-					try {
-						newDate =  formatter.parse(formatter.format(new Date(System.currentTimeMillis()))); 
-						oldDate = formatter.parse(gasStation.getReportTimestamp());
-					} catch (ParseException e) {
-						e.printStackTrace();
-						return;
+		PriceReportDto report = new PriceReportDto(gasStationId, dieselPrice, superPrice, superPlusPrice, gasPrice,
+				methanePrice, premiumDieselPrice, userId);
+		List<GasStation> changed = new ArrayList<>(1);
+		ReportOutcome outcome;
+		Long changeSeq = this.beginChange();
+		try {
+			outcome = this.withRetry(() -> {
+				changed.clear();
+				GasStation gasStation = gasStationRepository.findOneWithReporter(gasStationId);
+				if (gasStation == null) {
+					return ReportOutcome.INVALID_GAS_STATION;
+				}
+				Map<Integer, User> users = new HashMap<>();
+				if (gasStation.getUser() != null) {
+					users.put(gasStation.getUser().getUserId(), gasStation.getUser());
+				}
+				for (Integer id : Arrays.asList(userId, gasStation.getReportUser())) {
+					if (id != null && id >= 0 && !users.containsKey(id)) {
+						User user = userRepository.findOne(id);
+						if (user != null) {
+							users.put(id, user);
+						}
 					}
-					
-					int passedDays =  (int) ((newDate.getTime() - oldDate.getTime())/MILLIS_TO_DAYS);
-					if (user2.getReputation() > user1.getReputation()
-							&& passedDays<4) { // time in milliseconds
-						// in this case, the last report is still valid -> no update
-						return;
+				}
+				ReportOutcome result = this.applyReport(gasStation, users, report);
+				if (result == ReportOutcome.ACCEPTED) {
+					if (changeSeq != null) {
+						gasStation.setChangeSeq(changeSeq);
+					}
+					gasStationRepository.saveAndFlush(gasStation);
+					if (priceReportRecorder != null) {
+						priceReportRecorder.record(Collections.singletonList(this.toPriceReport(gasStation, report)));
 					}
+					changed.add(gasStation);
 				}
+				return result;
+			});
+		} finally {
+			this.endChange(changeSeq);
+		}
+		switch (outcome) {
+		case INVALID_GAS_STATION:
+			throw new InvalidGasStationException("Invalid gas station " + gasStationId);
+		case INVALID_USER:
+			throw new InvalidUserException("User id non valid " + userId);
+		case INVALID_PRICE:
+			throw new PriceException("Negative price is not valid");
+		case KEPT:
+			// the last report is still valid -> no update
+			return;
+		default:
+			this.invalidate(gasStationId, false);
+			if (priceUpdateBroadcaster != null) {
+				priceUpdateBroadcaster.publish(changed.get(0));
 			}
+		}
+	}
 
-			List<Double> prices = new ArrayList<Double>();
-			if (gasStation.getHasDiesel()) {
-				prices.add(dieselPrice);
-				gasStation.setDieselPrice(dieselPrice);
+	/*
+	 * the reports are grouped by gas station (keeping their order) and applied in
+	 * chunks of about reportChunkSize, the reports of a gas station never split,
+	 * each chunk in its own transaction with its own change number: a conflict
+	 * with a concurrent write replays only the chunk, and a chunk still
+	 * conflicting after maxRetries gets CONFLICT while the others are applied
+	 */
+	@Override
+	public List<ReportOutcome> setReports(List<PriceReportDto> reports) {
+		Map<Integer, List<Integer>> positions = new LinkedHashMap<>();
+		for (int i = 0; i < reports.size(); i++) {
+			PriceReportDto report = reports.get(i);
+			positions.computeIfAbsent(report == null ? null : report.getGasStationId(), id -> new ArrayList<>())
+					.add(i);
+		}
+		ReportOutcome[] outcomes = new ReportOutcome[reports.size()];
+		List<Integer> chunk = new ArrayList<>();
+		for (List<Integer> gasStationPositions : positions.values()) {
+			chunk.addAll(gasStationPositions);
+			if (chunk.size() >= reportChunkSize) {
+				this.setReportsChunk(reports, chunk, outcomes);
+				chunk.clear();
 			}
-			if (gasStation.getHasMethane()) {
-				prices.add(methanePrice);
-				gasStation.setMethanePrice(methanePrice);
+		}
+		if (!chunk.isEmpty()) {
+			this.setReportsChunk(reports, chunk, outcomes);
+		}
+		return Arrays.asList(outcomes);
+	}
+
+	/*
+	 * applies the reports at the given positions, storing their outcomes at the
+	 * same positions
+	 */
+	private void setReportsChunk(List<PriceReportDto> reports, List<Integer> positions, ReportOutcome[] outcomes) {
+		List<PriceReportDto> chunk = positions.stream().map(reports::get).collect(Collectors.toList());
+		List<ReportOutcome> chunkOutcomes = new ArrayList<>(chunk.size());
+		Map<Integer, GasStation> changed = new LinkedHashMap<>();
+		Long changeSeq = this.beginChange();
+		try {
+			this.withRetry(() -> this.applyReports(chunk, changeSeq, chunkOutcomes, changed));
+		} catch (ObjectOptimisticLockingFailureException e) {
+			if (transactionTemplate == null) {
+				throw e;
 			}
-			if (gasStation.getHasGas()) {
-				prices.add(gasPrice);
-				gasStation.setGasPrice(gasPrice);
+			positions.forEach(position -> outcomes[position] = ReportOutcome.CONFLICT);
+			return;
+		} finally {
+			this.endChange(changeSeq);
+		}
+		for (int i = 0; i < positions.size(); i++) {
+			outcomes[positions.get(i)] = chunkOutcomes.get(i);
+		}
+		for (GasStation gasStation : changed.values()) {
+			this.invalidate(gasStation.getGasStationId(), false);
+			if (priceUpdateBroadcaster != null) {
+				priceUpdateBroadcaster.publish(gasStation);
 			}
-			if (gasStation.getHasSuper()) {
-				prices.add(superPrice);
-				gasStation.setSuperPrice(superPrice);
+		}
+	}
+
+	/*
+	 * the gas stations (with their last reporters) and the other users of the
+	 * chunk are read with one query each, the reports are applied in order to the
+	 * loaded gas stations (so a report sees the ones before it, as if setReport
+	 * were called for each) and the gas stations changed are saved once, whatever
+	 * the number of reports they received, with the history of the accepted ones
+	 */
+	private List<GasStation> applyReports(List<PriceReportDto> reports, Long changeSeq,
+			List<ReportOutcome> outcomes, Map<Integer, GasStation> changed) {
+		outcomes.clear();
+		changed.clear();
+		List<PriceReport> accepted = new ArrayList<>();
+		Map<Integer, GasStation> gasStations = new HashMap<>();
+		Map<Integer, User> users = new HashMap<>();
+		Set<Integer> gasStationIds = reports.stream().filter(Objects::nonNull)
+				.map(PriceReportDto::getGasStationId).filter(Objects::nonNull).collect(Collectors.toSet());
+		if (!gasStationIds.isEmpty()) {
+			for (GasStation gasStation : gasStationRepository.findAllWithReporter(gasStationIds)) {
+				gasStations.put(gasStation.getGasStationId(), gasStation);
+				if (gasStation.getUser() != null) {
+					users.put(gasStation.getUser().getUserId(), gasStation.getUser());
+				}
 			}
-			if (gasStation.getHasSuperPlus()) {
-				prices.add(superPlusPrice);
-				gasStation.setSuperPlusPrice(superPlusPrice);
+		}
+		Set<Integer> userIds = reports.stream().filter(Objects::nonNull).map(PriceReportDto::getUserId)
+				.filter(Objects::nonNull).collect(Collectors.toSet());
+		gasStations.values().stream().map(GasStation::getReportUser).filter(Objects::nonNull)
+				.forEach(userIds::add);
+		userIds.removeAll(users.keySet());
+		if (!userIds.isEmpty()) {
+			for (User user : userRepository.findAll(userIds)) {
+				users.put(user.getUserId(), user);
 			}
-			if (gasStation.getHasPremiumDiesel()) {
-				prices.add(premiumDieselPrice);
-				gasStation.setPremiumDieselPrice(premiumDieselPrice);
+		}
+		for (PriceReportDto report : reports) {
+			GasStation gasStation = report == null ? null : gasStations.get(report.getGasStationId());
+			ReportOutcome outcome = this.applyReport(gasStation, users, report);
+			outcomes.add(outcome);
+			if (outcome == ReportOutcome.ACCEPTED) {
+				if (changeSeq != null) {
+					gasStation.setChangeSeq(changeSeq);
+				}
+				changed.put(gasStation.getGasStationId(), gasStation);
+				accepted.add(this.toPriceReport(gasStation, report));
 			}
-			this.checkPriceList(prices);
-			User user = userRepository.findOne(userId);
-			gasStation.setUser(user);
-			gasStation.setReportTimestamp(formatter.format(new Date(System.currentTimeMillis())));
-			gasStation.setReportDependability((OBSOLESCENCE_50 * (user.getReputation() + 5) / 10) + OBSOLESCENCE_50);
-			gasStation.setReportUser(user.getUserId());
-			gasStationRepository.saveAndFlush(gasStation);
-		} else {
-			throw new InvalidGasStationException("Invalid gas station " + gasStationId);
 		}
+		List<GasStation> saved = gasStationRepository.save(changed.values());
+		if (priceReportRecorder != null) {
+			priceReportRecorder.record(accepted);
+		}
+		return saved;
 	}
 
 	/*
@@ -437,11 +739,263 @@ public class GasStationServiceimpl implements GasStationService {
 	 */
 	@Override
 	public List<GasStationDto> getGasStationByCarSharing(String carSharing) {
-		if (!updateDependability) {
+		this.checkDependability();
+		return this.cachedQuery("carSharing:" + carSharing,
+				() -> gasStationRepository.findByCarSharing(carSharing));
+	}
+
+	/*
+	 * with the change log, the gas stations changed and deleted after seq are
+	 * read after the high-water mark, so a change numbered up to it can't be
+	 * missed (the ones above it may be sent twice). Asking from 0 or from a
+	 * number never given (the DB was replaced) returns all of them, as without
+	 * the change log
+	 */
+	@Override
+	public GasStationChangesDto getGasStationChangesSince(long seq) {
+		this.checkDependability();
+		long highWaterMark = gasStationChangeLog == null ? 0 : gasStationChangeLog.highWaterMark();
+		if (gasStationChangeLog == null || seq <= 0 || seq > highWaterMark) {
+			return new GasStationChangesDto(highWaterMark, true,
+					this.toGasStationDtoList(gasStationRepository.findAll()), new ArrayList<>());
+		}
+		return new GasStationChangesDto(highWaterMark, false,
+				this.toGasStationDtoList(gasStationChangeLog.findChangedAfter(seq)),
+				gasStationChangeLog.findDeletedAfter(seq));
+	}
+
+	/*
+	 * the history is empty without the recorder
+	 */
+	@Override
+	public List<PriceReportDto> getPriceHistory(Integer gasStationId, long from, long to)
+			throws InvalidGasStationException {
+		this.checkId(gasStationId);
+		if (priceReportRecorder == null) {
+			return new ArrayList<>();
+		}
+		return priceReportConverter.toPriceReportDtoList(priceReportRecorder.findHistory(gasStationId, from, to));
+	}
+
+	/*
+	 * with the stored dependability, the first read after startup updates the
+	 * dependabilities of all the gas stations
+	 */
+	private void checkDependability() {
+		if (!readTimeDependability && !updateDependability) {
 			this.calculateDependability();
 			this.updateDependability = true;
 		}
-		return gasStationConverter.toGasStationDtoList(gasStationRepository.findByCarSharing(carSharing));
+	}
+
+	/*
+	 * drops what is kept in memory about the gas station after a write, queries
+	 * tells if the results of the searches may have changed too (the gas station
+	 * was added, removed or changed its fuels or car sharing)
+	 */
+	private void invalidate(Integer gasStationId, boolean queries) {
+		if (gasStationDtoCache != null) {
+			gasStationDtoCache.invalidate(gasStationId);
+			if (queries) {
+				gasStationDtoCache.invalidateQueries();
+			}
+		}
+		if (gasStationDataVersion != null) {
+			gasStationDataVersion.bump();
+		}
+	}
+
+	private Long beginChange() {
+		return gasStationChangeLog == null ? null : gasStationChangeLog.begin();
+	}
+
+	private void endChange(Long changeSeq) {
+		if (changeSeq != null) {
+			gasStationChangeLog.end(changeSeq);
+		}
+	}
+
+	/*
+	 * the rules of setReport for one report of a batch, the gas station is
+	 * changed only if the outcome is ACCEPTED
+	 */
+	private ReportOutcome applyReport(GasStation gasStation, Map<Integer, User> users, PriceReportDto report) {
+		if (gasStation == null || report.getGasStationId() <= 0) {
+			return ReportOutcome.INVALID_GAS_STATION;
+		}
+		User user = report.getUserId() == null ? null : users.get(report.getUserId());
+		if (user == null || report.getUserId() < 0) {
+			return ReportOutcome.INVALID_USER;
+		}
+		User lastUser = gasStation.getReportUser() == null ? null : users.get(gasStation.getReportUser());
+		if (lastUser != null && gasStation.getReportDay() != null
+				&& lastUser.getReputation() > user.getReputation()
+				&& ReportDate.today() - gasStation.getReportDay() < 4) {
+			return ReportOutcome.KEPT;
+		}
+		PriceReport prices = this.toPriceReport(gasStation, report);
+		try {
+			this.checkPriceList(Arrays.asList(prices.getDieselPrice(), prices.getSuperPrice(),
+					prices.getSuperPlusPrice(), prices.getGasPrice(), prices.getMethanePrice(),
+					prices.getPremiumDieselPrice()));
+		} catch (PriceException e) {
+			return ReportOutcome.INVALID_PRICE;
+		}
+		if (gasStation.getHasDiesel()) {
+			gasStation.setDieselPrice(report.getDieselPrice());
+		}
+		if (gasStation.getHasMethane()) {
+			gasStation.setMethanePrice(report.getMethanePrice());
+		}
+		if (gasStation.getHasGas()) {
+			gasStation.setGasPrice(report.getGasPrice());
+		}
+		if (gasStation.getHasSuper()) {
+			gasStation.setSuperPrice(report.getSuperPrice());
+		}
+		if (gasStation.getHasSuperPlus()) {
+			gasStation.setSuperPlusPrice(report.getSuperPlusPrice());
+		}
+		if (gasStation.getHasPremiumDiesel()) {
+			gasStation.setPremiumDieselPrice(report.getPremiumDieselPrice());
+		}
+		gasStation.setUser(user);
+		gasStation.setReportDay(ReportDate.today());
+		gasStation.setReportDependability(ReportDependability.compute(user.getReputation(), 0));
+		gasStation.setReportUser(user.getUserId());
+		return ReportOutcome.ACCEPTED;
+	}
+
+	/*
+	 * the history row of a report, with the prices of the fuels the gas station
+	 * provides
+	 */
+	private PriceReport toPriceReport(GasStation gasStation, PriceReportDto report) {
+		return new PriceReport(report.getUserId(), gasStation.getGasStationId(), System.currentTimeMillis(),
+				gasStation.getHasDiesel() ? report.getDieselPrice() : null,
+				gasStation.getHasSuper() ? report.getSuperPrice() : null,
+				gasStation.getHasSuperPlus() ? report.getSuperPlusPrice() : null,
+				gasStation.getHasGas() ? report.getGasPrice() : null,
+				gasStation.getHasMethane() ? report.getMethanePrice() : null,
+				gasStation.getHasPremiumDiesel() ? report.getPremiumDieselPrice() : null);
+	}
+
+	/*
+	 * runs the work in a transaction when there is a transaction manager, so the
+	 * entities it reads stay managed and are written without being read again
+	 */
+	private <T> T inTransaction(Supplier<T> work) {
+		if (transactionTemplate == null) {
+			return work.get();
+		}
+		return transactionTemplate.execute(status -> work.get());
+	}
+
+	/*
+	 * runs the work in a transaction, again (reading everything again) if a gas
+	 * station it wrote had been changed meanwhile by another transaction, so the
+	 * rules are always checked on the current data. Without a transaction manager
+	 * the caller's transaction can't be restarted and the conflict is thrown
+	 */
+	private <T> T withRetry(Supplier<T> work) {
+		for (int attempt = 1;; attempt++) {
+			try {
+				return this.inTransaction(work);
+			} catch (ObjectOptimisticLockingFailureException e) {
+				if (transactionTemplate == null || attempt >= maxRetries) {
+					throw e;
+				}
+				long count = retries.incrementAndGet();
+				if (gaugeService != null) {
+					gaugeService.submit(REPORT_RETRIES, count);
+				}
+			}
+		}
+	}
+
+	private void invalidateAll() {
+		if (gasStationDtoCache != null) {
+			gasStationDtoCache.clear();
+		}
+		if (gasStationDataVersion != null) {
+			gasStationDataVersion.bump();
+		}
+	}
+
+	/*
+	 * runs the query through the cache (if any), the key identifies its
+	 * parameters
+	 */
+	private List<GasStationDto> cachedQuery(String key, Supplier<List<GasStation>> query) {
+		if (gasStationDtoCache == null) {
+			return this.toGasStationDtoList(query.get());
+		}
+		List<GasStationDto> gasStationDtoList = gasStationDtoCache.getQuery(key);
+		if (gasStationDtoList == null) {
+			long generation = gasStationDtoCache.generation();
+			gasStationDtoList = this.toGasStationDtoList(query.get());
+			gasStationDtoCache.putQuery(key, gasStationDtoList, generation);
+		}
+		return gasStationDtoList;
+	}
+
+	private GasStationDto toGasStationDto(GasStation gasStation) {
+		GasStationDto gasStationDto = gasStationConverter.toGasStationDto(gasStation);
+		if (readTimeDependability && gasStationDto != null) {
+			this.setCurrentDependability(gasStationDto, gasStation, ReportDate.today());
+		}
+		return gasStationDto;
+	}
+
+	private List<GasStationDto> toGasStationDtoList(List<GasStation> gasStationList) {
+		List<GasStationDto> gasStationDtoList = gasStationConverter.toGasStationDtoList(gasStationList);
+		if (readTimeDependability) {
+			long today = ReportDate.today();
+			for (int i = 0; i < gasStationDtoList.size(); i++) {
+				this.setCurrentDependability(gasStationDtoList.get(i), gasStationList.get(i), today);
+			}
+		}
+		return gasStationDtoList;
+	}
+
+	/*
+	 * sets the dependability of the report as of today, same rules of
+	 * calculateDependability. If the day of the report is unknown the stored value
+	 * is kept
+	 */
+	private void setCurrentDependability(GasStationDto gasStationDto, GasStation gasStation, long today) {
+		Double dependability = this.currentDependability(gasStation, today);
+		if (dependability != null) {
+			gasStationDto.setReportDependability(dependability);
+		}
+	}
+
+	/*
+	 * dependability of the report of the gas station as of today, null if the gas
+	 * station has no report or its day is unknown
+	 */
+	private Double currentDependability(GasStation gasStation, long today) {
+		if (gasStation.getReportUser() == null || gasStation.getReportUser() <= 0 || gasStation.getUser() == null
+				|| gasStation.getReportDay() == null) {
+			return null;
+		}
+		return ReportDependability.compute(gasStation.getUser().getReputation(), today - gasStation.getReportDay());
+	}
+
+	/*
+	 * returns the gas stations inside the box: the spatial index (if any) finds
+	 * their ids, then they are loaded by primary key, otherwise the DB is queried
+	 * on the coordinates
+	 */
+	private List<GasStation> findInBox(double minLat, double maxLat, double minLon, double maxLon) {
+		if (gasStationIndex == null) {
+			return gasStationRepository.findBylatBetweenAndLonBetween(minLat, maxLat, minLon, maxLon);
+		}
+		List<Integer> ids = gasStationIndex.findWithin(minLat, maxLat, minLon, maxLon);
+		if (ids.isEmpty()) {
+			return new ArrayList<>();
+		}
+		return gasStationRepository.findAll(ids);
 	}
 
 	/*
@@ -485,46 +1039,91 @@ public class GasStationServiceimpl implements GasStationService {
 	 * otherwise throws a GPSDataException
 	 */
 	private void checkCoordinates(double lat, double lon) throws GPSDataException {
-		if (!String.valueOf(lat).matches("^[-+]?([1-8]?\\d(\\.\\d+)?|90(\\.0+)?)$")) {
+		if (!CoordinateValidator.isValidLatitude(lat)) {
 			throw new GPSDataException("Invalid latitude");
 		}
-		if (!String.valueOf(lon).matches("^[-+]?(180(\\.0+)?|((1[0-7]\\d)|([1-9]?\\d))(\\.\\d+)?)$")) {
+		if (!CoordinateValidator.isValidLongitude(lon)) {
 			throw new GPSDataException("Invalid longitude");
 		}
 	}
 
 	/*
 	 * scheduled to start every day at midnight updates all gas station report
-	 * dependabilities with the current day 
+	 * dependabilities with the current day (nothing to do in read-time mode)
 	 * in case of date parsing error skips that gas station
 	 * 
+	 * the gas stations are walked in chunks of dependabilityChunkSize, each chunk
+	 * writes only the rows whose dependability changed, in a single batch. In both
+	 * modes the dependabilities of the cached dtos are not valid anymore
 	 */
 	@Scheduled(cron = "0 0 0 * * *")
 	private void calculateDependability() {
-		DateFormat formatter = new SimpleDateFormat("MM-dd-YYYY");
-		for (GasStation gs : gasStationRepository.findAll()) {
-			if (gs.getReportUser() != null && gs.getReportUser() > 0 && gs.getUser() != null) {
-				Date oldDate;
-				Date newDate;
-				try {
-					newDate =  formatter.parse(formatter.format(new Date(System.currentTimeMillis()))); 
-					oldDate = formatter.parse(gs.getReportTimestamp());
-				} catch (ParseException e) {
-					e.printStackTrace();
-					continue;
-				}
-			
-				if ((newDate.getTime() - oldDate.getTime())/MILLIS_TO_DAYS > 7) // if it's the same year just count days
-				{
-					gs.setReportDependability(Math.round(OBSOLESCENCE_50 * (gs.getUser().getReputation() + 5) / 10));
-					gasStationRepository.saveAndFlush(gs);
-				} else {
-					gs.setReportDependability(
-							Math.round(OBSOLESCENCE_50 * (gs.getUser().getReputation() + 5) / 10 + OBSOLESCENCE_50
-									* (1 - ((double) ((newDate.getTime() - oldDate.getTime())/MILLIS_TO_DAYS ) / 7))));
-					gasStationRepository.saveAndFlush(gs);
+		this.invalidateAll();
+		if (readTimeDependability) {
+			return;
+		}
+		long today = ReportDate.today();
+		long total = gasStationRepository.count();
+		long processed = 0;
+		Integer lastId = 0;
+		this.setDependabilityProgress(0, total);
+		while (true) {
+			Integer fromId = lastId;
+			// every chunk has its own change number, released once committed, so the
+			// high-water mark goes on while the job runs
+			Long changeSeq = this.beginChange();
+			List<GasStation> chunk;
+			try {
+				// a conflict with a report reads the chunk again from fromId
+				chunk = this.withRetry(() -> this.calculateDependabilityChunk(fromId, today, changeSeq));
+			} finally {
+				this.endChange(changeSeq);
+			}
+			if (chunk == null || chunk.isEmpty()) {
+				break;
+			}
+			lastId = chunk.get(chunk.size() - 1).getGasStationId();
+			processed += chunk.size();
+			this.setDependabilityProgress(processed, total);
+			if (chunk.size() < dependabilityChunkSize) {
+				break;
+			}
+		}
+		this.setDependabilityProgress(total, total);
+		this.invalidateAll();
+	}
+
+	/*
+	 * updates the dependabilities of the chunk of gas stations following fromId
+	 * and returns the chunk (empty at the end of the table)
+	 */
+	private List<GasStation> calculateDependabilityChunk(Integer fromId, long today, Long changeSeq) {
+		List<GasStation> chunk = gasStationRepository.findChunkAfter(fromId,
+				new PageRequest(0, dependabilityChunkSize));
+		List<GasStation> changed = new ArrayList<>();
+		for (GasStation gs : chunk) {
+			Double dependability = this.currentDependability(gs, today);
+			if (dependability != null && dependability != gs.getReportDependability()) {
+				gs.setReportDependability(dependability);
+				changed.add(gs);
+			}
+		}
+		if (!changed.isEmpty()) {
+			if (changeSeq != null) {
+				for (GasStation gs : changed) {
+					gs.setChangeSeq(changeSeq);
 				}
 			}
+			gasStationRepository.save(changed);
+			gasStationRepository.flush();
+		}
+		return chunk;
+	}
+
+	private void setDependabilityProgress(long processed, long total) {
+		dependabilityProgress = total == 0 ? 100 : Math.min(100, processed * 100.0 / total);
+		if (gaugeService != null) {
+			gaugeService.submit(DEPENDABILITY_PROGRESS, dependabilityProgress);
 		}
 	}
 }
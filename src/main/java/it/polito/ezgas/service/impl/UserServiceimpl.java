@@ -1,20 +1,35 @@
 package it.polito.ezgas.service.impl;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import javax.annotation.PreDestroy;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import exception.InvalidLoginDataException;
 import exception.InvalidUserException;
+import exception.SessionLimitException;
+import it.polito.ezgas.cache.GasStationDataVersion;
+import it.polito.ezgas.cache.GasStationDtoCache;
 import it.polito.ezgas.converter.UserConverter;
 import it.polito.ezgas.dto.IdPw;
 import it.polito.ezgas.dto.LoginDto;
 import it.polito.ezgas.dto.UserDto;
 import it.polito.ezgas.entity.User;
 import it.polito.ezgas.repository.UserRepository;
+import it.polito.ezgas.reputation.ReputationVoteBuffer;
+import it.polito.ezgas.session.SessionTokenStore;
+import it.polito.ezgas.sync.GasStationChangeLog;
 import it.polito.ezgas.service.UserService;
+import it.polito.ezgas.utils.PasswordHash;
 
 /**
  * Created by softeng on 27/4/2020.
@@ -31,12 +46,59 @@ public class UserServiceimpl implements UserService {
 	 * @Autowired UserConverter userConverter;
 	 */
 	private UserConverter userConverter;
+	private GasStationDtoCache gasStationDtoCache;
+	private GasStationDataVersion gasStationDataVersion;
+	private GasStationChangeLog gasStationChangeLog;
+	private TransactionTemplate transactionTemplate;
+	private ReputationVoteBuffer reputationVoteBuffer;
+	private SessionTokenStore sessionTokenStore;
 
 	public UserServiceimpl(UserRepository userRepository, UserConverter userConverter) {
 		this.userRepository = userRepository;
 		this.userConverter = userConverter;
 	}
 
+	/*
+	 * the cached gas stations embed the user who reported their prices, they are
+	 * invalidated when it changes
+	 */
+	@Autowired(required = false)
+	public void setGasStationDtoCache(GasStationDtoCache gasStationDtoCache) {
+		this.gasStationDtoCache = gasStationDtoCache;
+	}
+
+	@Autowired(required = false)
+	public void setGasStationDataVersion(GasStationDataVersion gasStationDataVersion) {
+		this.gasStationDataVersion = gasStationDataVersion;
+	}
+
+	/*
+	 * the gas stations reported by a changed user get a new change number, so
+	 * the clients syncing the deltas see the new reporter and dependability
+	 */
+	@Autowired(required = false)
+	public void setGasStationChangeLog(GasStationChangeLog gasStationChangeLog) {
+		this.gasStationChangeLog = gasStationChangeLog;
+	}
+
+	/*
+	 * the reputation update and its read back run in one transaction
+	 */
+	@Autowired(required = false)
+	public void setTransactionTemplate(TransactionTemplate transactionTemplate) {
+		this.transactionTemplate = transactionTemplate;
+	}
+
+	@Autowired(required = false)
+	public void setReputationVoteBuffer(ReputationVoteBuffer reputationVoteBuffer) {
+		this.reputationVoteBuffer = reputationVoteBuffer;
+	}
+
+	@Autowired(required = false)
+	public void setSessionTokenStore(SessionTokenStore sessionTokenStore) {
+		this.sessionTokenStore = sessionTokenStore;
+	}
+
 	@Override
 	public UserDto getUserById(Integer userId) throws InvalidUserException {
 		if (userId < 0)
@@ -51,18 +113,38 @@ public class UserServiceimpl implements UserService {
 	@Override
 	public UserDto saveUser(UserDto userDto) {
 		if (userDto.getUserId() == null) {
-			if (userRepository.findByEmail(userDto.getEmail()) != null) {
+			// no lookup before: the unique index on the email refuses a second user
+			// with the same one, even if both sign up at the same time
+			User user = userConverter.toUser(this.withPasswordHash(userDto, null));
+			try {
+				user = userRepository.insert(user);
+			} catch (DataIntegrityViolationException e) {
 				return null;
 			}
-			User user = userConverter.toUser(userDto);
-			user = userRepository.saveAndFlush(user);
-			return userConverter.toUserDto(user);
+			// the caller gets back the password it sent, not its hash
+			UserDto saved = userConverter.toUserDto(user);
+			saved.setPassword(userDto.getPassword());
+			return saved;
 		} else {
 
-			if (userRepository.findByEmail(userDto.getEmail()).getUserId() != userDto.getUserId()) {
+			// the user is found by id: a new email has no user yet, and a duplicate left
+			// without an email key by the migration can only be found this way
+			User stored = userRepository.findOne(userDto.getUserId());
+			User owner = userRepository.findByEmail(userDto.getEmail());
+			if (stored == null || (owner != null && !owner.getUserId().equals(userDto.getUserId()))) {
 				return userDto;
 			}
-			userRepository.saveAndFlush(userConverter.toUser(userDto));
+			try {
+				userRepository.saveAndFlush(userConverter.toUser(this.withPasswordHash(userDto, stored.getPassword())));
+			} catch (DataIntegrityViolationException e) {
+				// the new email has been taken meanwhile
+				return userDto;
+			}
+			this.invalidateReports(userDto.getUserId());
+			if (sessionTokenStore != null) {
+				sessionTokenStore.update(userDto.getUserId(), userDto.getUserName(), userDto.getEmail(),
+						userDto.getAdmin());
+			}
 			return userDto;
 		}
 	}
@@ -80,49 +162,177 @@ public class UserServiceimpl implements UserService {
 			throw new InvalidUserException("Invalid user ID");
 		if (userRepository.exists(userId)) {
 			userRepository.delete(userId);
+			this.invalidateReports(userId);
+			if (sessionTokenStore != null) {
+				sessionTokenStore.revokeUser(userId);
+			}
 			return true;
 		}
 		return false;
 	}
 
+	/*
+	 * the password is checked against its salted slow hash, only here: the
+	 * following requests carry the token of the session opened. A password still
+	 * stored in plain text is replaced with its hash
+	 */
 	@Override
 	public LoginDto login(IdPw credentials) throws InvalidLoginDataException {
-		// token considered as null, will be used later
 		if (credentials.getPw() == null || credentials.getUser() == null)
 			throw new InvalidLoginDataException("Invalid user and/or password");
 		User user = userRepository.findByEmail(credentials.getUser());
 		if (user == null)
 			throw new InvalidLoginDataException("Invalid email");
-		if (!user.getPassword().equals(credentials.getPw()))
+		if (!PasswordHash.matches(credentials.getPw(), user.getPassword()))
 			throw new InvalidLoginDataException("Invalid password for user: " + user.getEmail());
+		if (!PasswordHash.isHash(user.getPassword())) {
+			userRepository.updatePassword(user.getUserId(), PasswordHash.hash(credentials.getPw()));
+		}
 		LoginDto loginDto = new LoginDto(user.getUserId(), user.getUserName(), null, user.getEmail(),
 				user.getReputation());
 		loginDto.setAdmin(user.getAdmin());
+		if (sessionTokenStore != null) {
+			loginDto.setToken(sessionTokenStore.issue(loginDto));
+			if (loginDto.getToken() == null)
+				throw new SessionLimitException("Too many open sessions, login refused");
+		}
 		return loginDto;
 	}
 
+	/*
+	 * a lookup in the session store, no query
+	 */
+	@Override
+	public LoginDto getSession(String token) {
+		return sessionTokenStore == null ? null : sessionTokenStore.find(token);
+	}
+
+	@Override
+	public Boolean logout(String token) {
+		return sessionTokenStore != null && sessionTokenStore.revoke(token);
+	}
+
 	@Override
 	public Integer increaseUserReputation(Integer userId) throws InvalidUserException {
-		if (userId < 0 || (!userRepository.exists(userId)))
-			throw new InvalidUserException("Invalid user ID");
-		User user = userRepository.getOne(userId);
-		if (user.getReputation() < 5) {
-			user.setReputation(user.getReputation() + 1);
-			userRepository.saveAndFlush(user);
-		}
-		return user.getReputation();
+		return this.changeReputation(userId, true);
 	}
 
 	@Override
 	public Integer decreaseUserReputation(Integer userId) throws InvalidUserException {
-		if (userId < 0 || (!userRepository.exists(userId)))
+		return this.changeReputation(userId, false);
+	}
+
+	/*
+	 * one conditional UPDATE, with the bound in its where clause, so concurrent
+	 * votes are neither lost nor push the reputation out of [-5, 5]; the new value
+	 * is read back in the same transaction, while the row is still locked by the
+	 * update, so it is the one written by this vote
+	 */
+	private Integer changeReputation(Integer userId, boolean increase) throws InvalidUserException {
+		if (userId < 0)
+			throw new InvalidUserException("Invalid user ID");
+		if (reputationVoteBuffer != null && reputationVoteBuffer.isEnabled()) {
+			return this.bufferVote(userId, increase);
+		}
+		boolean[] changed = new boolean[1];
+		Supplier<Integer> vote = () -> {
+			changed[0] = (increase ? userRepository.increaseReputation(userId)
+					: userRepository.decreaseReputation(userId)) > 0;
+			return userRepository.findReputation(userId);
+		};
+		Integer reputation = transactionTemplate == null ? vote.get() : transactionTemplate.execute(status -> vote.get());
+		if (reputation == null)
 			throw new InvalidUserException("Invalid user ID");
-		User user = userRepository.getOne(userId);
-		if (user.getReputation() > -5) {
-			user.setReputation(user.getReputation() - 1);
-			userRepository.saveAndFlush(user);
+		if (changed[0]) {
+			this.invalidateReports(userId);
+		}
+		return reputation;
+	}
+
+	/*
+	 * only reads the user: the vote is added to the buffer and the reputation
+	 * returned is the one the user will have after the next flush, as far as the
+	 * votes seen so far go
+	 */
+	private Integer bufferVote(Integer userId, boolean increase) throws InvalidUserException {
+		Integer reputation = userRepository.findReputation(userId);
+		if (reputation == null)
+			throw new InvalidUserException("Invalid user ID");
+		reputationVoteBuffer.vote(userId, increase);
+		return (int) Math.max(-5, Math.min(5, reputation + reputationVoteBuffer.getPending(userId)));
+	}
+
+	/*
+	 * writes the net delta of the buffered votes of each user, one UPDATE per user
+	 * and one transaction per flush. If it fails the deltas go back to the buffer
+	 */
+	@Scheduled(fixedDelayString = "${ezgas.reputation.flush-ms:250}")
+	@PreDestroy
+	public void flushReputationVotes() {
+		if (reputationVoteBuffer == null) {
+			return;
+		}
+		Map<Integer, Long> deltas = reputationVoteBuffer.drain();
+		if (deltas.isEmpty()) {
+			return;
+		}
+		List<Integer> changed = new ArrayList<>();
+		Supplier<List<Integer>> flush = () -> {
+			changed.clear();
+			deltas.forEach((userId, delta) -> {
+				// beyond 10 votes the reputation ends at a bound anyway
+				if (userRepository.addReputation(userId, (int) Math.max(-10, Math.min(10, delta))) > 0) {
+					changed.add(userId);
+				}
+			});
+			return changed;
+		};
+		try {
+			if (transactionTemplate == null) {
+				flush.get();
+			} else {
+				transactionTemplate.execute(status -> flush.get());
+			}
+		} catch (RuntimeException e) {
+			reputationVoteBuffer.restore(deltas);
+			throw e;
+		}
+		reputationVoteBuffer.flushed(deltas.size());
+		this.invalidateReports(changed);
+	}
+
+	/*
+	 * the user to store, with the hash of the password (a password already hashed,
+	 * e.g. sent back as read, is kept only if it is the one stored for the user:
+	 * any other value, hash-like or not, is hashed, so a client can't choose the
+	 * stored hash (or its number of iterations)
+	 */
+	private UserDto withPasswordHash(UserDto userDto, String storedPassword) {
+		if (userDto.getPassword() == null
+				|| (PasswordHash.isHash(storedPassword) && userDto.getPassword().equals(storedPassword))) {
+			return userDto;
+		}
+		return new UserDto(userDto.getUserId(), userDto.getUserName(), PasswordHash.hash(userDto.getPassword()),
+				userDto.getEmail(), userDto.getReputation(), userDto.getAdmin());
+	}
+
+	private void invalidateReports(Integer userId) {
+		this.invalidateReports(Collections.singletonList(userId));
+	}
+
+	private void invalidateReports(List<Integer> userIds) {
+		if (userIds.isEmpty()) {
+			return;
+		}
+		if (gasStationDtoCache != null) {
+			userIds.forEach(gasStationDtoCache::invalidateReportUser);
+		}
+		if (gasStationDataVersion != null) {
+			gasStationDataVersion.bump();
+		}
+		if (gasStationChangeLog != null) {
+			gasStationChangeLog.recordReporterChange(userIds);
 		}
-		return user.getReputation();
 	}
 
 }
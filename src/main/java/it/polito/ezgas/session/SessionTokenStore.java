@@ -0,0 +1,230 @@
+package it.polito.ezgas.session;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import it.polito.ezgas.dto.LoginDto;
+
+/**
+ * The sessions opened by login, by token. A token is 32 random bytes, it is
+ * valid for ttl-minutes after the login and only in this instance (the store
+ * is in memory, a restart logs everybody out).
+ *
+ * Looking a token up doesn't touch the DB: the session keeps who the user is
+ * (id, name, email, admin), updated by the user service when the user
+ * changes. There are at most max-size sessions: when full, after removing
+ * the expired ones, a new login is refused (when-full=refuse, the default) or
+ * ends the oldest session (when-full=evict-oldest).
+ *
+ * The ttl being the same for all, the order of issue is the order of expiry:
+ * the tokens are also kept in that order, so the expired ones are at the head
+ * and the purge stops at the first live one.
+ */
+@Component
+public class SessionTokenStore implements PublicMetrics {
+
+	private static final String METRIC_PREFIX = "ezgas.sessions.";
+	private static final int TOKEN_BYTES = 32;
+
+	public enum WhenFull {
+		REFUSE, EVICT_OLDEST
+	}
+
+	private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+	// the tokens in order of issue (and of expiry), guarded by itself: only
+	// issue, revoke and purge take it, not the lookups
+	private final LinkedHashSet<String> order = new LinkedHashSet<>();
+	private final SecureRandom random = new SecureRandom();
+	private final LongSupplier clock;
+	private final long ttlMillis;
+	private final int maxSize;
+	private final WhenFull whenFull;
+	private final AtomicLong issued = new AtomicLong();
+	private final AtomicLong evicted = new AtomicLong();
+	private final AtomicLong refused = new AtomicLong();
+
+	@Autowired
+	public SessionTokenStore(@Value("${ezgas.sessions.ttl-minutes:720}") long ttlMinutes,
+			@Value("${ezgas.sessions.max-size:100000}") int maxSize,
+			@Value("${ezgas.sessions.when-full:refuse}") String whenFull) {
+		this(System::currentTimeMillis, TimeUnit.MINUTES.toMillis(ttlMinutes), maxSize,
+				WhenFull.valueOf(whenFull.trim().replace('-', '_').toUpperCase(Locale.ROOT)));
+	}
+
+	public SessionTokenStore(LongSupplier clock, long ttlMillis, int maxSize, WhenFull whenFull) {
+		this.clock = clock;
+		this.ttlMillis = ttlMillis;
+		this.maxSize = Math.max(1, maxSize);
+		this.whenFull = whenFull;
+	}
+
+	/*
+	 * opens a session for the user and returns its token, null if the store is
+	 * full of live sessions and the policy is to refuse
+	 */
+	public String issue(LoginDto login) {
+		byte[] bytes = new byte[TOKEN_BYTES];
+		random.nextBytes(bytes);
+		String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+		LoginDto identity = identity(login.getUserId(), login.getUserName(), login.getEmail(), login.getAdmin(), null);
+		synchronized (order) {
+			if (order.size() >= maxSize && !this.makeRoom()) {
+				refused.incrementAndGet();
+				return null;
+			}
+			// the expiry read here keeps order sorted by it
+			order.add(token);
+			sessions.put(token, new Session(identity, clock.getAsLong() + ttlMillis));
+		}
+		issued.incrementAndGet();
+		return token;
+	}
+
+	/*
+	 * the user of the token, null if the token is unknown or expired
+	 */
+	public LoginDto find(String token) {
+		if (token == null) {
+			return null;
+		}
+		Session session = sessions.get(token);
+		if (session == null) {
+			return null;
+		}
+		if (session.expiresAt <= clock.getAsLong()) {
+			sessions.remove(token, session);
+			return null;
+		}
+		LoginDto login = session.login;
+		return identity(login.getUserId(), login.getUserName(), login.getEmail(), login.getAdmin(), token);
+	}
+
+	public boolean revoke(String token) {
+		if (token == null) {
+			return false;
+		}
+		synchronized (order) {
+			order.remove(token);
+			return sessions.remove(token) != null;
+		}
+	}
+
+	/*
+	 * the sessions of a deleted user
+	 */
+	public void revokeUser(Integer userId) {
+		synchronized (order) {
+			sessions.entrySet().removeIf(entry -> {
+				if (!userId.equals(entry.getValue().login.getUserId())) {
+					return false;
+				}
+				order.remove(entry.getKey());
+				return true;
+			});
+		}
+	}
+
+	/*
+	 * the sessions of the user see its new name, email and admin flag
+	 */
+	public void update(Integer userId, String userName, String email, Boolean admin) {
+		sessions.replaceAll((token, session) -> {
+			if (!userId.equals(session.login.getUserId())) {
+				return session;
+			}
+			return new Session(identity(userId, userName, email, admin, null), session.expiresAt);
+		});
+	}
+
+	public int getSize() {
+		return sessions.size();
+	}
+
+	/*
+	 * removes the expired sessions from the head of the order, up to the first
+	 * live one (a token found expired by find is already out of the map)
+	 */
+	@Scheduled(fixedDelayString = "${ezgas.sessions.purge-ms:60000}")
+	public void purge() {
+		long now = clock.getAsLong();
+		synchronized (order) {
+			for (Iterator<String> tokens = order.iterator(); tokens.hasNext();) {
+				String token = tokens.next();
+				Session session = sessions.get(token);
+				if (session != null && session.expiresAt > now) {
+					break;
+				}
+				tokens.remove();
+				if (session != null) {
+					sessions.remove(token, session);
+				}
+			}
+		}
+	}
+
+	/*
+	 * called holding order when the store is full: false if it is still full of
+	 * live sessions and the policy is to refuse, else the oldest one ends
+	 */
+	private boolean makeRoom() {
+		this.purge();
+		if (order.size() < maxSize) {
+			return true;
+		}
+		if (whenFull == WhenFull.REFUSE) {
+			return false;
+		}
+		Iterator<String> tokens = order.iterator();
+		sessions.remove(tokens.next());
+		tokens.remove();
+		evicted.incrementAndGet();
+		return true;
+	}
+
+	/*
+	 * the reputation changes with every vote, it is not kept in the session
+	 */
+	private static LoginDto identity(Integer userId, String userName, String email, Boolean admin, String token) {
+		LoginDto login = new LoginDto(userId, userName, token, email, null);
+		login.setAdmin(admin);
+		return login;
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		List<Metric<?>> metrics = new ArrayList<>();
+		metrics.add(new Metric<>(METRIC_PREFIX + "active", sessions.size()));
+		metrics.add(new Metric<>(METRIC_PREFIX + "issued", issued.get()));
+		metrics.add(new Metric<>(METRIC_PREFIX + "evicted", evicted.get()));
+		metrics.add(new Metric<>(METRIC_PREFIX + "refused", refused.get()));
+		return metrics;
+	}
+
+	private static class Session {
+		private final LoginDto login;
+		private final long expiresAt;
+
+		private Session(LoginDto login, long expiresAt) {
+			this.login = login;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package it.polito.ezgas.startup;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.boot.context.embedded.EmbeddedServletContainerInitializedEvent;
+import org.springframework.boot.context.event.ApplicationEnvironmentPreparedEvent;
+import org.springframework.boot.context.event.ApplicationPreparedEvent;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.context.event.ApplicationStartingEvent;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+
+/**
+ * Where the boot time goes. Every phase lasts from the end of the previous one
+ * (the start of the JVM for the first) to the event of the application
+ * ending it; the data setup of BootEZGasApplication ends its own phases in
+ * the middle of the context refresh, which keeps the rest of it. The report is
+ * printed when the application is ready and exposed as the
+ * ezgas.startup.<phase> metrics (milliseconds).
+ *
+ * Registered by main, before the context exists, so the tests don't have it.
+ */
+public class StartupTimings implements ApplicationListener<ApplicationEvent>, PublicMetrics {
+
+	private static final String METRIC_PREFIX = "ezgas.startup.";
+
+	private final Map<String, Long> phases = new LinkedHashMap<>();
+	private final long start = ManagementFactory.getRuntimeMXBean().getStartTime();
+	private long last = start;
+	private boolean ready;
+
+	/*
+	 * ends the phase now, a phase ended more than once is the sum of its parts
+	 */
+	public synchronized void phase(String name) {
+		long now = System.currentTimeMillis();
+		phases.merge(name, now - last, Long::sum);
+		last = now;
+	}
+
+	public synchronized Map<String, Long> getPhases() {
+		return new LinkedHashMap<>(phases);
+	}
+
+	@Override
+	public void onApplicationEvent(ApplicationEvent event) {
+		if (event instanceof ApplicationStartingEvent) {
+			this.phase("jvm");
+		} else if (event instanceof ApplicationEnvironmentPreparedEvent) {
+			this.phase("environment");
+		} else if (event instanceof ApplicationPreparedEvent) {
+			this.phase("context-prepare");
+		} else if (event instanceof ContextRefreshedEvent && !ready) {
+			this.phase("context-refresh");
+		} else if (event instanceof EmbeddedServletContainerInitializedEvent && !ready) {
+			this.phase("servlet-container");
+		} else if (event instanceof ApplicationReadyEvent && !ready) {
+			this.phase("runners");
+			ready = true;
+			this.report();
+		}
+	}
+
+	private synchronized void report() {
+		StringBuilder report = new StringBuilder("Started in ").append(last - start).append(" ms");
+		phases.forEach((name, millis) -> report.append("\n  ").append(name).append(": ").append(millis).append(" ms"));
+		System.out.println(report);
+	}
+
+	@Override
+	public synchronized Collection<Metric<?>> metrics() {
+		List<Metric<?>> metrics = new ArrayList<>();
+		phases.forEach((name, millis) -> metrics.add(new Metric<>(METRIC_PREFIX + name, millis)));
+		metrics.add(new Metric<>(METRIC_PREFIX + "total", last - start));
+		return metrics;
+	}
+}
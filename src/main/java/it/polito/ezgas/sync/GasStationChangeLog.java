@@ -0,0 +1,142 @@
+package it.polito.ezgas.sync;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import it.polito.ezgas.entity.GasStation;
+import it.polito.ezgas.entity.GasStationChangeCounter;
+import it.polito.ezgas.entity.GasStationTombstone;
+import it.polito.ezgas.repository.GasStationChangeCounterRepository;
+import it.polito.ezgas.repository.GasStationRepository;
+import it.polito.ezgas.repository.GasStationTombstoneRepository;
+
+/**
+ * Monotonic sequence of the changes to the gas stations, so that a client
+ * holding a copy of them can ask only for what changed since the sequence
+ * number it saw last. Every write takes a new number (begin), stores it in the
+ * changeSeq of the rows it writes (or in a tombstone for a deletion) and
+ * releases it once committed (end).
+ *
+ * Numbers are taken before the commit, so a write can become visible after a
+ * greater one: the high-water mark given to the clients is the greatest number
+ * below all the writes still in flight, every change up to it is already
+ * readable.
+ *
+ * The numbers are reserved in blocks in the GasStationChangeCounter row, stored
+ * (in a transaction of its own) before any number of the block is given: the
+ * sequence restarts above the reserved ones, so a number given but never
+ * written before a restart is not given again to a different change.
+ */
+@Component
+public class GasStationChangeLog {
+
+	private final GasStationRepository gasStationRepository;
+	private final GasStationTombstoneRepository gasStationTombstoneRepository;
+	private final GasStationChangeCounterRepository gasStationChangeCounterRepository;
+	private final TreeSet<Long> inFlight = new TreeSet<>();
+	private long last;
+	private long reserved;
+	private int reserveSize = 100;
+	private TransactionTemplate transactionTemplate;
+
+	public GasStationChangeLog(GasStationRepository gasStationRepository,
+			GasStationTombstoneRepository gasStationTombstoneRepository,
+			GasStationChangeCounterRepository gasStationChangeCounterRepository) {
+		this.gasStationRepository = gasStationRepository;
+		this.gasStationTombstoneRepository = gasStationTombstoneRepository;
+		this.gasStationChangeCounterRepository = gasStationChangeCounterRepository;
+	}
+
+	/*
+	 * the reservation commits on its own, even if the write it is taken for
+	 * rolls back
+	 */
+	@Autowired(required = false)
+	public void setTransactionManager(PlatformTransactionManager transactionManager) {
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+	}
+
+	public void setReserveSize(int reserveSize) {
+		this.reserveSize = Math.max(1, reserveSize);
+	}
+
+	@PostConstruct
+	public synchronized void load() {
+		Long gasStations = gasStationRepository.findMaxChangeSeq();
+		Long tombstones = gasStationTombstoneRepository.findMaxChangeSeq();
+		GasStationChangeCounter counter = gasStationChangeCounterRepository.findOne(GasStationChangeCounter.ID);
+		last = Math.max(gasStations == null ? 0 : gasStations, tombstones == null ? 0 : tombstones);
+		if (counter != null && counter.getReserved() != null) {
+			last = Math.max(last, counter.getReserved());
+		}
+		reserved = last;
+	}
+
+	/*
+	 * the number of a new change, to be released with end once written
+	 */
+	public synchronized long begin() {
+		long next = last + 1;
+		if (next > reserved) {
+			GasStationChangeCounter counter = new GasStationChangeCounter(next + reserveSize - 1);
+			if (transactionTemplate == null) {
+				gasStationChangeCounterRepository.save(counter);
+			} else {
+				transactionTemplate.execute(status -> gasStationChangeCounterRepository.save(counter));
+			}
+			reserved = counter.getReserved();
+		}
+		last = next;
+		inFlight.add(last);
+		return last;
+	}
+
+	public synchronized void end(long changeSeq) {
+		inFlight.remove(changeSeq);
+	}
+
+	/*
+	 * all the changes up to this number are committed
+	 */
+	public synchronized long highWaterMark() {
+		return inFlight.isEmpty() ? last : inFlight.first() - 1;
+	}
+
+	/*
+	 * one change for all the gas stations last reported by the users, whose
+	 * reputation, name or email changed
+	 */
+	public void recordReporterChange(Collection<Integer> userIds) {
+		if (userIds.isEmpty()) {
+			return;
+		}
+		long changeSeq = this.begin();
+		try {
+			gasStationRepository.updateChangeSeqByReporter(userIds, changeSeq);
+		} finally {
+			this.end(changeSeq);
+		}
+	}
+
+	public void recordDeletion(Integer gasStationId, long changeSeq) {
+		gasStationTombstoneRepository.save(new GasStationTombstone(gasStationId, changeSeq));
+	}
+
+	public List<GasStation> findChangedAfter(long changeSeq) {
+		return gasStationRepository.findChangedAfter(changeSeq);
+	}
+
+	public List<Integer> findDeletedAfter(long changeSeq) {
+		return gasStationTombstoneRepository.findDeletedAfter(changeSeq);
+	}
+}
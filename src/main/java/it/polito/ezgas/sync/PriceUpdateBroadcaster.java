@@ -0,0 +1,273 @@
+package it.polito.ezgas.sync;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import it.polito.ezgas.dto.PriceUpdateDto;
+import it.polito.ezgas.entity.GasStation;
+import it.polito.ezgas.utils.FuelType;
+
+/**
+ * Pushes the new prices of the gas stations to the clients connected to the
+ * price updates stream (Server-Sent Events), each one receiving only the gas
+ * stations inside its box and providing its fuels.
+ *
+ * The streams are asynchronous requests, so a connected client doesn't hold a
+ * servlet thread. publish only puts the event in the queue of every matching
+ * subscriber and returns: a small pool drains each queue, at most one thread
+ * per subscriber at a time so that its events stay in order. A slow client
+ * whose queue is full loses the new events (counted as dropped) without
+ * slowing down the others, it can catch up with the delta sync.
+ *
+ * The id of an event is the high-water mark of the change log read when it is
+ * published (after the commit), not the change number of the gas station: a
+ * client resuming the delta sync from it can't miss a change still in flight
+ * with a lower number.
+ */
+@Component
+public class PriceUpdateBroadcaster implements PublicMetrics {
+
+	private static final String METRIC_PREFIX = "ezgas.price-updates.";
+	private static final Object HEARTBEAT = new Object();
+
+	private final Executor executor;
+	private final int queueSize;
+	private final int maxSubscribers;
+	private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+	// the slots taken, reserved before a subscriber is added and released once
+	// when it ends
+	private final AtomicInteger slots = new AtomicInteger();
+	private final AtomicLong published = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private GasStationChangeLog gasStationChangeLog;
+
+	@Autowired
+	public PriceUpdateBroadcaster(@Value("${ezgas.price-updates.threads:2}") int threads,
+			@Value("${ezgas.price-updates.queue-size:64}") int queueSize,
+			@Value("${ezgas.price-updates.max-subscribers:2000}") int maxSubscribers) {
+		this(Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+			Thread thread = new Thread(runnable, "price-updates");
+			thread.setDaemon(true);
+			return thread;
+		}), queueSize, maxSubscribers);
+	}
+
+	public PriceUpdateBroadcaster(Executor executor, int queueSize, int maxSubscribers) {
+		this.executor = executor;
+		this.queueSize = Math.max(1, queueSize);
+		this.maxSubscribers = maxSubscribers;
+	}
+
+	@Autowired(required = false)
+	public void setGasStationChangeLog(GasStationChangeLog gasStationChangeLog) {
+		this.gasStationChangeLog = gasStationChangeLog;
+	}
+
+	/*
+	 * registers the stream of a client, false if there are already maxSubscribers
+	 * streams open: the slot is reserved first, so concurrent subscriptions can't
+	 * go over the limit. The subscriber is removed when the stream completes
+	 * (also after an error of the async request), times out or fails to send
+	 */
+	public boolean subscribe(Filter filter, SseEmitter emitter) {
+		for (int taken = slots.get();; taken = slots.get()) {
+			if (taken >= maxSubscribers) {
+				return false;
+			}
+			if (slots.compareAndSet(taken, taken + 1)) {
+				break;
+			}
+		}
+		Subscriber subscriber = new Subscriber(filter, emitter);
+		subscribers.add(subscriber);
+		emitter.onCompletion(subscriber::remove);
+		emitter.onTimeout(subscriber::remove);
+		return true;
+	}
+
+	/*
+	 * queues the new prices of the gas station (already committed) for the
+	 * subscribers interested in it, never blocks
+	 */
+	public void publish(GasStation gasStation) {
+		PriceUpdateDto priceUpdate = null;
+		for (Subscriber subscriber : subscribers) {
+			if (subscriber.filter.matches(gasStation)) {
+				if (priceUpdate == null) {
+					priceUpdate = new PriceUpdateDto(gasStation);
+					priceUpdate.setChangeSeq(gasStationChangeLog == null ? null : gasStationChangeLog.highWaterMark());
+					published.incrementAndGet();
+				}
+				subscriber.offer(priceUpdate);
+			}
+		}
+	}
+
+	/*
+	 * a comment sent now and then keeps the idle streams open through the proxies
+	 * and finds the clients gone away
+	 */
+	@Scheduled(fixedDelayString = "${ezgas.price-updates.heartbeat-ms:15000}")
+	public void heartbeat() {
+		for (Subscriber subscriber : subscribers) {
+			subscriber.offer(HEARTBEAT);
+		}
+	}
+
+	public int getSubscribers() {
+		return slots.get();
+	}
+
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	@PreDestroy
+	public void close() {
+		for (Subscriber subscriber : subscribers) {
+			subscriber.remove();
+			subscriber.emitter.complete();
+		}
+		if (executor instanceof ExecutorService) {
+			((ExecutorService) executor).shutdownNow();
+		}
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		List<Metric<?>> metrics = new ArrayList<>();
+		metrics.add(new Metric<>(METRIC_PREFIX + "subscribers", slots.get()));
+		metrics.add(new Metric<>(METRIC_PREFIX + "published", published.get()));
+		metrics.add(new Metric<>(METRIC_PREFIX + "dropped", dropped.get()));
+		return metrics;
+	}
+
+	/**
+	 * What a client wants to receive: the gas stations inside the box (a missing
+	 * bound means no limit on that side) providing all the fuels of the FuelType
+	 * mask (0 for any).
+	 */
+	public static class Filter {
+		private final double minLat;
+		private final double maxLat;
+		private final double minLon;
+		private final double maxLon;
+		private final int fuels;
+
+		public Filter(Double minLat, Double maxLat, Double minLon, Double maxLon, int fuels) {
+			this.minLat = minLat == null ? Double.NEGATIVE_INFINITY : minLat;
+			this.maxLat = maxLat == null ? Double.POSITIVE_INFINITY : maxLat;
+			this.minLon = minLon == null ? Double.NEGATIVE_INFINITY : minLon;
+			this.maxLon = maxLon == null ? Double.POSITIVE_INFINITY : maxLon;
+			this.fuels = fuels;
+		}
+
+		public boolean matches(GasStation gasStation) {
+			return gasStation.getLat() >= minLat && gasStation.getLat() <= maxLat && gasStation.getLon() >= minLon
+					&& gasStation.getLon() <= maxLon && (FuelType.maskOf(gasStation) & fuels) == fuels;
+		}
+	}
+
+	private class Subscriber implements Runnable {
+		private final Filter filter;
+		private final SseEmitter emitter;
+		private final Queue<Object> pending = new ConcurrentLinkedQueue<>();
+		private final AtomicInteger size = new AtomicInteger();
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+		private final AtomicBoolean removed = new AtomicBoolean();
+
+		private Subscriber(Filter filter, SseEmitter emitter) {
+			this.filter = filter;
+			this.emitter = emitter;
+		}
+
+		/*
+		 * releases the slot only once, whichever of completion, timeout and send
+		 * failure comes first
+		 */
+		private void remove() {
+			if (removed.compareAndSet(false, true)) {
+				subscribers.remove(this);
+				slots.decrementAndGet();
+			}
+		}
+
+		private void offer(Object event) {
+			if (size.incrementAndGet() > queueSize) {
+				size.decrementAndGet();
+				if (event != HEARTBEAT) {
+					dropped.incrementAndGet();
+				}
+				return;
+			}
+			pending.add(event);
+			this.schedule();
+		}
+
+		private void schedule() {
+			if (scheduled.compareAndSet(false, true)) {
+				try {
+					executor.execute(this);
+				} catch (RejectedExecutionException e) {
+					scheduled.set(false);
+				}
+			}
+		}
+
+		/*
+		 * sends the queued events, reschedules itself if some arrived after the
+		 * queue looked empty
+		 */
+		@Override
+		public void run() {
+			try {
+				for (Object event = pending.poll(); event != null; event = pending.poll()) {
+					size.decrementAndGet();
+					if (event == HEARTBEAT) {
+						emitter.send(SseEmitter.event().comment("heartbeat"));
+					} else {
+						PriceUpdateDto priceUpdate = (PriceUpdateDto) event;
+						SseEmitter.SseEventBuilder sseEvent = SseEmitter.event().name("price").data(priceUpdate);
+						if (priceUpdate.getChangeSeq() != null) {
+							sseEvent.id(priceUpdate.getChangeSeq().toString());
+						}
+						emitter.send(sseEvent);
+					}
+				}
+			} catch (IOException | IllegalStateException e) {
+				// the client went away or the stream is already completed
+				this.remove();
+				pending.clear();
+				emitter.completeWithError(e);
+				return;
+			} finally {
+				scheduled.set(false);
+			}
+			if (!pending.isEmpty()) {
+				this.schedule();
+			}
+		}
+	}
+}
@@ -8,6 +8,8 @@ public interface Constants {
 	static final String INCREASE_REPUTATION = "/increaseUserReputation/{userId}";
 	static final String DECREASE_REPUTATION = "/decreaseUserReputation/{userId}";
 	static final String LOGIN = "/login";
+	static final String LOGOUT = "/logout";
+	static final String GET_SESSION = "/session";
 	static final String GET_GASSTATION_BY_ID = "/getGasStation/{gasStationId}";
 	static final String GET_ALL_GASSTATIONS = "/getAllGasStations";
 	static final String SAVE_GASSTATION = "/saveGasStation";
@@ -16,12 +18,21 @@ public interface Constants {
 	static final String GET_GASSTATIONS_BY_GASOLINETYPE = "/searchGasStationByGasolineType/{gasolinetype}";
 	//static final String GET_GASSTATIONS_BY_PROXIMITY = "/searchGasStationByProximity/{myLat}/{myLon}";
 	static final String GET_GASSTATIONS_BY_PROXIMITY = "/searchGasStationByProximity/{myLat}/{myLon}/{myRadius}";
+	static final String GET_GASSTATIONS_BY_DISTANCE = "/searchGasStationByDistance/{myLat}/{myLon}/{myRadius}";
+	static final String GET_NEAREST_GASSTATIONS = "/searchNearestGasStations/{myLat}/{myLon}/{k}";
 	//static final String SET_GASSTATION_REPORT = "/setGasStationReport/{gasStationId}/{dieselPrice}/{superPrice}/{superPlusPrice}/{gasPrice}/{methanePrice}/{userId}";
 	//static final String SET_GASSTATION_REPORT = "/setGasStationReport/{gasStationId}/{dieselPrice}/{superPrice}/{superPlusPrice}/{gasPrice}/{methanePrice}/{premiumDieselPrice}/{userId}";
 	static final String SET_GASSTATION_REPORT = "/setGasStationReport";
+	static final String SET_GASSTATION_REPORTS = "/setGasStationReports";
 
 	//static final String GET_GASSTATIONS_WITH_COORDINATES = "/getGasStationsWithCoordinates/{myLat}/{myLon}/{gasolineType}/{carSharing}";
 	static final String GET_GASSTATIONS_WITH_COORDINATES = "/getGasStationsWithCoordinates/{myLat}/{myLon}/{myRadius}/{gasolineType}/{carSharing}";
 	static final String GET_GASSTATIONS_WITHOUT_COORDINATES = "/getGasStationsWithoutCoordinates/{gasolineType}/{carSharing}";
+	static final String GET_GASSTATION_CHANGES_SINCE = "/changesSince/{seq}";
+	static final String GET_PRICE_UPDATES = "/priceUpdates";
+	static final String GET_PRICE_HISTORY = "/getPriceHistory/{gasStationId}";
+
+	static final String REPORT_QUEUE_DEPTH_HEADER = "X-Report-Queue-Depth";
+	static final String SESSION_TOKEN_HEADER = "X-Auth-Token";
 
 }
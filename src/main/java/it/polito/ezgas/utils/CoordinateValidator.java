@@ -0,0 +1,23 @@
+package it.polito.ezgas.utils;
+
+/**
+ * Range checks of the NFR6 coordinate format: latitudes in [-90, 90] and
+ * longitudes in [-180, 180], bounds included. NaN and infinities are never
+ * valid, since every comparison with NaN is false.
+ */
+public final class CoordinateValidator {
+
+	public static final double MAX_LAT = 90;
+	public static final double MAX_LON = 180;
+
+	private CoordinateValidator() {
+	}
+
+	public static boolean isValidLatitude(double lat) {
+		return lat >= -MAX_LAT && lat <= MAX_LAT;
+	}
+
+	public static boolean isValidLongitude(double lon) {
+		return lon >= -MAX_LON && lon <= MAX_LON;
+	}
+}
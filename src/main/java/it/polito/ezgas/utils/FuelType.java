@@ -0,0 +1,91 @@
+package it.polito.ezgas.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import exception.InvalidGasTypeException;
+import it.polito.ezgas.entity.GasStation;
+
+/**
+ * The fuel types a gas station can provide, each one with its own bit so that a
+ * set of fuels can be stored and compared as an int mask.
+ */
+public enum FuelType {
+	DIESEL("diesel", 1),
+	SUPER("super", 1 << 1),
+	SUPER_PLUS("superplus", 1 << 2),
+	GAS("gas", 1 << 3),
+	METHANE("methane", 1 << 4),
+	PREMIUM_DIESEL("premiumdiesel", 1 << 5);
+
+	private final String name;
+	private final int bit;
+
+	FuelType(String name, int bit) {
+		this.name = name;
+		this.bit = bit;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getBit() {
+		return bit;
+	}
+
+	/*
+	 * converts the gasolinetype received from the frontend (case and spaces are
+	 * ignored), throws an InvalidGasTypeException if it doesn't match any fuel
+	 */
+	public static FuelType parse(String gasolinetype) throws InvalidGasTypeException {
+		String name = gasolinetype == null ? "" : gasolinetype.toLowerCase().replaceAll("\\s+", "");
+		for (FuelType fuelType : values()) {
+			if (fuelType.name.equals(name)) {
+				return fuelType;
+			}
+		}
+		throw new InvalidGasTypeException("invalid fuel type " + name);
+	}
+
+	/*
+	 * mask of a list of fuels separated by commas (e.g. "diesel,methane"), throws
+	 * an InvalidGasTypeException if any of them doesn't match a fuel
+	 */
+	public static int parseMask(String gasolinetypes) throws InvalidGasTypeException {
+		int mask = 0;
+		for (String gasolinetype : (gasolinetypes == null ? "" : gasolinetypes).split(",")) {
+			mask |= parse(gasolinetype).bit;
+		}
+		return mask;
+	}
+
+	/*
+	 * all the masks containing every fuel of the given mask, i.e. the values v for
+	 * which (v & mask) == mask, so that a stored mask can be matched with an IN on
+	 * an indexed column
+	 */
+	public static List<Integer> supersetsOf(int mask) {
+		int all = (1 << values().length) - 1;
+		List<Integer> masks = new ArrayList<>();
+		for (int value = mask; value <= all; value = (value + 1) | mask) {
+			masks.add(value);
+		}
+		return masks;
+	}
+
+	/*
+	 * mask of the fuels provided by the gas station
+	 */
+	public static int maskOf(GasStation gasStation) {
+		return maskOf(gasStation.getHasDiesel(), gasStation.getHasSuper(), gasStation.getHasSuperPlus(),
+				gasStation.getHasGas(), gasStation.getHasMethane(), gasStation.getHasPremiumDiesel());
+	}
+
+	public static int maskOf(boolean hasDiesel, boolean hasSuper, boolean hasSuperPlus, boolean hasGas,
+			boolean hasMethane, boolean hasPremiumDiesel) {
+		return (hasDiesel ? DIESEL.bit : 0) | (hasSuper ? SUPER.bit : 0) | (hasSuperPlus ? SUPER_PLUS.bit : 0)
+				| (hasGas ? GAS.bit : 0) | (hasMethane ? METHANE.bit : 0)
+				| (hasPremiumDiesel ? PREMIUM_DIESEL.bit : 0);
+	}
+}
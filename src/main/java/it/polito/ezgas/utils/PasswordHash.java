@@ -0,0 +1,87 @@
+package it.polito.ezgas.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * Salted slow hash of the passwords (PBKDF2 with HMAC-SHA256), stored as
+ * pbkdf2$iterations$salt$hash so that the number of iterations can grow
+ * without invalidating the stored ones. It is computed only when a password
+ * is set and at login.
+ */
+public final class PasswordHash {
+
+	public static final int ITERATIONS = 27500;
+	/*
+	 * a stored hash asking for more is refused rather than computed
+	 */
+	public static final int MAX_ITERATIONS = ITERATIONS * 4;
+
+	private static final String PREFIX = "pbkdf2$";
+	private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+	private static final int SALT_BYTES = 16;
+	private static final int HASH_BITS = 256;
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+	private PasswordHash() {
+	}
+
+	public static String hash(String password) {
+		byte[] salt = new byte[SALT_BYTES];
+		RANDOM.nextBytes(salt);
+		Base64.Encoder encoder = Base64.getEncoder();
+		return PREFIX + ITERATIONS + "$" + encoder.encodeToString(salt) + "$"
+				+ encoder.encodeToString(pbkdf2(password, salt, ITERATIONS));
+	}
+
+	/*
+	 * the passwords stored before the hashing (plain text) are compared as they
+	 * are, the caller should replace them with their hash
+	 */
+	public static boolean matches(String password, String stored) {
+		if (password == null || stored == null) {
+			return false;
+		}
+		if (!isHash(stored)) {
+			return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8),
+					stored.getBytes(StandardCharsets.UTF_8));
+		}
+		String[] parts = stored.split("\\$");
+		if (parts.length != 4) {
+			return false;
+		}
+		try {
+			int iterations = Integer.parseInt(parts[1]);
+			if (iterations < 1 || iterations > MAX_ITERATIONS) {
+				return false;
+			}
+			Base64.Decoder decoder = Base64.getDecoder();
+			byte[] expected = decoder.decode(parts[3]);
+			return MessageDigest.isEqual(expected, pbkdf2(password, decoder.decode(parts[2]), iterations));
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	public static boolean isHash(String stored) {
+		return stored != null && stored.startsWith(PREFIX);
+	}
+
+	private static byte[] pbkdf2(String password, byte[] salt, int iterations) {
+		PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+		try {
+			return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+		} catch (GeneralSecurityException e) {
+			// PBKDF2WithHmacSHA256 is available in every Java 8 runtime
+			throw new IllegalStateException(e);
+		} finally {
+			spec.clearPassword();
+		}
+	}
+}
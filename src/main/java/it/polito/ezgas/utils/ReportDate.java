@@ -0,0 +1,84 @@
+package it.polito.ezgas.utils;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.WeekFields;
+import java.util.Locale;
+
+/**
+ * Days of the price reports. They are stored as epoch days (days since
+ * 1970-01-01), so the days passed since a report are a subtraction; the
+ * MM-dd-yyyy text is used only to exchange them with the frontend.
+ *
+ * DateTimeFormatter is immutable, so the same instances are shared by all the
+ * threads.
+ */
+public final class ReportDate {
+
+	public static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("MM-dd-yyyy");
+	private static final DateTimeFormatter[] PARSERS = { FORMATTER, DateTimeFormatter.ISO_LOCAL_DATE };
+
+	private ReportDate() {
+	}
+
+	public static long today() {
+		return LocalDate.now().toEpochDay();
+	}
+
+	public static String format(long epochDay) {
+		return LocalDate.ofEpochDay(epochDay).format(FORMATTER);
+	}
+
+	/*
+	 * epoch day of a MM-dd-yyyy (or yyyy-MM-dd) timestamp, null if it can't be
+	 * parsed
+	 */
+	public static Long toEpochDay(String timestamp) {
+		if (timestamp == null) {
+			return null;
+		}
+		for (DateTimeFormatter parser : PARSERS) {
+			try {
+				return LocalDate.parse(timestamp.trim(), parser).toEpochDay();
+			} catch (DateTimeParseException e) {
+				// try the next format
+			}
+		}
+		return null;
+	}
+
+	/*
+	 * epoch day of a timestamp written with the old MM-dd-YYYY pattern, whose year
+	 * is the week-based one of the server locale (as SimpleDateFormat used it)
+	 */
+	public static Long fromLegacyTimestamp(String timestamp, long today) {
+		return fromLegacyTimestamp(timestamp, today, WeekFields.of(Locale.getDefault(Locale.Category.FORMAT)));
+	}
+
+	/*
+	 * the week-based year is the calendar one, the next one (last days of
+	 * December) or the previous one (first days of January): the day is the one
+	 * of the three calendar years whose week-based year is the written one. When
+	 * two match, the latest one not after today
+	 */
+	public static Long fromLegacyTimestamp(String timestamp, long today, WeekFields weekFields) {
+		Long epochDay = toEpochDay(timestamp);
+		if (epochDay == null) {
+			return null;
+		}
+		LocalDate date = LocalDate.ofEpochDay(epochDay);
+		Long found = null;
+		for (int years = 1; years >= -1; years--) {
+			LocalDate candidate = date.plusYears(years);
+			if (candidate.getDayOfMonth() == date.getDayOfMonth()
+					&& candidate.get(weekFields.weekBasedYear()) == date.getYear()) {
+				found = candidate.toEpochDay();
+				if (found <= today) {
+					return found;
+				}
+			}
+		}
+		return found == null ? epochDay : found;
+	}
+}
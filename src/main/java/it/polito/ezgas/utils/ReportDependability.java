@@ -0,0 +1,27 @@
+package it.polito.ezgas.utils;
+
+/**
+ * Dependability of a price report: it depends only on the reputation of the
+ * reporting user and on the days passed since the report, so it can be
+ * computed when needed instead of being stored.
+ */
+public final class ReportDependability {
+
+	public static final int OBSOLESCENCE_50 = 50;
+	public static final int OBSOLESCENCE_DAYS = 7;
+
+	private ReportDependability() {
+	}
+
+	/*
+	 * half of the value comes from the reputation ([-5, 5] -> [0, 50]), the other
+	 * half decreases linearly to 0 in OBSOLESCENCE_DAYS days
+	 */
+	public static double compute(int reputation, long passedDays) {
+		if (passedDays > OBSOLESCENCE_DAYS) {
+			return Math.round(OBSOLESCENCE_50 * (reputation + 5) / 10);
+		}
+		return Math.round(OBSOLESCENCE_50 * (reputation + 5) / 10
+				+ OBSOLESCENCE_50 * (1 - ((double) passedDays / OBSOLESCENCE_DAYS)));
+	}
+}
@@ -0,0 +1,12 @@
+package it.polito.ezgas.utils;
+
+/**
+ * What happened to a price report applied in a batch: ACCEPTED when the prices
+ * were updated, KEPT when the last report of the gas station comes from a user
+ * with a higher reputation and is still valid (CR4), CONFLICT when the gas
+ * station kept being changed by concurrent writes and the report was not
+ * applied (it can be sent again), otherwise the reason it was refused.
+ */
+public enum ReportOutcome {
+	ACCEPTED, KEPT, INVALID_GAS_STATION, INVALID_USER, INVALID_PRICE, CONFLICT
+}
@@ -1,4 +1,16 @@
 function logout() {
+	// ends the session on the server too, the token stops working at once
+	var token = sessionStorage.getItem("token");
+	if (token) {
+		var request = new XMLHttpRequest();
+		request.open("POST", "/user/logout", false);
+		request.setRequestHeader("X-Auth-Token", token);
+		try {
+			request.send();
+		} catch (e) {
+			// the server is not reachable, the token will expire
+		}
+	}
 	sessionStorage.removeItem("userid");
 	sessionStorage.removeItem("username");
 	sessionStorage.removeItem("token");
@@ -0,0 +1,103 @@
+package it.polito.ezgas;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import it.polito.ezgas.utils.CoordinateValidator;
+
+@RunWith(SpringRunner.class)
+public class CoordinateValidatorTests {
+
+	// the regular expressions checkCoordinates used before the numeric checks
+	private static final String LAT_REGEX = "^[-+]?([1-8]?\\d(\\.\\d+)?|90(\\.0+)?)$";
+	private static final String LON_REGEX = "^[-+]?(180(\\.0+)?|((1[0-7]\\d)|([1-9]?\\d))(\\.\\d+)?)$";
+
+	private static final double[] SPECIAL = { 0.0, -0.0, 1.0, -1.0, 89.999999, 90.0, -90.0, 90.0000001, -90.0000001,
+			91.0, 179.999999, 180.0, -180.0, 180.0000001, -180.0000001, 181.0, 1e7, -1e7, Double.MAX_VALUE,
+			-Double.MAX_VALUE, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY };
+
+	@Test
+	public void TC1_isValidLatitude() {
+		// bounds are included
+		assertTrue(CoordinateValidator.isValidLatitude(90.0));
+		assertTrue(CoordinateValidator.isValidLatitude(-90.0));
+		assertTrue(CoordinateValidator.isValidLatitude(0.0));
+		assertFalse(CoordinateValidator.isValidLatitude(Math.nextUp(90.0)));
+		assertFalse(CoordinateValidator.isValidLatitude(Math.nextDown(-90.0)));
+	}
+
+	@Test
+	public void TC2_isValidLatitude() {
+		// NaN and infinities are not valid
+		assertFalse(CoordinateValidator.isValidLatitude(Double.NaN));
+		assertFalse(CoordinateValidator.isValidLatitude(Double.POSITIVE_INFINITY));
+		assertFalse(CoordinateValidator.isValidLatitude(Double.NEGATIVE_INFINITY));
+	}
+
+	@Test
+	public void TC3_isValidLatitude() {
+		// same result of the regex on special and random values
+		for (double lat : SPECIAL) {
+			assertEquals(String.valueOf(lat), String.valueOf(lat).matches(LAT_REGEX),
+					CoordinateValidator.isValidLatitude(lat));
+		}
+		Random random = new Random(42);
+		for (int i = 0; i < 100000; i++) {
+			double lat = (random.nextDouble() - 0.5) * 200;
+			if (Math.abs(lat) >= 1e-3) {
+				assertEquals(String.valueOf(lat), String.valueOf(lat).matches(LAT_REGEX),
+						CoordinateValidator.isValidLatitude(lat));
+			}
+		}
+	}
+
+	@Test
+	public void TC4_isValidLatitude() {
+		// values under 1e-3 are printed as 1.0E-4 and the regex rejected them
+		assertFalse(String.valueOf(0.0001).matches(LAT_REGEX));
+		assertTrue(CoordinateValidator.isValidLatitude(0.0001));
+		assertTrue(CoordinateValidator.isValidLatitude(-Double.MIN_VALUE));
+	}
+
+	@Test
+	public void TC1_isValidLongitude() {
+		// bounds are included
+		assertTrue(CoordinateValidator.isValidLongitude(180.0));
+		assertTrue(CoordinateValidator.isValidLongitude(-180.0));
+		assertTrue(CoordinateValidator.isValidLongitude(-0.0));
+		assertFalse(CoordinateValidator.isValidLongitude(Math.nextUp(180.0)));
+		assertFalse(CoordinateValidator.isValidLongitude(Math.nextDown(-180.0)));
+	}
+
+	@Test
+	public void TC2_isValidLongitude() {
+		// NaN and infinities are not valid
+		assertFalse(CoordinateValidator.isValidLongitude(Double.NaN));
+		assertFalse(CoordinateValidator.isValidLongitude(Double.POSITIVE_INFINITY));
+		assertFalse(CoordinateValidator.isValidLongitude(Double.NEGATIVE_INFINITY));
+	}
+
+	@Test
+	public void TC3_isValidLongitude() {
+		// same result of the regex on special and random values
+		for (double lon : SPECIAL) {
+			assertEquals(String.valueOf(lon), String.valueOf(lon).matches(LON_REGEX),
+					CoordinateValidator.isValidLongitude(lon));
+		}
+		Random random = new Random(42);
+		for (int i = 0; i < 100000; i++) {
+			double lon = (random.nextDouble() - 0.5) * 400;
+			if (Math.abs(lon) >= 1e-3) {
+				assertEquals(String.valueOf(lon), String.valueOf(lon).matches(LON_REGEX),
+						CoordinateValidator.isValidLongitude(lon));
+			}
+		}
+	}
+}
@@ -0,0 +1,171 @@
+package it.polito.ezgas;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertNotSame;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import it.polito.ezgas.cache.GasStationDtoCache;
+import it.polito.ezgas.dto.GasStationDto;
+import it.polito.ezgas.dto.UserDto;
+
+@RunWith(SpringRunner.class)
+public class GasStationDtoCacheTests {
+
+	private long now;
+	private GasStationDtoCache cache;
+
+	@Before
+	public void setUp() {
+		now = 1000;
+		cache = new GasStationDtoCache(3, 100, () -> now);
+	}
+
+	private GasStationDto gasStationDto(Integer gasStationId, Integer reportUser) {
+		return new GasStationDto(gasStationId, "ENI", "corso Duca", true, true, true, true, true, true, "Enjoy",
+				40.0005, 25.0010, 0.99, 0.99, 0.99, 0.99, 0.99, 1.32, reportUser, "05-03-2020", 0.88);
+	}
+
+	@Test
+	public void TC1_get() {
+		// a stored dto is a hit until it expires
+		GasStationDto dto = gasStationDto(1, null);
+		assertNull(cache.get(1));
+		cache.put(dto, cache.generation());
+		now += 99;
+		assertEquals(0.99, cache.get(1).getDieselPrice(), 0);
+		now += 1;
+		assertNull(cache.get(1));
+		assertEquals(1, cache.getHits());
+		assertEquals(2, cache.getMisses());
+		assertEquals(1, cache.getEvictions());
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void TC2_get() {
+		// above the max size the oldest stored dto (the first to expire) is evicted
+		for (int i = 1; i <= 3; i++) {
+			cache.put(gasStationDto(i, null), cache.generation());
+		}
+		assertNotNull(cache.get(1));
+		cache.put(gasStationDto(4, null), cache.generation());
+		assertEquals(3, cache.size());
+		assertEquals(1, cache.getEvictions());
+		assertNull(cache.get(1));
+		assertNotNull(cache.get(2));
+		assertNotNull(cache.get(4));
+	}
+
+	@Test
+	public void TC3_get() {
+		// the callers get copies, changing one doesn't change the cached dto
+		GasStationDto dto = gasStationDto(1, 7);
+		dto.setUserDto(new UserDto(7, "user", null, "user@ezgas.com", 3));
+		cache.put(dto, cache.generation());
+		dto.setDieselPrice(2.0);
+		GasStationDto cached = cache.get(1);
+		assertNotSame(cached, cache.get(1));
+		cached.setDieselPrice(3.0);
+		cached.getUserDto().setReputation(-5);
+		assertEquals(0.99, cache.get(1).getDieselPrice(), 0);
+		assertEquals(3, (int) cache.get(1).getUserDto().getReputation());
+		cache.putQuery("fuels:1", Arrays.asList(gasStationDto(2, null)), cache.generation());
+		cache.getQuery("fuels:1").get(0).setDieselPrice(3.0);
+		assertEquals(0.99, cache.getQuery("fuels:1").get(0).getDieselPrice(), 0);
+	}
+
+	@Test
+	public void TC1_put() {
+		// a dto loaded before an invalidation is not stored
+		long generation = cache.generation();
+		cache.invalidate(1);
+		cache.put(gasStationDto(1, null), generation);
+		assertNull(cache.get(1));
+		cache.put(gasStationDto(1, null), cache.generation());
+		assertNotNull(cache.get(1));
+	}
+
+	@Test
+	public void TC2_put() {
+		// the invalidation of other gas stations doesn't stop the store, the one of the reporter does
+		long generation = cache.generation();
+		cache.invalidate(2);
+		cache.invalidateReportUser(8);
+		cache.put(gasStationDto(1, 7), generation);
+		assertNotNull(cache.get(1));
+		cache.invalidateReportUser(7);
+		assertNull(cache.get(1));
+		cache.put(gasStationDto(1, 7), generation);
+		assertNull(cache.get(1));
+		// a query is stored only if all its gas stations are
+		cache.putQuery("fuels:1", Arrays.asList(gasStationDto(3, null), gasStationDto(1, 7)), generation);
+		assertNull(cache.getQuery("fuels:1"));
+		cache.invalidateQueries();
+		cache.putQuery("fuels:1", Arrays.asList(gasStationDto(3, null)), generation);
+		assertNull(cache.getQuery("fuels:1"));
+	}
+
+	@Test
+	public void TC1_getQuery() {
+		// a query is a hit while all its gas stations are cached
+		cache.putQuery("fuels:1", Arrays.asList(gasStationDto(1, null), gasStationDto(2, null)), cache.generation());
+		assertEquals(2, cache.getQuery("fuels:1").size());
+		cache.invalidate(2);
+		assertNull(cache.getQuery("fuels:1"));
+		assertNotNull(cache.get(1));
+		assertEquals(2, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	public void TC2_getQuery() {
+		// invalidateQueries drops the queries but not the dtos
+		cache.putQuery("fuels:1", Arrays.asList(gasStationDto(1, null)), cache.generation());
+		cache.invalidateQueries();
+		assertNull(cache.getQuery("fuels:1"));
+		assertNotNull(cache.get(1));
+		now += 100;
+		cache.putQuery("fuels:1", Arrays.asList(gasStationDto(1, null)), cache.generation());
+		now += 100;
+		assertNull(cache.getQuery("fuels:1"));
+	}
+
+	@Test
+	public void TC1_invalidateReportUser() {
+		// only the gas stations reported by the user are invalidated
+		cache.put(gasStationDto(1, 7), cache.generation());
+		cache.put(gasStationDto(2, 8), cache.generation());
+		cache.put(gasStationDto(3, null), cache.generation());
+		cache.invalidateReportUser(7);
+		assertNull(cache.get(1));
+		assertNotNull(cache.get(2));
+		assertNotNull(cache.get(3));
+	}
+
+	@Test
+	public void TC1_metrics() {
+		// hits, misses, evictions and size are published
+		cache.put(gasStationDto(1, null), cache.generation());
+		cache.get(1);
+		cache.get(2);
+		Map<String, Number> values = new HashMap<>();
+		for (Metric<?> metric : cache.metrics()) {
+			values.put(metric.getName(), metric.getValue());
+		}
+		assertEquals(1L, values.get("ezgas.cache.gasstation.hits"));
+		assertEquals(1L, values.get("ezgas.cache.gasstation.misses"));
+		assertEquals(0L, values.get("ezgas.cache.gasstation.evictions"));
+		assertEquals(1, values.get("ezgas.cache.gasstation.size"));
+	}
+}
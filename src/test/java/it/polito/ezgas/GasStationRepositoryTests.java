@@ -9,10 +9,12 @@ import org.springframework.test.context.junit4.SpringRunner;
 import static org.junit.Assert.*;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 
 import it.polito.ezgas.repository.GasStationRepository;
 import it.polito.ezgas.entity.GasStation;
+import it.polito.ezgas.utils.FuelType;
 
 @RunWith(SpringRunner.class)
 @DataJpaTest
@@ -74,7 +76,7 @@ public class GasStationRepositoryTests {
 	}
 
 	@Test
-	public void TestfindByhasDiesel() {
+	public void TestfindByFuelMaskInDiesel() {
 
 		GasStation gs1 = new GasStation("GSGoodOne1", "AddressTest1", true, false, false, false, false,false,
 				"CarSharingTest1", 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0,0.0, 0, "TimeStampTest1", 0.0);
@@ -92,11 +94,12 @@ public class GasStationRepositoryTests {
 		gslist.add(gs1);
 		gslist.add(gs3);
 
-		assertEquals(gsrep.findByhasDiesel(true), gslist);
+		// the fuel masks come in index order, not in insertion order
+		assertEquals(new HashSet<>(gsrep.findByFuelMaskIn(FuelType.supersetsOf(FuelType.DIESEL.getBit()))), new HashSet<>(gslist));
 	}
 
 	@Test
-	public void TestfindByhasSuper() {
+	public void TestfindByFuelMaskInSuper() {
 
 		GasStation gs1 = new GasStation("GSGoodOne1", "AddressTest1", false, true, false, false, false,false,
 				"CarSharingTest1", 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0,0.0, 0, "TimeStampTest1", 0.0);
@@ -114,11 +117,11 @@ public class GasStationRepositoryTests {
 		gslist.add(gs1);
 		gslist.add(gs3);
 
-		assertEquals(gsrep.findByhasSuper(true), gslist);
+		assertEquals(new HashSet<>(gsrep.findByFuelMaskIn(FuelType.supersetsOf(FuelType.SUPER.getBit()))), new HashSet<>(gslist));
 	}
 
 	@Test
-	public void TestfindByhasGas() {
+	public void TestfindByFuelMaskInGas() {
 
 		GasStation gs1 = new GasStation("GSGoodOne1", "AddressTest1", false, false, false, true, false,false,
 				"CarSharingTest1", 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0,0.0, 0, "TimeStampTest1", 0.0);
@@ -136,11 +139,11 @@ public class GasStationRepositoryTests {
 		gslist.add(gs1);
 		gslist.add(gs3);
 
-		assertEquals(gsrep.findByhasGas(true), gslist);
+		assertEquals(new HashSet<>(gsrep.findByFuelMaskIn(FuelType.supersetsOf(FuelType.GAS.getBit()))), new HashSet<>(gslist));
 	}
 
 	@Test
-	public void TestfindByhasSuperPlus() {
+	public void TestfindByFuelMaskInSuperPlus() {
 
 		GasStation gs1 = new GasStation("GSGoodOne1", "AddressTest1", false, false, true, false, false,false,
 				"CarSharingTest1", 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0,0.0, 0, "TimeStampTest1", 0.0);
@@ -158,11 +161,11 @@ public class GasStationRepositoryTests {
 		gslist.add(gs1);
 		gslist.add(gs3);
 
-		assertEquals(gsrep.findByhasSuperPlus(true), gslist);
+		assertEquals(new HashSet<>(gsrep.findByFuelMaskIn(FuelType.supersetsOf(FuelType.SUPER_PLUS.getBit()))), new HashSet<>(gslist));
 	}
 
 	@Test
-	public void TestfindByhasMethane() {
+	public void TestfindByFuelMaskInMethane() {
 
 		GasStation gs1 = new GasStation("GSGoodOne1", "AddressTest1", false, false, false, false, true,false,
 				"CarSharingTest1", 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0,0.0, 0, "TimeStampTest1", 0.0);
@@ -180,11 +183,11 @@ public class GasStationRepositoryTests {
 		gslist.add(gs1);
 		gslist.add(gs3);
 
-		assertEquals(gsrep.findByhasMethane(true), gslist);
+		assertEquals(new HashSet<>(gsrep.findByFuelMaskIn(FuelType.supersetsOf(FuelType.METHANE.getBit()))), new HashSet<>(gslist));
 	}
 	
 	@Test
-	public void TestfindByhasPremiumDiesel() {
+	public void TestfindByFuelMaskInPremiumDiesel() {
 
 		GasStation gs1 = new GasStation("GSGoodOne1", "AddressTest1", false, false, false, false, false,true,
 				"CarSharingTest1", 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0,0.0, 0, "TimeStampTest1", 0.0);
@@ -202,11 +205,11 @@ public class GasStationRepositoryTests {
 		gslist.add(gs1);
 		gslist.add(gs3);
 
-		assertEquals(gsrep.findByhasPremiumDiesel(true), gslist);
+		assertEquals(new HashSet<>(gsrep.findByFuelMaskIn(FuelType.supersetsOf(FuelType.PREMIUM_DIESEL.getBit()))), new HashSet<>(gslist));
 	}
 	
 	@Test
-	public void TestfindByhasDieselAndCarSharing() {
+	public void TestfindByCarSharingAndFuelMaskInDiesel() {
 
 		GasStation gs1 = new GasStation("GSGoodOne1", "AddressTest1", true, false, false, false, false,false,
 				"CarSharingToBeFound", 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0,0.0, 0, "TimeStampTest1", 0.0);
@@ -230,11 +233,12 @@ public class GasStationRepositoryTests {
 		gslist.add(gs1);
 		gslist.add(gs3);
 
-		assertEquals(gsrep.findByhasDieselAndCarSharing(true, "CarSharingToBeFound"), gslist);
+		assertEquals(new HashSet<>(gsrep.findByCarSharingAndFuelMaskIn("CarSharingToBeFound",
+				FuelType.supersetsOf(FuelType.DIESEL.getBit()))), new HashSet<>(gslist));
 	}
 
 	@Test
-	public void TestfindByhasSuperAndCarSharing() {
+	public void TestfindByCarSharingAndFuelMaskInSuper() {
 
 		GasStation gs1 = new GasStation("GSGoodOne1", "AddressTest1", false, true, false, false, false,false,
 				"CarSharingToBeFound", 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0, "TimeStampTest1", 0.0);
@@ -258,11 +262,12 @@ public class GasStationRepositoryTests {
 		gslist.add(gs1);
 		gslist.add(gs3);
 
-		assertEquals(gsrep.findByhasSuperAndCarSharing(true, "CarSharingToBeFound"), gslist);
+		assertEquals(new HashSet<>(gsrep.findByCarSharingAndFuelMaskIn("CarSharingToBeFound",
+				FuelType.supersetsOf(FuelType.SUPER.getBit()))), new HashSet<>(gslist));
 	}
 
 	@Test
-	public void TestfindByhasGasAndCarSharing() {
+	public void TestfindByCarSharingAndFuelMaskInGas() {
 
 		GasStation gs1 = new GasStation("GSGoodOne1", "AddressTest1", false, false, false, true, false,false,
 				"CarSharingToBeFound", 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0, "TimeStampTest1", 0.0);
@@ -286,11 +291,12 @@ public class GasStationRepositoryTests {
 		gslist.add(gs1);
 		gslist.add(gs3);
 
-		assertEquals(gsrep.findByhasGasAndCarSharing(true, "CarSharingToBeFound"), gslist);
+		assertEquals(new HashSet<>(gsrep.findByCarSharingAndFuelMaskIn("CarSharingToBeFound",
+				FuelType.supersetsOf(FuelType.GAS.getBit()))), new HashSet<>(gslist));
 	}
 
 	@Test
-	public void TestfindByhasSuperPlusAndCarSharing() {
+	public void TestfindByCarSharingAndFuelMaskInSuperPlus() {
 
 		GasStation gs1 = new GasStation("GSGoodOne1", "AddressTest1", false, true, true, true, false,false,
 				"CarSharingToBeFound", 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0, "TimeStampTest1", 0.0);
@@ -313,11 +319,12 @@ public class GasStationRepositoryTests {
 		gslist.add(gs1);
 		gslist.add(gs3);
 
-		assertEquals(gsrep.findByhasSuperPlusAndCarSharing(true, "CarSharingToBeFound"), gslist);
+		assertEquals(new HashSet<>(gsrep.findByCarSharingAndFuelMaskIn("CarSharingToBeFound",
+				FuelType.supersetsOf(FuelType.SUPER_PLUS.getBit()))), new HashSet<>(gslist));
 	}
 	
 	@Test
-	public void TestfindByhasMethaneAndCarSharing() {
+	public void TestfindByCarSharingAndFuelMaskInMethane() {
 
 		GasStation gs1 = new GasStation("GSGoodOne1", "AddressTest1", false, true, false, false, true,false,
 				"CarSharingToBeFound", 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0, "TimeStampTest1", 0.0);
@@ -341,11 +348,12 @@ public class GasStationRepositoryTests {
 		gslist.add(gs1);
 		gslist.add(gs3);
 
-		assertEquals(gsrep.findByhasMethaneAndCarSharing(true, "CarSharingToBeFound"), gslist);
+		assertEquals(new HashSet<>(gsrep.findByCarSharingAndFuelMaskIn("CarSharingToBeFound",
+				FuelType.supersetsOf(FuelType.METHANE.getBit()))), new HashSet<>(gslist));
 	}
 	
 	@Test
-	public void TestfindByhasPremiumDieselAndCarSharing() {
+	public void TestfindByCarSharingAndFuelMaskInPremiumDiesel() {
 
 		GasStation gs1 = new GasStation("GSGoodOne1", "AddressTest1", false, true, false, false, true,true,
 				"CarSharingToBeFound", 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0, "TimeStampTest1", 0.0);
@@ -369,7 +377,8 @@ public class GasStationRepositoryTests {
 		gslist.add(gs1);
 		gslist.add(gs3);
 
-		assertEquals(gsrep.findByhasPremiumDieselAndCarSharing(true, "CarSharingToBeFound"), gslist);
+		assertEquals(new HashSet<>(gsrep.findByCarSharingAndFuelMaskIn("CarSharingToBeFound",
+				FuelType.supersetsOf(FuelType.PREMIUM_DIESEL.getBit()))), new HashSet<>(gslist));
 	}
 	
 	@Test
@@ -396,4 +405,28 @@ public class GasStationRepositoryTests {
 		assertEquals(gsrep.findByCarSharing("CarSharingToBeFound"), gslist);
 	}
 
+	@Test
+	public void TestfindByCarSharingAndFuelMaskIn() {
+
+		GasStation gs1 = new GasStation("GSGoodOne1", "AddressTest1", true, false, false, false, true, false,
+				"CarSharingToBeFound", 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0, "TimeStampTest1", 0.0);
+		GasStation gs2 = new GasStation("GSNameTest2", "AddressTest2", true, false, false, false, false, false,
+				"CarSharingToBeFound", 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0, "TimeStampTest2", 0.0);
+		GasStation gs3 = new GasStation("GSNameTest3", "AddressTest3", true, true, true, true, true, true,
+				"CarSharingTest3", 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0, "TimeStampTest3", 0.0);
+
+		entityManager.persist(gs1);
+		entityManager.persist(gs2);
+		entityManager.persist(gs3);
+		entityManager.flush();
+
+		List<GasStation> gslist = new ArrayList<>();
+		gslist.add(gs1);
+
+		int mask = FuelType.DIESEL.getBit() | FuelType.METHANE.getBit();
+		assertEquals(Integer.valueOf(mask), gs1.getFuelMask());
+		assertEquals(gsrep.findByCarSharingAndFuelMaskIn("CarSharingToBeFound", FuelType.supersetsOf(mask)), gslist);
+		assertEquals(gsrep.findByFuelMaskIn(FuelType.supersetsOf(mask)).size(), 2);
+	}
+
 }
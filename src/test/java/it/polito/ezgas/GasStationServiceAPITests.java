@@ -3,9 +3,12 @@ package it.polito.ezgas;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.test.context.junit4.SpringRunner;
 
@@ -16,24 +19,37 @@ import exception.InvalidGasTypeException;
 import exception.InvalidUserException;
 import exception.PriceException;
 
+import it.polito.ezgas.cache.GasStationDataVersion;
+import it.polito.ezgas.cache.GasStationDtoCache;
 import it.polito.ezgas.converter.GasStationConverter;
 import it.polito.ezgas.converter.UserConverter;
+import it.polito.ezgas.dto.GasStationChangesDto;
 import it.polito.ezgas.dto.GasStationDto;
 import it.polito.ezgas.dto.IdPw;
+import it.polito.ezgas.dto.PriceReportDto;
 import it.polito.ezgas.dto.UserDto;
 import it.polito.ezgas.entity.GasStation;
 import it.polito.ezgas.entity.User;
+import it.polito.ezgas.history.PriceReportRecorder;
+import it.polito.ezgas.index.GasStationIndex;
 import it.polito.ezgas.repository.GasStationRepository;
+import it.polito.ezgas.repository.GasStationChangeCounterRepository;
+import it.polito.ezgas.repository.GasStationTombstoneRepository;
+import it.polito.ezgas.repository.PriceReportRepository;
 import it.polito.ezgas.repository.UserRepository;
 import it.polito.ezgas.service.GasStationService;
 import it.polito.ezgas.service.impl.GasStationServiceimpl;
 import it.polito.ezgas.service.impl.UserServiceimpl;
+import it.polito.ezgas.sync.GasStationChangeLog;
+import it.polito.ezgas.utils.ReportDate;
+import it.polito.ezgas.utils.ReportOutcome;
 
 import static org.junit.Assert.*;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 
@@ -45,6 +61,14 @@ public class GasStationServiceAPITests {
 	private GasStationRepository gasStationRepository;
 	@Autowired
 	private UserRepository userRepository;
+	@Autowired
+	private GasStationTombstoneRepository gasStationTombstoneRepository;
+	@Autowired
+	private GasStationChangeCounterRepository gasStationChangeCounterRepository;
+	@Autowired
+	private PriceReportRepository priceReportRepository;
+	@Autowired
+	private TestEntityManager entityManager;
 
 	private GasStationServiceimpl gasStationService;
 	private GasStationConverter gasStationConverter;
@@ -117,6 +141,30 @@ public class GasStationServiceAPITests {
 		assertFalse(thrown);
 	}
 
+	@Test
+	public void TC4_getGasStationById()
+			throws PriceException, GPSDataException, InvalidGasStationException, InvalidUserException {
+		// with the cache the second lookup is a hit (a copy), a report invalidates it
+		GasStationDtoCache cache = new GasStationDtoCache(100, 60000, System::currentTimeMillis);
+		gasStationService.setGasStationDtoCache(cache);
+		gasStationService.setUpdateDependability(true);
+		User reporter = userRepository.save(new User("reporter", "password", "reporter@ezgas.com", 3));
+		GasStationDto res = gasStationService.saveGasStation(gasStationDto);
+		GasStationDto first = gasStationService.getGasStationById(res.getGasStationId());
+		GasStationDto second = gasStationService.getGasStationById(res.getGasStationId());
+		assertNotSame(first, second);
+		assertEquals(first.getDieselPrice(), second.getDieselPrice());
+		assertEquals(1, cache.getMisses());
+		assertEquals(1, cache.getHits());
+
+		gasStationService.setReport(res.getGasStationId(), 1.5, 1.5, 1.5, 1.5, 1.5, 1.5, reporter.getUserId());
+		GasStationDto updated = gasStationService.getGasStationById(res.getGasStationId());
+		assertNotSame(first, updated);
+		assertEquals(1.5, updated.getDieselPrice(), 0);
+		assertEquals(reporter.getUserId(), updated.getReportUser());
+		assertEquals(2, cache.getMisses());
+	}
+
 	@Test
 	public void TC1_saveGasStation() {
 		// try to save a gas station which has no fuels -> ERROR?
@@ -231,6 +279,52 @@ public class GasStationServiceAPITests {
 		assertFalse(gasStationService.getAllGasStations().isEmpty());
 	}
 
+	@Test
+	public void TC3_getAllGasStations() throws PriceException, GPSDataException {
+		// read-time dependability: computed in the dto, the stored value is not rewritten
+		gasStationService.setReadTimeDependability(true);
+		UserDto reporter = userService.saveUser(userDto);
+		gasStationDto.setUserDto(reporter);
+		gasStationDto.setReportUser(reporter.getUserId());
+		gasStationDto.setReportTimestamp(ReportDate.format(ReportDate.today() - 3));
+		Integer id = gasStationService.saveGasStation(gasStationDto).getGasStationId();
+		GasStationDto res = gasStationService.getAllGasStations().get(0);
+		// reputation 2, 3 days ago: 35 + 50 * (1 - 3/7)
+		assertEquals(64, res.getReportDependability(), 0);
+		assertEquals(0.88, gasStationRepository.findOne(id).getReportDependability(), 0);
+		assertFalse(gasStationService.isUpdateDependability());
+	}
+
+	@Test
+	public void TC4_getAllGasStations() throws PriceException, GPSDataException {
+		// stored dependability: the first read updates all the rows, walking them in chunks,
+		// each one with its own change number
+		GasStationChangeLog changeLog = new GasStationChangeLog(gasStationRepository, gasStationTombstoneRepository,
+				gasStationChangeCounterRepository);
+		changeLog.load();
+		gasStationService.setDependabilityChunkSize(2);
+		UserDto reporter = userConverter.toUserDto(userRepository.findByEmail("admin@ezgas.com"));
+		gasStationDto.setUserDto(reporter);
+		gasStationDto.setReportUser(reporter.getUserId());
+		gasStationDto.setReportTimestamp(ReportDate.format(ReportDate.today()));
+		List<Integer> ids = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			gasStationDto.setGasStationId(null);
+			ids.add(gasStationService.saveGasStation(gasStationDto).getGasStationId());
+		}
+		gasStationService.setGasStationChangeLog(changeLog);
+		long start = changeLog.highWaterMark();
+		gasStationService.getAllGasStations();
+		// three chunks, all of them committed
+		assertEquals(start + 3, changeLog.highWaterMark());
+		assertTrue(gasStationService.isUpdateDependability());
+		assertEquals(100, gasStationService.getDependabilityProgress(), 0);
+		// reputation 5, reported today
+		for (Integer id : ids) {
+			assertEquals(100, gasStationRepository.findOne(id).getReportDependability(), 0);
+		}
+	}
+
 	@Test
 	public void TC1_deleteGasStation() {
 		// try to delete a gas station with a negtive id (exception)
@@ -394,6 +488,24 @@ public class GasStationServiceAPITests {
 		assertFalse(thrown);
 	}
 	
+	@Test
+	public void TC8_getGasStationsByGasolineType() throws InvalidGasTypeException, PriceException, GPSDataException {
+		// more fuel types at once: only the gas stations providing all of them
+		GasStationDto dieselOnly = new GasStationDto(null, "ENI", "corso Duca", true, false, false, false, false, false,
+				"Enjoy", 40.0005, 25.0010, 0.99, null, null, null, null, null, 1, "2020-05-20", 0.88);
+		gasStationService.saveGasStation(dieselOnly);
+		Integer id = gasStationService.saveGasStation(gasStationDto).getGasStationId();
+		List<GasStationDto> res = gasStationService.getGasStationsByGasolineType("diesel, methane");
+		assertEquals(1, res.size());
+		assertEquals(id, res.get(0).getGasStationId());
+		assertEquals(2, gasStationService.getGasStationsByGasolineType("diesel").size());
+		try {
+			gasStationService.getGasStationsByGasolineType("diesel,water");
+			fail();
+		} catch (InvalidGasTypeException e) {
+		}
+	}
+
 	@Test
 	public void TC1_getGasStationsByProximity() throws GPSDataException {
 		// valid coordinates
@@ -470,6 +582,109 @@ public class GasStationServiceAPITests {
 		assertTrue(thrown);
 	}
 
+	@Test
+	public void TC1_getGasStationsByDistance() throws PriceException, GPSDataException {
+		// at latitude 60 the corner of the box is out of the circle, results sorted by distance
+		double[][] coordinates = { { 60.0, 25.017 }, { 60.0075, 25.015 }, { 60.0063, 25.0 }, { 60.0, 25.0 } };
+		List<Integer> ids = new ArrayList<>();
+		for (double[] c : coordinates) {
+			gasStationDto.setLat(c[0]);
+			gasStationDto.setLon(c[1]);
+			ids.add(gasStationService.saveGasStation(gasStationDto).getGasStationId());
+		}
+		List<GasStationDto> result = gasStationService.getGasStationsByDistance(60.0, 25.0, 1);
+		assertEquals(3, result.size());
+		assertEquals(ids.get(3), result.get(0).getGasStationId());
+		assertEquals(ids.get(2), result.get(1).getGasStationId());
+		assertEquals(ids.get(0), result.get(2).getGasStationId());
+		assertEquals(0.0, result.get(0).getDistance(), 0.001);
+		assertEquals(0.70, result.get(1).getDistance(), 0.01);
+		assertEquals(0.945, result.get(2).getDistance(), 0.01);
+	}
+
+	@Test
+	public void TC2_getGasStationsByDistance() throws PriceException, GPSDataException {
+		// radius<=0 is considered as 1km
+		gasStationDto.setLat(45.0);
+		gasStationDto.setLon(7.0);
+		gasStationService.saveGasStation(gasStationDto);
+		gasStationDto.setLat(45.0);
+		gasStationDto.setLon(7.02);
+		gasStationService.saveGasStation(gasStationDto);
+		assertEquals(1, gasStationService.getGasStationsByDistance(45.0, 7.0, -1).size());
+		assertEquals(2, gasStationService.getGasStationsByDistance(45.0, 7.0, 2).size());
+	}
+
+	@Test
+	public void TC4_getGasStationsByDistance() throws PriceException, GPSDataException {
+		// the circle crosses the antimeridian
+		gasStationDto.setLat(-17.0);
+		gasStationDto.setLon(179.99);
+		Integer id = gasStationService.saveGasStation(gasStationDto).getGasStationId();
+		gasStationDto.setLat(-17.0);
+		gasStationDto.setLon(-179.99);
+		gasStationService.saveGasStation(gasStationDto);
+		List<GasStationDto> result = gasStationService.getGasStationsByDistance(-17.0, -179.995, 2);
+		assertEquals(2, result.size());
+		assertEquals(id, result.get(1).getGasStationId());
+		assertEquals(1.6, result.get(1).getDistance(), 0.1);
+	}
+
+	@Test(expected = GPSDataException.class)
+	public void TC3_getGasStationsByDistance() throws GPSDataException {
+		// invalid coordinates
+		gasStationService.getGasStationsByDistance(999.9999, -999.9999, 1);
+	}
+
+	@Test
+	public void TC1_getNearestGasStations() throws PriceException, GPSDataException, InvalidGasTypeException {
+		// k closest gas stations, with and without fuel filter, without the spatial index
+		List<Integer> ids = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			gasStationDto.setLat(45.0 + i * 0.01);
+			gasStationDto.setLon(7.0);
+			gasStationDto.setHasMethane(i % 2 == 0);
+			ids.add(gasStationService.saveGasStation(gasStationDto).getGasStationId());
+		}
+		List<GasStationDto> result = gasStationService.getNearestGasStations(45.021, 7.0, 3, "null");
+		assertEquals(3, result.size());
+		assertEquals(ids.get(2), result.get(0).getGasStationId());
+		assertEquals(ids.get(3), result.get(1).getGasStationId());
+		assertEquals(ids.get(1), result.get(2).getGasStationId());
+		result = gasStationService.getNearestGasStations(45.021, 7.0, 2, "Methane");
+		assertEquals(2, result.size());
+		assertEquals(ids.get(2), result.get(0).getGasStationId());
+		assertEquals(ids.get(4), result.get(1).getGasStationId());
+		assertTrue(result.get(0).getDistance() < result.get(1).getDistance());
+	}
+
+	@Test
+	public void TC2_getNearestGasStations()
+			throws PriceException, GPSDataException, InvalidGasTypeException, InvalidGasStationException {
+		// same search answered by the spatial index, k<=0 is considered as 10
+		gasStationService.setGasStationIndex(new GasStationIndex(gasStationRepository));
+		List<Integer> ids = new ArrayList<>();
+		for (int i = 0; i < 12; i++) {
+			gasStationDto.setLat(45.0 + i * 0.01);
+			gasStationDto.setLon(7.0);
+			gasStationDto.setHasMethane(i % 2 == 0);
+			ids.add(gasStationService.saveGasStation(gasStationDto).getGasStationId());
+		}
+		assertEquals(10, gasStationService.getNearestGasStations(45.0, 7.0, -1, null).size());
+		List<GasStationDto> result = gasStationService.getNearestGasStations(45.021, 7.0, 2, "methane");
+		assertEquals(ids.get(2), result.get(0).getGasStationId());
+		assertEquals(ids.get(4), result.get(1).getGasStationId());
+		gasStationService.deleteGasStation(ids.get(2));
+		result = gasStationService.getNearestGasStations(45.021, 7.0, 1, "methane");
+		assertEquals(ids.get(4), result.get(0).getGasStationId());
+	}
+
+	@Test(expected = InvalidGasTypeException.class)
+	public void TC3_getNearestGasStations() throws GPSDataException, InvalidGasTypeException {
+		// invalid gasoline type
+		gasStationService.getNearestGasStations(45.0, 7.0, 3, "d1esel!!!!");
+	}
+
 	// one test for each fuel type;
 	@Test
 	public void TC1_getGasStationsWithCoordinates() throws PriceException, GPSDataException {
@@ -1068,6 +1283,19 @@ public class GasStationServiceAPITests {
 		assertFalse(thrown);
 	}
 
+	@Test
+	public void TC10_getGasStationsWithoutCoordinates()
+			throws PriceException, GPSDataException, InvalidGasTypeException, InvalidCarSharingException {
+		// SET fuel types and SET car sharing, the fuel mask follows the updates of the gas station
+		GasStationDto res = gasStationService.saveGasStation(gasStationDto);
+		assertEquals(1, gasStationService.getGasStationsWithoutCoordinates("gas,superplus", "Enjoy").size());
+		assertTrue(gasStationService.getGasStationsWithoutCoordinates("gas,superplus", "Car2Go").isEmpty());
+		res.setHasGas(false);
+		gasStationService.saveGasStation(res);
+		assertTrue(gasStationService.getGasStationsWithoutCoordinates("gas,superplus", "Enjoy").isEmpty());
+		assertEquals(1, gasStationService.getGasStationsWithoutCoordinates("superplus", "Enjoy").size());
+	}
+
 	@Test
 	public void TC1_getGasStationByCarSharing() throws PriceException, GPSDataException {
 		//gasStationService.setUpdateDependability(true);
@@ -1075,6 +1303,30 @@ public class GasStationServiceAPITests {
 		assertEquals(gasStationService.getGasStationByCarSharing("Enjoy").size(), 1);
 	}
 
+	@Test
+	public void TC2_getGasStationByCarSharing()
+			throws PriceException, GPSDataException, InvalidGasStationException, InvalidGasTypeException,
+			InvalidCarSharingException {
+		// cached searches are invalidated by the gas stations saved and deleted
+		GasStationDtoCache cache = new GasStationDtoCache(100, 60000, System::currentTimeMillis);
+		gasStationService.setGasStationDtoCache(cache);
+		gasStationService.setUpdateDependability(true);
+		GasStationDto res = gasStationService.saveGasStation(gasStationDto);
+		assertEquals(1, gasStationService.getGasStationByCarSharing("Enjoy").size());
+		assertEquals(1, gasStationService.getGasStationsByGasolineType("diesel").size());
+		assertEquals(1, gasStationService.getGasStationByCarSharing("Enjoy").size());
+		assertEquals(1, cache.getHits());
+
+		gasStationDto.setGasStationId(null);
+		gasStationService.saveGasStation(gasStationDto);
+		assertEquals(2, gasStationService.getGasStationByCarSharing("Enjoy").size());
+		assertEquals(2, gasStationService.getGasStationsByGasolineType("diesel").size());
+		gasStationService.deleteGasStation(res.getGasStationId());
+		assertEquals(1, gasStationService.getGasStationByCarSharing("Enjoy").size());
+		assertEquals(1, gasStationService.getGasStationsWithoutCoordinates("diesel", "null").size());
+		assertEquals(1, cache.getHits());
+	}
+
 	@Test
 	public void TC1_setReport() throws InvalidGasStationException, PriceException, InvalidUserException {
 		// existing user sets all prices -> no errors
@@ -1123,8 +1375,9 @@ public class GasStationServiceAPITests {
 	@Test
 	public void TC3_setReport() throws InvalidGasStationException, PriceException, InvalidUserException {
 		// existing user sets price, has a lower reputation than previous one, but day difference is > 4
-		UserDto userDto2 = new UserDto(2, "Test", "TestPw", "Test@email", 0);
 		gasStationDto.setUserDto(userService.saveUser(userDto));
+		// the same user, whatever id it got
+		UserDto userDto2 = new UserDto(gasStationDto.getUserDto().getUserId(), "Test", "TestPw", "Test@email", 0);
 		userService.saveUser(userDto2);
 		Boolean thrown = false;
 		gasStationDto.setGasStationId(null);
@@ -1147,7 +1400,7 @@ public class GasStationServiceAPITests {
 		assertEquals(gsDto.getSuperPlusPrice(),3.0,0);
 		assertEquals(gsDto.getMethanePrice(),3.0,0);
 		assertEquals(gsDto.getGasPrice(),3.0,0);
-		assertEquals(gsDto.getReportUser(),2,0);
+		assertEquals(gsDto.getReportUser(),userDto2.getUserId(),0);
 		assertFalse(thrown);
 	}
 	
@@ -1228,4 +1481,319 @@ public class GasStationServiceAPITests {
 		assertTrue(thrown);
 	}
 
+	@Test
+	public void TC7_setReport()
+			throws InvalidGasStationException, PriceException, InvalidUserException, GPSDataException {
+		// every write bumps the data version (and so the ETags), reads don't
+		GasStationDataVersion dataVersion = new GasStationDataVersion();
+		gasStationService.setGasStationDataVersion(dataVersion);
+		userService.setGasStationDataVersion(dataVersion);
+		gasStationService.setUpdateDependability(true);
+		User reporter = userRepository.save(new User("reporter", "password", "reporter@ezgas.com", 3));
+		String etag = dataVersion.etag();
+		GasStationDto res = gasStationService.saveGasStation(gasStationDto);
+		assertNotEquals(etag, dataVersion.etag());
+		etag = dataVersion.etag();
+		gasStationService.getGasStationById(res.getGasStationId());
+		gasStationService.getAllGasStations();
+		assertEquals(etag, dataVersion.etag());
+		gasStationService.setReport(res.getGasStationId(), 1.5, 1.5, 1.5, 1.5, 1.5, 1.5, reporter.getUserId());
+		assertEquals(2, dataVersion.get());
+		userService.increaseUserReputation(reporter.getUserId());
+		assertEquals(3, dataVersion.get());
+		gasStationService.deleteGasStation(res.getGasStationId());
+		assertEquals(4, dataVersion.get());
+	}
+
+	@Test
+	public void TC1_getPriceHistory()
+			throws PriceException, GPSDataException, InvalidGasStationException, InvalidUserException {
+		// every accepted report is appended to the history, in time order
+		gasStationService.setPriceReportRecorder(new PriceReportRecorder(priceReportRepository));
+		gasStationService.setUpdateDependability(true);
+		User reporter = userRepository.save(new User("reporter", "password", "reporter@ezgas.com", 3));
+		GasStationDto gsDto = new GasStationDto(null, "ENI", "corso Duca", true, false, false, false, true, false,
+				"Enjoy", 40.0005, 25.0010, 0.99, null, null, null, 0.89, null, null, null, 0);
+		GasStationDto res = gasStationService.saveGasStation(gsDto);
+		long from = System.currentTimeMillis();
+		gasStationService.setReport(res.getGasStationId(), 1.5, 1.6, 1.7, 1.8, 1.1, 1.9, reporter.getUserId());
+		gasStationService.setReport(res.getGasStationId(), 1.4, 1.6, 1.7, 1.8, 1.0, 1.9, reporter.getUserId());
+		long to = System.currentTimeMillis();
+		// written with the reports
+		assertEquals(2, priceReportRepository.findHistory(res.getGasStationId(), from, to).size());
+
+		List<PriceReportDto> history = gasStationService.getPriceHistory(res.getGasStationId(), from, to);
+		assertEquals(2, history.size());
+		assertEquals(1.5, history.get(0).getDieselPrice(), 0);
+		assertEquals(1.4, history.get(1).getDieselPrice(), 0);
+		assertEquals(1.0, history.get(1).getMethanePrice(), 0);
+		// only the fuels provided by the gas station are recorded
+		assertNull(history.get(0).getSuperPrice());
+		assertEquals(reporter.getUserId(), history.get(0).getUserId());
+		assertTrue(history.get(0).getReportTime() <= history.get(1).getReportTime());
+		assertTrue(gasStationService.getPriceHistory(res.getGasStationId(), to + 1, Long.MAX_VALUE).isEmpty());
+		assertTrue(gasStationService.getPriceHistory(res.getGasStationId() + 1, from, to).isEmpty());
+	}
+
+	/*
+	 * statistics of the statements prepared from now on, the changes made so far
+	 * are written and the persistence context emptied so that every read reaches
+	 * the DB
+	 */
+	private Statistics countStatements() {
+		Statistics statistics = entityManager.getEntityManager().getEntityManagerFactory()
+				.unwrap(SessionFactory.class).getStatistics();
+		statistics.setStatisticsEnabled(true);
+		entityManager.flush();
+		entityManager.clear();
+		statistics.clear();
+		return statistics;
+	}
+
+	@Test
+	public void TC8_setReport()
+			throws PriceException, GPSDataException, InvalidGasStationException, InvalidUserException {
+		// statements per report: the gas station with its last reporter, the new reporter, the update
+		gasStationService.setUpdateDependability(true);
+		User first = userRepository.save(new User("first", "password", "first@ezgas.com", 1));
+		User second = userRepository.save(new User("second", "password", "second@ezgas.com", 2));
+		Integer id = gasStationService.saveGasStation(gasStationDto).getGasStationId();
+		gasStationService.setReport(id, 1.1, 1.2, 1.3, 1.4, 1.5, 1.6, first.getUserId());
+
+		Statistics statistics = this.countStatements();
+		gasStationService.setReport(id, 1.2, 1.3, 1.4, 1.5, 1.6, 1.7, second.getUserId());
+		assertEquals(3, statistics.getPrepareStatementCount());
+		// the new reporter is the last one, it comes with the gas station
+		statistics = this.countStatements();
+		gasStationService.setReport(id, 1.3, 1.4, 1.5, 1.6, 1.7, 1.8, second.getUserId());
+		assertEquals(2, statistics.getPrepareStatementCount());
+		// a report kept by CR4 writes nothing
+		statistics = this.countStatements();
+		gasStationService.setReport(id, 1.3, 1.4, 1.5, 1.6, 1.7, 1.8, first.getUserId());
+		assertEquals(2, statistics.getPrepareStatementCount());
+		statistics.setStatisticsEnabled(false);
+		assertEquals(second.getUserId(), gasStationRepository.findOne(id).getReportUser());
+	}
+
+	@Test
+	public void TC1_setReports() throws PriceException, GPSDataException, InvalidGasStationException {
+		// the reports of a batch are applied in order, each one seeing the ones before it
+		PriceReportRecorder recorder = new PriceReportRecorder(priceReportRepository);
+		gasStationService.setPriceReportRecorder(recorder);
+		gasStationService.setUpdateDependability(true);
+		User low = userRepository.save(new User("low", "password", "low@ezgas.com", -2));
+		User high = userRepository.save(new User("high", "password", "high@ezgas.com", 3));
+		GasStationDto res = gasStationService.saveGasStation(new GasStationDto(null, "ENI", "corso Duca", true, false,
+				false, false, true, false, "Enjoy", 40.0005, 25.0010, 0.99, null, null, null, 0.89, null, null, null, 0));
+		Integer id = res.getGasStationId();
+
+		List<ReportOutcome> outcomes = gasStationService.setReports(Arrays.asList(
+				new PriceReportDto(id, 1.5, null, null, null, 1.0, null, low.getUserId()),
+				new PriceReportDto(id, 1.4, null, null, null, 1.1, null, high.getUserId()),
+				new PriceReportDto(id, 1.3, null, null, null, 1.2, null, low.getUserId()),
+				new PriceReportDto(id, 1.3, null, null, null, 1.2, null, high.getUserId() + low.getUserId() + 1),
+				new PriceReportDto(id + 1, 1.3, null, null, null, 1.2, null, high.getUserId()),
+				new PriceReportDto(id, -1.3, null, null, null, 1.2, null, high.getUserId()),
+				// the price of a fuel the gas station doesn't provide is ignored
+				new PriceReportDto(id, 1.45, -1.0, null, null, 1.15, null, high.getUserId())));
+		assertEquals(Arrays.asList(ReportOutcome.ACCEPTED, ReportOutcome.ACCEPTED, ReportOutcome.KEPT,
+				ReportOutcome.INVALID_USER, ReportOutcome.INVALID_GAS_STATION, ReportOutcome.INVALID_PRICE,
+				ReportOutcome.ACCEPTED), outcomes);
+
+		GasStation gasStation = gasStationRepository.findOne(id);
+		assertEquals(1.45, gasStation.getDieselPrice(), 0);
+		assertEquals(1.15, gasStation.getMethanePrice(), 0);
+		assertEquals(high.getUserId(), gasStation.getReportUser());
+		assertEquals(ReportDate.today(), (long) gasStation.getReportDay());
+		// one history row per accepted report
+		assertEquals(3, gasStationService.getPriceHistory(id, 0, Long.MAX_VALUE).size());
+	}
+
+	@Test
+	public void TC2_setReports() throws PriceException, GPSDataException {
+		// a feed of many reports for several gas stations, the last accepted one of each wins
+		gasStationService.setUpdateDependability(true);
+		User reporter = userRepository.save(new User("feed", "password", "feed@ezgas.com", 1));
+		List<Integer> ids = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			ids.add(gasStationService.saveGasStation(new GasStationDto(null, "ENI" + i, "corso Duca", true, false,
+					false, false, false, false, "Enjoy", 40.0005 + i, 25.0010, 0.99, null, null, null, null, null, null,
+					null, 0)).getGasStationId());
+		}
+		List<PriceReportDto> reports = new ArrayList<>();
+		for (int i = 0; i < 300; i++) {
+			reports.add(new PriceReportDto(ids.get(i % 3), 1.0 + i / 1000.0, null, null, null, null, null,
+					reporter.getUserId()));
+		}
+		reports.add(null);
+		List<ReportOutcome> outcomes = gasStationService.setReports(reports);
+		assertEquals(301, outcomes.size());
+		assertEquals(300, outcomes.stream().filter(outcome -> outcome == ReportOutcome.ACCEPTED).count());
+		assertEquals(ReportOutcome.INVALID_GAS_STATION, outcomes.get(300));
+		for (int i = 0; i < 3; i++) {
+			assertEquals(1.0 + (297 + i) / 1000.0, gasStationRepository.findOne(ids.get(i)).getDieselPrice(), 0);
+		}
+		assertTrue(gasStationService.setReports(new ArrayList<>()).isEmpty());
+	}
+
+	@Test
+	public void TC3_setReports() throws PriceException, GPSDataException {
+		// a batch reads the gas stations and the users once, whatever its size
+		gasStationService.setUpdateDependability(true);
+		User first = userRepository.save(new User("first", "password", "first@ezgas.com", 1));
+		User second = userRepository.save(new User("second", "password", "second@ezgas.com", 2));
+		List<Integer> ids = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			gasStationDto.setGasStationId(null);
+			gasStationDto.setLat(40.0005 + i);
+			ids.add(gasStationService.saveGasStation(gasStationDto).getGasStationId());
+		}
+		List<PriceReportDto> reports = new ArrayList<>();
+		for (int i = 0; i < 60; i++) {
+			reports.add(new PriceReportDto(ids.get(i % 3), 1.0 + i / 100.0, 1.1, 1.2, 1.3, 1.4, 1.5,
+					(i % 2 == 0 ? first : second).getUserId()));
+		}
+		Statistics statistics = this.countStatements();
+		gasStationService.setReports(reports);
+		// the gas stations, the users and the update (batched), written at the commit
+		entityManager.flush();
+		assertEquals(3, statistics.getPrepareStatementCount());
+		statistics.setStatisticsEnabled(false);
+	}
+
+	@Test
+	public void TC2_getPriceHistory() {
+		// invalid gas station id
+		Boolean thrown = false;
+		try {
+			gasStationService.getPriceHistory(-1, 0, Long.MAX_VALUE);
+		} catch (InvalidGasStationException e) {
+			thrown = true;
+		}
+		assertTrue(thrown);
+	}
+
+	@Test
+	public void TC1_getGasStationChangesSince() throws PriceException, GPSDataException {
+		// without the change log all the gas stations are returned
+		gasStationService.setUpdateDependability(true);
+		gasStationService.saveGasStation(gasStationDto);
+		GasStationChangesDto changes = gasStationService.getGasStationChangesSince(5);
+		assertTrue(changes.isReset());
+		assertEquals(1, changes.getChanged().size());
+		assertTrue(changes.getDeleted().isEmpty());
+	}
+
+	@Test
+	public void TC2_getGasStationChangesSince()
+			throws PriceException, GPSDataException, InvalidGasStationException, InvalidUserException {
+		// only the gas stations changed or deleted after seq are returned
+		GasStationChangeLog changeLog = new GasStationChangeLog(gasStationRepository, gasStationTombstoneRepository,
+				gasStationChangeCounterRepository);
+		changeLog.load();
+		gasStationService.setGasStationChangeLog(changeLog);
+		gasStationService.setUpdateDependability(true);
+		User reporter = userRepository.save(new User("reporter", "password", "reporter@ezgas.com", 3));
+		GasStationDto first = gasStationService.saveGasStation(gasStationDto);
+		GasStationDto second = gasStationService.saveGasStation(gasStationDto);
+
+		GasStationChangesDto changes = gasStationService.getGasStationChangesSince(0);
+		assertTrue(changes.isReset());
+		assertEquals(2, changes.getChanged().size());
+		long seq = changes.getSeq();
+
+		changes = gasStationService.getGasStationChangesSince(seq);
+		assertFalse(changes.isReset());
+		assertTrue(changes.getChanged().isEmpty());
+		assertEquals(seq, (long) changes.getSeq());
+
+		gasStationService.setReport(first.getGasStationId(), 1.5, 1.5, 1.5, 1.5, 1.5, 1.5, reporter.getUserId());
+		gasStationService.deleteGasStation(second.getGasStationId());
+		changes = gasStationService.getGasStationChangesSince(seq);
+		assertFalse(changes.isReset());
+		assertEquals(1, changes.getChanged().size());
+		assertEquals(first.getGasStationId(), changes.getChanged().get(0).getGasStationId());
+		assertEquals(1.5, changes.getChanged().get(0).getDieselPrice(), 0);
+		assertEquals(1, changes.getDeleted().size());
+		assertEquals(second.getGasStationId(), changes.getDeleted().get(0));
+		assertEquals(seq + 2, (long) changes.getSeq());
+
+		// a sequence number never given means the client must resync
+		assertTrue(gasStationService.getGasStationChangesSince(seq + 100).isReset());
+	}
+
+	@Test
+	public void TC5_getGasStationChangesSince()
+			throws PriceException, GPSDataException, InvalidGasStationException, InvalidUserException {
+		// a vote changes the reporter embedded in the gas stations it reported last, and their dependability
+		GasStationChangeLog changeLog = new GasStationChangeLog(gasStationRepository, gasStationTombstoneRepository,
+				gasStationChangeCounterRepository);
+		changeLog.load();
+		gasStationService.setGasStationChangeLog(changeLog);
+		gasStationService.setUpdateDependability(true);
+		userService.setGasStationChangeLog(changeLog);
+		User reporter = userRepository.save(new User("reporter", "password", "reporter@ezgas.com", 3));
+		GasStationDto reported = gasStationService.saveGasStation(gasStationDto);
+		gasStationService.saveGasStation(gasStationDto);
+		gasStationService.setReport(reported.getGasStationId(), 1.5, 1.5, 1.5, 1.5, 1.5, 1.5, reporter.getUserId());
+		long seq = gasStationService.getGasStationChangesSince(0).getSeq();
+
+		userService.increaseUserReputation(reporter.getUserId());
+		GasStationChangesDto changes = gasStationService.getGasStationChangesSince(seq);
+		assertFalse(changes.isReset());
+		assertEquals(1, changes.getChanged().size());
+		assertEquals(reported.getGasStationId(), changes.getChanged().get(0).getGasStationId());
+		assertEquals(4, (int) changes.getChanged().get(0).getUserDto().getReputation());
+		assertEquals(seq + 1, (long) changes.getSeq());
+
+		// a vote at the bound changes nothing
+		userService.increaseUserReputation(reporter.getUserId());
+		seq = changeLog.highWaterMark();
+		userService.increaseUserReputation(reporter.getUserId());
+		assertTrue(gasStationService.getGasStationChangesSince(seq).getChanged().isEmpty());
+	}
+
+	@Test
+	public void TC3_getGasStationChangesSince() throws PriceException, GPSDataException {
+		// the high-water mark stays below the changes still in flight
+		GasStationChangeLog changeLog = new GasStationChangeLog(gasStationRepository, gasStationTombstoneRepository,
+				gasStationChangeCounterRepository);
+		changeLog.load();
+		gasStationService.setGasStationChangeLog(changeLog);
+		gasStationService.setUpdateDependability(true);
+		long start = changeLog.highWaterMark();
+		long inFlight = changeLog.begin();
+		gasStationService.saveGasStation(gasStationDto);
+		assertEquals(start, changeLog.highWaterMark());
+		assertEquals(start, (long) gasStationService.getGasStationChangesSince(start).getSeq());
+		changeLog.end(inFlight);
+		assertEquals(inFlight + 1, changeLog.highWaterMark());
+		GasStationChangesDto changes = gasStationService.getGasStationChangesSince(start);
+		assertEquals(1, changes.getChanged().size());
+		assertEquals(inFlight + 1, (long) changes.getSeq());
+	}
+
+	@Test
+	public void TC4_getGasStationChangesSince() throws InvalidGasStationException {
+		// a number given but never written is not given again after a restart
+		GasStationChangeLog changeLog = new GasStationChangeLog(gasStationRepository, gasStationTombstoneRepository,
+				gasStationChangeCounterRepository);
+		changeLog.setReserveSize(2);
+		changeLog.load();
+		gasStationService.setGasStationChangeLog(changeLog);
+		long lost = changeLog.begin();
+		changeLog.end(changeLog.begin());
+		changeLog.end(lost);
+		// deleting a gas station that is not there takes no number
+		assertNull(gasStationService.deleteGasStation(Integer.MAX_VALUE));
+		assertEquals(lost + 1, changeLog.highWaterMark());
+
+		GasStationChangeLog restarted = new GasStationChangeLog(gasStationRepository, gasStationTombstoneRepository,
+				gasStationChangeCounterRepository);
+		restarted.load();
+		assertTrue(restarted.begin() > lost + 1);
+		// a client that saw them does not have to resync
+		assertTrue(restarted.highWaterMark() >= lost + 1);
+	}
+
 }
@@ -4,7 +4,11 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.data.domain.Pageable;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import exception.GPSDataException;
 import exception.InvalidCarSharingException;
@@ -17,12 +21,15 @@ import org.mockito.Mock;
 
 import it.polito.ezgas.converter.GasStationConverter;
 import it.polito.ezgas.dto.GasStationDto;
+import it.polito.ezgas.dto.PriceReportDto;
 import it.polito.ezgas.dto.IdPw;
 import it.polito.ezgas.entity.GasStation;
 import it.polito.ezgas.entity.User;
 import it.polito.ezgas.repository.GasStationRepository;
 import it.polito.ezgas.repository.UserRepository;
 import it.polito.ezgas.service.impl.GasStationServiceimpl;
+import it.polito.ezgas.utils.ReportDate;
+import it.polito.ezgas.utils.ReportOutcome;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -34,6 +41,8 @@ import static org.mockito.Mockito.*;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 
@@ -169,6 +178,9 @@ public class GasStationServiceTests {
 				gasStationDto.getDieselPrice(), gasStationDto.getSuperPrice(), gasStationDto.getSuperPlusPrice(),
 				gasStationDto.getGasPrice(), gasStationDto.getMethanePrice(), gasStationDto.getPremiumDieselPrice(),gasStationDto.getReportUser(),
 				gasStationDto.getReportTimestamp(), gasStationDto.getReportDependability());
+		// the current version of the gas station is read and kept
+		when(gasStationConverterMock.toGasStation(myDto)).thenReturn(gasStation);
+		when(gasStationRepositoryMock.findVersion(1)).thenReturn(3L);
 		Boolean thrown = false;
 		try {
 			assertNotNull(gasStationService.saveGasStation(myDto));
@@ -178,6 +190,7 @@ public class GasStationServiceTests {
 			thrown = true;
 		}
 		assertEquals(thrown, false);
+		assertEquals(3L, gasStation.getVersion());
 	}
 
 	@Test
@@ -245,6 +258,68 @@ public class GasStationServiceTests {
 		assertEquals(gasStationService.getAllGasStations().isEmpty(), false);
 	}
 
+	@Test
+	public void TC3_getAllGasStations() {
+		// stored dependability: a chunk written meanwhile by a report is read and updated again
+		gasStationService.setUpdateDependability(false);
+		gasStationService.setReadTimeDependability(false);
+		gasStationService.setTransactionTemplate(new TransactionTemplate(mock(PlatformTransactionManager.class)));
+		when(gasStationRepositoryMock.count()).thenReturn(1L);
+		when(gasStationRepositoryMock.findChunkAfter(eq(0), any(Pageable.class))).thenAnswer(invocation -> {
+			GasStation reported = new GasStation("ENI", "corso Duca", true, true, true, true, true, true, "Enjoy",
+					40.0005, 25.0010, 0.99, 0.99, 0.99, 0.99, 0.99, 1.32, 1, "2020-05-20", 0.88);
+			reported.setGasStationId(1);
+			reported.setUser(new User("nome", "password", "email", 5));
+			reported.setReportDay(ReportDate.today());
+			List<GasStation> chunk = new ArrayList<>();
+			chunk.add(reported);
+			return chunk;
+		});
+		doThrow(new ObjectOptimisticLockingFailureException(GasStation.class, 1)).doReturn(new ArrayList<GasStation>())
+				.when(gasStationRepositoryMock).save(anyListOf(GasStation.class));
+		when(gasStationRepositoryMock.findAll()).thenReturn(new ArrayList<GasStation>());
+		gasStationService.getAllGasStations();
+		verify(gasStationRepositoryMock, times(2)).findChunkAfter(eq(0), any(Pageable.class));
+		verify(gasStationRepositoryMock, times(2)).save(anyListOf(GasStation.class));
+		assertEquals(100, gasStationService.getDependabilityProgress(), 0);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void TC1_setReports() {
+		// a gas station that keeps conflicting fails only its own chunk, the other reports are applied
+		gasStationService.setTransactionTemplate(new TransactionTemplate(mock(PlatformTransactionManager.class)));
+		gasStationService.setReportChunkSize(1);
+		gasStationService.setMaxRetries(2);
+		when(gasStationRepositoryMock.findAllWithReporter(anyCollectionOf(Integer.class))).thenAnswer(invocation -> {
+			List<GasStation> found = new ArrayList<>();
+			for (Integer id : (Collection<Integer>) invocation.getArguments()[0]) {
+				GasStation reported = new GasStation("ENI", "corso Duca", true, false, false, false, false, false,
+						"Enjoy", 40.0005, 25.0010, 0.99, null, null, null, null, null, null, null, 0);
+				reported.setGasStationId(id);
+				found.add(reported);
+			}
+			return found;
+		});
+		User reporter = new User("nome", "password", "email", 3);
+		reporter.setUserId(5);
+		when(userRepositoryMock.findAll(anyCollectionOf(Integer.class))).thenReturn(Arrays.asList(reporter));
+		when(gasStationRepositoryMock.save(anyListOf(GasStation.class))).thenAnswer(invocation -> {
+			List<GasStation> saved = new ArrayList<>((Collection<GasStation>) invocation.getArguments()[0]);
+			if (saved.stream().anyMatch(gasStation -> gasStation.getGasStationId() == 1)) {
+				throw new ObjectOptimisticLockingFailureException(GasStation.class, 1);
+			}
+			return saved;
+		});
+		List<ReportOutcome> outcomes = gasStationService.setReports(Arrays.asList(
+				new PriceReportDto(1, 1.5, null, null, null, null, null, 5),
+				new PriceReportDto(2, 1.5, null, null, null, null, null, 5),
+				new PriceReportDto(1, 1.6, null, null, null, null, null, 5)));
+		assertEquals(Arrays.asList(ReportOutcome.CONFLICT, ReportOutcome.ACCEPTED, ReportOutcome.CONFLICT), outcomes);
+		// the conflicting chunk is tried maxRetries times, the other one once
+		verify(gasStationRepositoryMock, times(3)).findAllWithReporter(anyCollectionOf(Integer.class));
+	}
+
 	@Test
 	public void TC1_deleteGasStation() {
 		// try to delete a gas station with a negtive id (exception)
@@ -306,7 +381,7 @@ public class GasStationServiceTests {
 		list.add(gasStation);
 		List<GasStationDto> listDto = new ArrayList<GasStationDto>();
 		listDto.add(gasStationDto);
-		when(gasStationRepositoryMock.findByhasDiesel(any(Boolean.class))).thenReturn(list);
+		when(gasStationRepositoryMock.findByFuelMaskIn(anyCollectionOf(Integer.class))).thenReturn(list);
 		when(gasStationConverterMock.toGasStationDtoList(list)).thenReturn(listDto);
 		Boolean thrown = false;
 		try {
@@ -324,7 +399,7 @@ public class GasStationServiceTests {
 		list.add(gasStation);
 		List<GasStationDto> listDto = new ArrayList<GasStationDto>();
 		listDto.add(gasStationDto);
-		when(gasStationRepositoryMock.findByhasSuper(any(Boolean.class))).thenReturn(list);
+		when(gasStationRepositoryMock.findByFuelMaskIn(anyCollectionOf(Integer.class))).thenReturn(list);
 		when(gasStationConverterMock.toGasStationDtoList(list)).thenReturn(listDto);
 		Boolean thrown = false;
 		try {
@@ -342,7 +417,7 @@ public class GasStationServiceTests {
 		list.add(gasStation);
 		List<GasStationDto> listDto = new ArrayList<GasStationDto>();
 		listDto.add(gasStationDto);
-		when(gasStationRepositoryMock.findByhasMethane(any(Boolean.class))).thenReturn(list);
+		when(gasStationRepositoryMock.findByFuelMaskIn(anyCollectionOf(Integer.class))).thenReturn(list);
 		when(gasStationConverterMock.toGasStationDtoList(list)).thenReturn(listDto);
 		Boolean thrown = false;
 		try {
@@ -360,7 +435,7 @@ public class GasStationServiceTests {
 		list.add(gasStation);
 		List<GasStationDto> listDto = new ArrayList<GasStationDto>();
 		listDto.add(gasStationDto);
-		when(gasStationRepositoryMock.findByhasGas(any(Boolean.class))).thenReturn(list);
+		when(gasStationRepositoryMock.findByFuelMaskIn(anyCollectionOf(Integer.class))).thenReturn(list);
 		when(gasStationConverterMock.toGasStationDtoList(list)).thenReturn(listDto);
 		Boolean thrown = false;
 		try {
@@ -378,7 +453,7 @@ public class GasStationServiceTests {
 		list.add(gasStation);
 		List<GasStationDto> listDto = new ArrayList<GasStationDto>();
 		listDto.add(gasStationDto);
-		when(gasStationRepositoryMock.findByhasSuperPlus(any(Boolean.class))).thenReturn(list);
+		when(gasStationRepositoryMock.findByFuelMaskIn(anyCollectionOf(Integer.class))).thenReturn(list);
 		when(gasStationConverterMock.toGasStationDtoList(list)).thenReturn(listDto);
 		Boolean thrown = false;
 		try {
@@ -396,7 +471,7 @@ public class GasStationServiceTests {
 		list.add(gasStation);
 		List<GasStationDto> listDto = new ArrayList<GasStationDto>();
 		listDto.add(gasStationDto);
-		when(gasStationRepositoryMock.findByhasPremiumDiesel(any(Boolean.class))).thenReturn(list);
+		when(gasStationRepositoryMock.findByFuelMaskIn(anyCollectionOf(Integer.class))).thenReturn(list);
 		when(gasStationConverterMock.toGasStationDtoList(list)).thenReturn(listDto);
 		Boolean thrown = false;
 		try {
@@ -982,7 +1057,7 @@ public class GasStationServiceTests {
 		List<GasStation> list = new ArrayList<GasStation>();
 		List<GasStationDto> listDto = new ArrayList<GasStationDto>();
 		Boolean thrown = false;
-		when(gasStationRepositoryMock.findByhasDieselAndCarSharing(any(Boolean.class), any(String.class)))
+		when(gasStationRepositoryMock.findByCarSharingAndFuelMaskIn(any(String.class), anyCollectionOf(Integer.class)))
 				.thenReturn(list);
 		when(gasStationConverterMock.toGasStationDtoList(list)).thenReturn(listDto);
 		try {
@@ -1005,7 +1080,7 @@ public class GasStationServiceTests {
 		List<GasStation> list = new ArrayList<GasStation>();
 		List<GasStationDto> listDto = new ArrayList<GasStationDto>();
 		Boolean thrown = false;
-		when(gasStationRepositoryMock.findByhasSuperAndCarSharing(any(Boolean.class), any(String.class)))
+		when(gasStationRepositoryMock.findByCarSharingAndFuelMaskIn(any(String.class), anyCollectionOf(Integer.class)))
 				.thenReturn(list);
 		when(gasStationConverterMock.toGasStationDtoList(list)).thenReturn(listDto);
 		try {
@@ -1028,7 +1103,7 @@ public class GasStationServiceTests {
 		List<GasStation> list = new ArrayList<GasStation>();
 		List<GasStationDto> listDto = new ArrayList<GasStationDto>();
 		Boolean thrown = false;
-		when(gasStationRepositoryMock.findByhasMethaneAndCarSharing(any(Boolean.class), any(String.class)))
+		when(gasStationRepositoryMock.findByCarSharingAndFuelMaskIn(any(String.class), anyCollectionOf(Integer.class)))
 				.thenReturn(list);
 		when(gasStationConverterMock.toGasStationDtoList(list)).thenReturn(listDto);
 		try {
@@ -1051,7 +1126,7 @@ public class GasStationServiceTests {
 		List<GasStation> list = new ArrayList<GasStation>();
 		List<GasStationDto> listDto = new ArrayList<GasStationDto>();
 		Boolean thrown = false;
-		when(gasStationRepositoryMock.findByhasDieselAndCarSharing(any(Boolean.class), any(String.class)))
+		when(gasStationRepositoryMock.findByCarSharingAndFuelMaskIn(any(String.class), anyCollectionOf(Integer.class)))
 				.thenReturn(list);
 		when(gasStationConverterMock.toGasStationDtoList(list)).thenReturn(listDto);
 		try {
@@ -1074,7 +1149,7 @@ public class GasStationServiceTests {
 		List<GasStation> list = new ArrayList<GasStation>();
 		List<GasStationDto> listDto = new ArrayList<GasStationDto>();
 		Boolean thrown = false;
-		when(gasStationRepositoryMock.findByhasSuperPlusAndCarSharing(any(Boolean.class), any(String.class)))
+		when(gasStationRepositoryMock.findByCarSharingAndFuelMaskIn(any(String.class), anyCollectionOf(Integer.class)))
 				.thenReturn(list);
 		when(gasStationConverterMock.toGasStationDtoList(list)).thenReturn(listDto);
 		try {
@@ -1099,7 +1174,7 @@ public class GasStationServiceTests {
 		List<GasStation> list = new ArrayList<GasStation>();
 		List<GasStationDto> listDto = new ArrayList<GasStationDto>();
 		Boolean thrown = false;
-		when(gasStationRepositoryMock.findByhasSuperPlusAndCarSharing(any(Boolean.class), any(String.class)))
+		when(gasStationRepositoryMock.findByCarSharingAndFuelMaskIn(any(String.class), anyCollectionOf(Integer.class)))
 				.thenReturn(list);
 		when(gasStationConverterMock.toGasStationDtoList(list)).thenReturn(listDto);
 		try {
@@ -1126,7 +1201,7 @@ public class GasStationServiceTests {
 		List<GasStationDto> listDto = new ArrayList<GasStationDto>();
 		listDto.add(gsDto);
 		Boolean thrown = false;
-		when(gasStationRepositoryMock.findByhasDiesel(any(Boolean.class))).thenReturn(list);
+		when(gasStationRepositoryMock.findByFuelMaskIn(anyCollectionOf(Integer.class))).thenReturn(list);
 		when(gasStationConverterMock.toGasStationDtoList(list)).thenReturn(listDto);
 		try {
 			assertEquals(gasStationService.getGasStationsWithoutCoordinates("diesel", "null").isEmpty(), false);
@@ -1152,7 +1227,7 @@ public class GasStationServiceTests {
 	@Test
 	public void TC1_setReport() {
 		// existing user sets all prices
-		when(gasStationRepositoryMock.findOne(any(Integer.class))).thenReturn(gasStation);
+		when(gasStationRepositoryMock.findOneWithReporter(any(Integer.class))).thenReturn(gasStation);
 		when(userRepositoryMock.findOne(any(Integer.class))).thenReturn(user);
 		Boolean thrown = false;
 		try {
@@ -1170,7 +1245,7 @@ public class GasStationServiceTests {
 	@Test
 	public void TC2_setReport() {
 		// invalid user
-		when(gasStationRepositoryMock.findOne(any(Integer.class))).thenReturn(gasStation);
+		when(gasStationRepositoryMock.findOneWithReporter(any(Integer.class))).thenReturn(gasStation);
 		when(userRepositoryMock.findOne(-1)).thenReturn(null);
 		Boolean thrown = false;
 		try {
@@ -1190,7 +1265,7 @@ public class GasStationServiceTests {
 		// existing user has lower trust level but difference in days is >4
 		User user2= new User("nome2", "password2", "email2", -1);
 		user2.setUserId(2);
-		when(gasStationRepositoryMock.findOne(any(Integer.class))).thenReturn(gasStation);
+		when(gasStationRepositoryMock.findOneWithReporter(any(Integer.class))).thenReturn(gasStation);
 		when(userRepositoryMock.findOne(1)).thenReturn(user);
 		when(userRepositoryMock.findOne(2)).thenReturn(user2);
 		Boolean thrown = false;
@@ -1223,7 +1298,7 @@ public class GasStationServiceTests {
 		gasStation2.setReportTimestamp(formatter.format(new Date(System.currentTimeMillis())));
 		gasStation2.setUser(user);
 		user2.setUserId(2);
-		when(gasStationRepositoryMock.findOne(1)).thenReturn(gasStation2);
+		when(gasStationRepositoryMock.findOneWithReporter(1)).thenReturn(gasStation2);
 		when(userRepositoryMock.findOne(1)).thenReturn(user);
 		when(userRepositoryMock.findOne(2)).thenReturn(user2);
 		Boolean thrown = false;
@@ -1250,7 +1325,7 @@ public class GasStationServiceTests {
 	@Test
 	public void TC5_setReport() {
 		// non existing user
-		when(gasStationRepositoryMock.findOne(any(Integer.class))).thenReturn(gasStation);
+		when(gasStationRepositoryMock.findOneWithReporter(any(Integer.class))).thenReturn(gasStation);
 		when(userRepositoryMock.findOne(1)).thenReturn(null);
 		Boolean thrown = false;
 		try {
@@ -1268,7 +1343,7 @@ public class GasStationServiceTests {
 	@Test
 	public void TC6_setReport() {
 		// invalid gas station
-		when(gasStationRepositoryMock.findOne(any(Integer.class))).thenReturn(null);
+		when(gasStationRepositoryMock.findOneWithReporter(any(Integer.class))).thenReturn(null);
 		when(userRepositoryMock.findOne(any(Integer.class))).thenReturn(user);
 		Boolean thrown = false;
 		try {
@@ -0,0 +1,93 @@
+package it.polito.ezgas;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import it.polito.ezgas.cache.GasStationDataVersion;
+import it.polito.ezgas.cache.GasStationSnapshot;
+import it.polito.ezgas.dto.GasStationDto;
+
+@RunWith(SpringRunner.class)
+public class GasStationSnapshotTests {
+
+	private ObjectMapper objectMapper = new ObjectMapper();
+	private GasStationDataVersion dataVersion = new GasStationDataVersion();
+	private GasStationSnapshot gasStationSnapshot;
+	private List<GasStationDto> gasStationDtoList;
+	private int loads;
+
+	@Before
+	public void setUp() {
+		gasStationSnapshot = new GasStationSnapshot(objectMapper, dataVersion);
+		gasStationDtoList = new ArrayList<>();
+		gasStationDtoList.add(new GasStationDto(1, "ENI", "corso Duca", true, true, true, true, true, true, "Enjoy",
+				40.0005, 25.0010, 0.99, 0.99, 0.99, 0.99, 0.99, 1.32, 1, "05-03-2020", 0.88));
+		loads = 0;
+	}
+
+	private List<GasStationDto> load() {
+		loads++;
+		return gasStationDtoList;
+	}
+
+	@Test
+	public void TC1_get() throws IOException {
+		// the snapshot is the JSON of the list and it is built once
+		GasStationSnapshot.Snapshot snapshot = gasStationSnapshot.get(this::load);
+		assertArrayEquals(objectMapper.writeValueAsBytes(gasStationDtoList), snapshot.getJson());
+		assertSame(snapshot, gasStationSnapshot.get(this::load));
+		assertEquals(1, loads);
+	}
+
+	@Test
+	public void TC2_get() {
+		// a new data version makes the next get rebuild it with a new ETag
+		GasStationSnapshot.Snapshot snapshot = gasStationSnapshot.get(this::load);
+		dataVersion.bump();
+		gasStationDtoList.clear();
+		GasStationSnapshot.Snapshot rebuilt = gasStationSnapshot.get(this::load);
+		assertEquals(2, loads);
+		assertEquals("[]", new String(rebuilt.getJson()));
+		assertNotEquals(snapshot.getEtag(false), rebuilt.getEtag(false));
+		assertNotEquals(snapshot.getVersion(), rebuilt.getVersion());
+	}
+
+	@Test
+	public void TC3_get() throws IOException {
+		// the gzip encoding holds the same JSON, with its own ETag
+		GasStationSnapshot.Snapshot snapshot = gasStationSnapshot.get(this::load);
+		ByteArrayOutputStream json = new ByteArrayOutputStream();
+		try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(snapshot.getGzip()))) {
+			byte[] buffer = new byte[1024];
+			for (int n = in.read(buffer); n > 0; n = in.read(buffer)) {
+				json.write(buffer, 0, n);
+			}
+		}
+		assertArrayEquals(snapshot.getJson(), json.toByteArray());
+		assertNotEquals(snapshot.getEtag(false), snapshot.getEtag(true));
+	}
+
+	@Test
+	public void TC4_get() {
+		// without gzip only the JSON is built
+		gasStationSnapshot.setGzip(false);
+		assertNull(gasStationSnapshot.get(this::load).getGzip());
+	}
+}
@@ -6,6 +6,8 @@ import org.springframework.test.context.junit4.SpringRunner;
 import it.polito.ezgas.entity.GasStation;
 import it.polito.ezgas.entity.User;
 
+import java.time.LocalDate;
+
 @RunWith(SpringRunner.class)
 
 public class GasStationTests {
@@ -84,6 +86,21 @@ public class GasStationTests {
 	public void TC1_GasStationReportTimestamp() {
 		gs.setReportTimestamp("20200503T10:20:31");
 		assert (gs.getReportTimestamp().equals("20200503T10:20:31"));
+		assert (gs.getReportDay() == null);
+	}
+
+	@Test
+	public void TC2_GasStationReportTimestamp() {
+		gs.setReportTimestamp("05-03-2020");
+		assert (gs.getReportDay() == LocalDate.of(2020, 5, 3).toEpochDay());
+	}
+
+	@Test
+	public void TC1_GasStationReportDay() {
+		gs.setReportDay(LocalDate.of(2024, 12, 30).toEpochDay());
+		assert (gs.getReportTimestamp().equals("12-30-2024"));
+		gs.setReportDay(null);
+		assert (gs.getReportTimestamp() == null);
 	}
 
 	@Test
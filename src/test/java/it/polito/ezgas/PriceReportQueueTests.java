@@ -0,0 +1,141 @@
+package it.polito.ezgas;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import exception.InvalidGasStationException;
+import exception.InvalidUserException;
+import exception.PriceException;
+import it.polito.ezgas.dto.PriceReportDto;
+import it.polito.ezgas.report.PriceReportQueue;
+import it.polito.ezgas.service.GasStationService;
+import it.polito.ezgas.utils.ReportOutcome;
+
+@RunWith(SpringRunner.class)
+public class PriceReportQueueTests {
+
+	private GasStationService gasStationService;
+	private PriceReportQueue queue;
+	private List<List<PriceReportDto>> batches;
+
+	@Before
+	@SuppressWarnings("unchecked")
+	public void setUp() {
+		// the batches are copied, the queue reuses its list
+		batches = new ArrayList<>();
+		gasStationService = mock(GasStationService.class);
+		when(gasStationService.setReports(anyListOf(PriceReportDto.class))).thenAnswer(invocation -> {
+			List<PriceReportDto> batch = (List<PriceReportDto>) invocation.getArguments()[0];
+			batches.add(new ArrayList<>(batch));
+			return batch.stream().map(report -> ReportOutcome.ACCEPTED).collect(Collectors.toList());
+		});
+		queue = new PriceReportQueue(gasStationService, 3);
+		queue.setBatchSize(2);
+	}
+
+	private PriceReportDto report(Integer gasStationId, Double dieselPrice, Integer userId) {
+		return new PriceReportDto(gasStationId, dieselPrice, 1.5, 1.6, 0.7, 0.9, 1.7, userId);
+	}
+
+	private long metric(String name) {
+		for (Metric<?> metric : queue.metrics()) {
+			if (metric.getName().equals("ezgas.report-queue." + name)) {
+				return metric.getValue().longValue();
+			}
+		}
+		return -1;
+	}
+
+	@Test
+	public void TC1_offer() throws Exception {
+		// the reports are only queued, then applied in order by batches
+		assertTrue(queue.offer(report(1, 1.4, 1)));
+		assertTrue(queue.offer(report(1, 1.3, 2)));
+		assertTrue(queue.offer(report(2, 1.2, 1)));
+		assertEquals(3, queue.getDepth());
+		verify(gasStationService, never()).setReports(anyListOf(PriceReportDto.class));
+
+		queue.flush();
+		assertEquals(0, queue.getDepth());
+		assertEquals(2, batches.size());
+		assertEquals(2, batches.get(0).size());
+		assertEquals(1.3, batches.get(0).get(1).getDieselPrice(), 0);
+		assertEquals(1, batches.get(1).size());
+		// the two reports of gas station 1 were applied together
+		assertEquals(1, metric("coalesced"));
+		assertEquals(2, metric("batches"));
+	}
+
+	@Test
+	public void TC2_offer() throws Exception {
+		// a full queue refuses the report
+		assertTrue(queue.offer(report(1, 1.4, 1)));
+		assertTrue(queue.offer(report(2, 1.4, 1)));
+		assertTrue(queue.offer(report(3, 1.4, 1)));
+		assertFalse(queue.offer(report(4, 1.4, 1)));
+		assertEquals(3, queue.getDepth());
+		assertEquals(1, metric("rejected"));
+	}
+
+	@Test
+	public void TC3_offer() throws Exception {
+		// the invalid reports are refused without being queued
+		Boolean thrown = false;
+		try {
+			queue.offer(report(0, 1.4, 1));
+		} catch (InvalidGasStationException e) {
+			thrown = true;
+		}
+		assertTrue(thrown);
+		thrown = false;
+		try {
+			queue.offer(report(1, 1.4, null));
+		} catch (InvalidUserException e) {
+			thrown = true;
+		}
+		assertTrue(thrown);
+		thrown = false;
+		try {
+			queue.offer(report(1, -1.4, 1));
+		} catch (PriceException e) {
+			thrown = true;
+		}
+		assertTrue(thrown);
+		assertEquals(0, queue.getDepth());
+	}
+
+	@Test
+	public void TC1_start() throws Exception {
+		// the worker applies the reports queued in the window together
+		queue.setEnabled(true);
+		queue.setWindowMillis(50);
+		queue.setBatchSize(10);
+		queue.start();
+		queue.offer(report(1, 1.4, 1));
+		queue.offer(report(1, 1.3, 2));
+		long deadline = System.currentTimeMillis() + 5000;
+		while (metric("batches") < 1 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		queue.stop();
+		assertEquals(1, batches.size());
+		assertEquals(2, batches.get(0).size());
+		assertEquals(1, metric("coalesced"));
+	}
+}
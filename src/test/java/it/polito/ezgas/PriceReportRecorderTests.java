@@ -0,0 +1,58 @@
+package it.polito.ezgas;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import it.polito.ezgas.entity.PriceReport;
+import it.polito.ezgas.history.PriceReportRecorder;
+import it.polito.ezgas.repository.PriceReportRepository;
+
+@RunWith(SpringRunner.class)
+public class PriceReportRecorderTests {
+
+	private PriceReportRepository priceReportRepository;
+	private PriceReportRecorder recorder;
+
+	@Before
+	public void setUp() {
+		priceReportRepository = mock(PriceReportRepository.class);
+		recorder = new PriceReportRecorder(priceReportRepository);
+	}
+
+	private PriceReport report(Integer gasStationId) {
+		return new PriceReport(1, gasStationId, System.currentTimeMillis(), 1.5, null, null, null, null, null);
+	}
+
+	@Test
+	public void TC1_record() {
+		// the reports are written at once, an empty chunk writes nothing
+		List<PriceReport> reports = Arrays.asList(this.report(1), this.report(2));
+		recorder.record(reports);
+		recorder.record(new ArrayList<>());
+		verify(priceReportRepository, times(1)).save(anyListOf(PriceReport.class));
+		verify(priceReportRepository).save(reports);
+	}
+
+	@Test
+	public void TC1_findHistory() {
+		// a read is only the query, nothing is written
+		List<PriceReport> history = Arrays.asList(this.report(1));
+		when(priceReportRepository.findHistory(1, 0L, 10L)).thenReturn(history);
+		assertEquals(history, recorder.findHistory(1, 0, 10));
+		verify(priceReportRepository, never()).save(anyListOf(PriceReport.class));
+	}
+}
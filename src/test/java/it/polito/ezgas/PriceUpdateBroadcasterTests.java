@@ -0,0 +1,199 @@
+package it.polito.ezgas;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter.DataWithMediaType;
+
+import it.polito.ezgas.entity.GasStation;
+import it.polito.ezgas.sync.GasStationChangeLog;
+import it.polito.ezgas.sync.PriceUpdateBroadcaster;
+import it.polito.ezgas.utils.FuelType;
+
+@RunWith(SpringRunner.class)
+public class PriceUpdateBroadcasterTests {
+
+	private List<Runnable> tasks;
+	private PriceUpdateBroadcaster broadcaster;
+	private GasStation turin;
+	private GasStation milan;
+
+	/*
+	 * keeps what is sent instead of writing it to a response, it can fail like a
+	 * client gone away
+	 */
+	private static class RecordingEmitter extends SseEmitter {
+		private List<SseEventBuilder> events = new ArrayList<>();
+		private boolean broken;
+		private boolean completed;
+		private Runnable onCompletion;
+		private Runnable onTimeout;
+
+		@Override
+		public synchronized void onCompletion(Runnable callback) {
+			onCompletion = callback;
+		}
+
+		@Override
+		public synchronized void onTimeout(Runnable callback) {
+			onTimeout = callback;
+		}
+
+		@Override
+		public void send(SseEventBuilder builder) throws IOException {
+			if (broken) {
+				throw new IOException("Broken pipe");
+			}
+			events.add(builder);
+		}
+
+		@Override
+		public void completeWithError(Throwable ex) {
+			completed = true;
+		}
+	}
+
+	@Before
+	public void setUp() {
+		tasks = new ArrayList<>();
+		broadcaster = new PriceUpdateBroadcaster(tasks::add, 2, 2);
+		turin = new GasStation("ENI", "corso Duca", true, true, false, false, false, false, "Enjoy", 45.07, 7.68,
+				1.5, 1.6, null, null, null, null, 1, "05-03-2020", 0.88);
+		milan = new GasStation("Q8", "via Roma", false, true, false, false, true, false, "Enjoy", 45.46, 9.19, null,
+				1.6, null, null, 1.1, null, 1, "05-03-2020", 0.88);
+	}
+
+	private void runTasks() {
+		while (!tasks.isEmpty()) {
+			tasks.remove(0).run();
+		}
+	}
+
+	@Test
+	public void TC1_publish() throws Exception {
+		// only the subscribers whose box and fuels match receive the update
+		RecordingEmitter inTurin = new RecordingEmitter();
+		RecordingEmitter diesel = new RecordingEmitter();
+		broadcaster.subscribe(new PriceUpdateBroadcaster.Filter(45.0, 45.2, 7.5, 7.8, 0), inTurin);
+		broadcaster.subscribe(new PriceUpdateBroadcaster.Filter(null, null, null, null,
+				FuelType.parseMask("diesel")), diesel);
+		broadcaster.publish(turin);
+		broadcaster.publish(milan);
+		// nothing is sent by the publishing thread
+		assertTrue(inTurin.events.isEmpty());
+		runTasks();
+		assertEquals(1, inTurin.events.size());
+		assertEquals(1, diesel.events.size());
+	}
+
+	@Test
+	public void TC2_publish() {
+		// a full queue drops the new updates, the others are sent in order later
+		RecordingEmitter slow = new RecordingEmitter();
+		broadcaster.subscribe(new PriceUpdateBroadcaster.Filter(null, null, null, null, 0), slow);
+		broadcaster.publish(turin);
+		broadcaster.publish(milan);
+		broadcaster.publish(turin);
+		assertEquals(1, tasks.size());
+		assertEquals(1, broadcaster.getDropped());
+		runTasks();
+		assertEquals(2, slow.events.size());
+	}
+
+	@Test
+	public void TC3_publish() {
+		// a client gone away is removed
+		RecordingEmitter gone = new RecordingEmitter();
+		gone.broken = true;
+		broadcaster.subscribe(new PriceUpdateBroadcaster.Filter(null, null, null, null, 0), gone);
+		broadcaster.publish(turin);
+		runTasks();
+		assertTrue(gone.completed);
+		assertEquals(0, broadcaster.getSubscribers());
+	}
+
+	@Test
+	public void TC4_publish() {
+		// the event id is the high-water mark once committed, not the change number of the gas station
+		GasStationChangeLog changeLog = mock(GasStationChangeLog.class);
+		when(changeLog.highWaterMark()).thenReturn(7L);
+		broadcaster.setGasStationChangeLog(changeLog);
+		RecordingEmitter client = new RecordingEmitter();
+		broadcaster.subscribe(new PriceUpdateBroadcaster.Filter(null, null, null, null, 0), client);
+		turin.setChangeSeq(9L);
+		broadcaster.publish(turin);
+		runTasks();
+		StringBuilder sent = new StringBuilder();
+		for (DataWithMediaType data : client.events.get(0).build()) {
+			if (data.getData() instanceof String) {
+				sent.append(data.getData());
+			}
+		}
+		assertTrue(sent.toString().contains("\nid:7\n"));
+	}
+
+	@Test
+	public void TC1_subscribe() {
+		// no more than max-subscribers streams
+		assertTrue(broadcaster.subscribe(new PriceUpdateBroadcaster.Filter(null, null, null, null, 0),
+				new RecordingEmitter()));
+		assertTrue(broadcaster.subscribe(new PriceUpdateBroadcaster.Filter(null, null, null, null, 0),
+				new RecordingEmitter()));
+		assertFalse(broadcaster.subscribe(new PriceUpdateBroadcaster.Filter(null, null, null, null, 0),
+				new RecordingEmitter()));
+	}
+
+	@Test
+	public void TC2_subscribe() {
+		// a stream ending frees its slot once, however many callbacks run
+		RecordingEmitter first = new RecordingEmitter();
+		broadcaster.subscribe(new PriceUpdateBroadcaster.Filter(null, null, null, null, 0), first);
+		broadcaster.subscribe(new PriceUpdateBroadcaster.Filter(null, null, null, null, 0), new RecordingEmitter());
+		first.onTimeout.run();
+		first.onCompletion.run();
+		assertEquals(1, broadcaster.getSubscribers());
+		assertTrue(broadcaster.subscribe(new PriceUpdateBroadcaster.Filter(null, null, null, null, 0),
+				new RecordingEmitter()));
+		assertFalse(broadcaster.subscribe(new PriceUpdateBroadcaster.Filter(null, null, null, null, 0),
+				new RecordingEmitter()));
+	}
+
+	@Test
+	public void TC3_subscribe() throws Exception {
+		// concurrent subscriptions don't go over max-subscribers
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<Boolean>> subscribed = new ArrayList<>();
+		for (int i = 0; i < 200; i++) {
+			subscribed.add(executor.submit(() -> {
+				start.await();
+				return broadcaster.subscribe(new PriceUpdateBroadcaster.Filter(null, null, null, null, 0),
+						new RecordingEmitter());
+			}));
+		}
+		start.countDown();
+		int accepted = 0;
+		for (Future<Boolean> future : subscribed) {
+			accepted += future.get() ? 1 : 0;
+		}
+		executor.shutdown();
+		assertEquals(2, accepted);
+		assertEquals(2, broadcaster.getSubscribers());
+	}
+}
@@ -0,0 +1,201 @@
+package it.polito.ezgas;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import it.polito.ezgas.index.RTree;
+
+@RunWith(SpringRunner.class)
+public class RTreeTests {
+
+	private Random random = new Random(42);
+
+	private List<Integer> bruteForce(Map<Integer, double[]> points, double minLat, double maxLat, double minLon,
+			double maxLon) {
+		List<Integer> ids = new ArrayList<>();
+		for (Map.Entry<Integer, double[]> p : points.entrySet()) {
+			double lat = p.getValue()[0];
+			double lon = p.getValue()[1];
+			if (lat >= minLat && lat <= maxLat && lon >= minLon && lon <= maxLon) {
+				ids.add(p.getKey());
+			}
+		}
+		Collections.sort(ids);
+		return ids;
+	}
+
+	private void checkRandomBoxes(RTree tree, Map<Integer, double[]> points) {
+		for (int i = 0; i < 200; i++) {
+			double lat = 45 + random.nextDouble() * 0.5;
+			double lon = 7.5 + random.nextDouble() * 0.5;
+			double size = random.nextDouble() * 0.1;
+			List<Integer> found = tree.search(lat - size, lat + size, lon - size, lon + size);
+			Collections.sort(found);
+			assertEquals(bruteForce(points, lat - size, lat + size, lon - size, lon + size), found);
+		}
+	}
+
+	@Test
+	public void TC1_search() {
+		// empty tree
+		RTree tree = new RTree();
+		assertTrue(tree.search(-90, 90, -180, 180).isEmpty());
+		assertEquals(0, tree.size());
+	}
+
+	@Test
+	public void TC2_search() {
+		// bounds are included
+		RTree tree = new RTree();
+		tree.insert(1, 45.0, 7.0, 0);
+		tree.insert(2, 46.0, 8.0, 0);
+		assertEquals(2, tree.search(45.0, 46.0, 7.0, 8.0).size());
+		assertEquals(1, tree.search(44.0, 45.0, 6.0, 7.0).size());
+		assertTrue(tree.search(45.1, 45.9, 7.1, 7.9).isEmpty());
+	}
+
+	@Test
+	public void TC1_insert() {
+		// single inserts with many splits give the same result of a linear scan
+		RTree tree = new RTree();
+		Map<Integer, double[]> points = new HashMap<>();
+		for (int id = 1; id <= 5000; id++) {
+			double lat = 45 + random.nextDouble() * 0.5;
+			double lon = 7.5 + random.nextDouble() * 0.5;
+			tree.insert(id, lat, lon, 0);
+			points.put(id, new double[] { lat, lon });
+		}
+		assertEquals(5000, tree.size());
+		checkRandomBoxes(tree, points);
+	}
+
+	@Test
+	public void TC2_insert() {
+		// inserting an existing id moves the point
+		RTree tree = new RTree();
+		tree.insert(1, 45.0, 7.0, 0);
+		tree.insert(1, 10.0, 10.0, 0);
+		assertEquals(1, tree.size());
+		assertTrue(tree.search(44.0, 46.0, 6.0, 8.0).isEmpty());
+		assertEquals(1, tree.search(9.0, 11.0, 9.0, 11.0).size());
+	}
+
+	@Test
+	public void TC1_load() {
+		// STR bulk load, then more inserts on top of it
+		RTree tree = new RTree();
+		Map<Integer, double[]> points = new HashMap<>();
+		List<RTree.Entry> entries = new ArrayList<>();
+		for (int id = 1; id <= 10000; id++) {
+			double lat = 45 + random.nextDouble() * 0.5;
+			double lon = 7.5 + random.nextDouble() * 0.5;
+			entries.add(new RTree.Entry(id, lat, lon, 0));
+			points.put(id, new double[] { lat, lon });
+		}
+		tree.load(entries);
+		assertEquals(10000, tree.size());
+		checkRandomBoxes(tree, points);
+		for (int id = 10001; id <= 11000; id++) {
+			double lat = 45 + random.nextDouble() * 0.5;
+			double lon = 7.5 + random.nextDouble() * 0.5;
+			tree.insert(id, lat, lon, 0);
+			points.put(id, new double[] { lat, lon });
+		}
+		checkRandomBoxes(tree, points);
+	}
+
+	@Test
+	public void TC1_nearest() {
+		// best-first search gives the same ranking of a linear scan, also filtering by tags
+		RTree tree = new RTree();
+		Map<Integer, double[]> points = new HashMap<>();
+		Map<Integer, Integer> tags = new HashMap<>();
+		for (int id = 1; id <= 5000; id++) {
+			double lat = 45 + random.nextDouble() * 0.5;
+			double lon = 7.5 + random.nextDouble() * 0.5;
+			int tag = 1 << random.nextInt(3);
+			tree.insert(id, lat, lon, tag);
+			points.put(id, new double[] { lat, lon });
+			tags.put(id, tag);
+		}
+		for (int i = 0; i < 50; i++) {
+			double lat = 45 + random.nextDouble() * 0.5;
+			double lon = 7.5 + random.nextDouble() * 0.5;
+			double cosLat = Math.cos(Math.toRadians(lat));
+			int tag = i % 2 == 0 ? 0 : 4;
+			List<Integer> expected = new ArrayList<>();
+			for (Integer id : points.keySet()) {
+				if ((tags.get(id) & tag) == tag) {
+					expected.add(id);
+				}
+			}
+			expected.sort((a, b) -> {
+				double da = Math.pow(points.get(a)[0] - lat, 2) + Math.pow((points.get(a)[1] - lon) * cosLat, 2);
+				double db = Math.pow(points.get(b)[0] - lat, 2) + Math.pow((points.get(b)[1] - lon) * cosLat, 2);
+				return Double.compare(da, db);
+			});
+			assertEquals(expected.subList(0, 10), tree.nearest(lat, lon, 10, tag));
+		}
+	}
+
+	@Test
+	public void TC2_nearest() {
+		// less points than k, or no point with the tags
+		RTree tree = new RTree();
+		assertTrue(tree.nearest(45.0, 7.0, 5, 0).isEmpty());
+		tree.insert(1, 45.0, 7.0, 1);
+		tree.insert(2, 45.1, 7.0, 2);
+		assertEquals(2, tree.nearest(45.0, 7.0, 5, 0).size());
+		assertEquals(Integer.valueOf(2), tree.nearest(45.0, 7.0, 5, 2).get(0));
+		assertTrue(tree.nearest(45.0, 7.0, 5, 4).isEmpty());
+	}
+
+	@Test
+	public void TC1_remove() {
+		// removing half of the points keeps the tree consistent
+		RTree tree = new RTree();
+		Map<Integer, double[]> points = new HashMap<>();
+		for (int id = 1; id <= 4000; id++) {
+			double lat = 45 + random.nextDouble() * 0.5;
+			double lon = 7.5 + random.nextDouble() * 0.5;
+			tree.insert(id, lat, lon, 0);
+			points.put(id, new double[] { lat, lon });
+		}
+		for (int id = 1; id <= 4000; id += 2) {
+			assertTrue(tree.remove(id));
+			points.remove(id);
+		}
+		assertEquals(2000, tree.size());
+		assertFalse(tree.contains(1));
+		checkRandomBoxes(tree, points);
+	}
+
+	@Test
+	public void TC2_remove() {
+		// removing a missing id or all the points
+		RTree tree = new RTree();
+		assertFalse(tree.remove(1));
+		for (int id = 1; id <= 100; id++) {
+			tree.insert(id, random.nextDouble(), random.nextDouble(), 0);
+		}
+		for (int id = 1; id <= 100; id++) {
+			assertTrue(tree.remove(id));
+		}
+		assertEquals(0, tree.size());
+		assertTrue(tree.search(-90, 90, -180, 180).isEmpty());
+		tree.insert(1, 0.5, 0.5, 0);
+		assertEquals(1, tree.search(-90, 90, -180, 180).size());
+	}
+}
@@ -0,0 +1,82 @@
+package it.polito.ezgas;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.temporal.WeekFields;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import it.polito.ezgas.utils.ReportDate;
+
+@RunWith(SpringRunner.class)
+public class ReportDateTests {
+
+	@Test
+	public void TC1_format() {
+		// the year is the calendar one also in the last days of December
+		long day = LocalDate.of(2024, 12, 30).toEpochDay();
+		assertEquals("12-30-2024", ReportDate.format(day));
+		assertEquals("12-30-2025",
+				new SimpleDateFormat("MM-dd-YYYY").format(new GregorianCalendar(2024, Calendar.DECEMBER, 30).getTime()));
+	}
+
+	@Test
+	public void TC1_toEpochDay() {
+		// MM-dd-yyyy and yyyy-MM-dd timestamps
+		assertEquals(Long.valueOf(LocalDate.of(2020, 5, 3).toEpochDay()), ReportDate.toEpochDay("05-03-2020"));
+		assertEquals(Long.valueOf(LocalDate.of(2020, 5, 3).toEpochDay()), ReportDate.toEpochDay("2020-05-03"));
+		assertEquals(Long.valueOf(ReportDate.today()), ReportDate.toEpochDay(ReportDate.format(ReportDate.today())));
+	}
+
+	@Test
+	public void TC2_toEpochDay() {
+		// invalid timestamps
+		assertNull(ReportDate.toEpochDay(null));
+		assertNull(ReportDate.toEpochDay(""));
+		assertNull(ReportDate.toEpochDay("TimeStampTest"));
+		assertNull(ReportDate.toEpochDay("13-40-2020"));
+	}
+
+	@Test
+	public void TC3_toEpochDay() {
+		// the days passed across New Year are a subtraction
+		assertEquals(3, ReportDate.toEpochDay("01-02-2025") - ReportDate.toEpochDay("12-30-2024"));
+	}
+
+	@Test
+	public void TC1_fromLegacyTimestamp() {
+		// a MM-dd-YYYY timestamp of the last days of December has the next year
+		long today = LocalDate.of(2025, 1, 2).toEpochDay();
+		assertEquals(Long.valueOf(LocalDate.of(2024, 12, 30).toEpochDay()),
+				ReportDate.fromLegacyTimestamp("12-30-2025", today));
+		assertEquals(Long.valueOf(LocalDate.of(2024, 12, 20).toEpochDay()),
+				ReportDate.fromLegacyTimestamp("12-20-2024", today));
+		assertNull(ReportDate.fromLegacyTimestamp("TimeStampTest", today));
+	}
+
+	@Test
+	public void TC2_fromLegacyTimestamp() {
+		// with the ISO weeks the first days of January can have the previous year:
+		// 01-01-2021 is in the week 53 of 2020
+		long today = LocalDate.of(2021, 1, 5).toEpochDay();
+		assertEquals(Long.valueOf(LocalDate.of(2021, 1, 1).toEpochDay()),
+				ReportDate.fromLegacyTimestamp("01-01-2020", today, WeekFields.ISO));
+		assertEquals(Long.valueOf(LocalDate.of(2021, 1, 4).toEpochDay()),
+				ReportDate.fromLegacyTimestamp("01-04-2021", today, WeekFields.ISO));
+		assertEquals(Long.valueOf(LocalDate.of(2020, 12, 28).toEpochDay()),
+				ReportDate.fromLegacyTimestamp("12-28-2020", today, WeekFields.ISO));
+		// and the last days of December the next one
+		assertEquals(Long.valueOf(LocalDate.of(2024, 12, 30).toEpochDay()),
+				ReportDate.fromLegacyTimestamp("12-30-2025", today, WeekFields.ISO));
+		// 12-30-2019 and 12-30-2020 are both in the weeks of 2020
+		assertEquals(Long.valueOf(LocalDate.of(2020, 12, 30).toEpochDay()),
+				ReportDate.fromLegacyTimestamp("12-30-2020", today, WeekFields.ISO));
+	}
+}
@@ -0,0 +1,100 @@
+package it.polito.ezgas;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import it.polito.ezgas.reputation.ReputationVoteBuffer;
+
+@RunWith(SpringRunner.class)
+public class ReputationVoteBufferTests {
+
+	private ReputationVoteBuffer buffer;
+
+	@Before
+	public void setUp() {
+		buffer = new ReputationVoteBuffer();
+		buffer.setEnabled(true);
+	}
+
+	private long metric(String name) {
+		for (Metric<?> metric : buffer.metrics()) {
+			if (metric.getName().equals("ezgas.reputation-votes." + name)) {
+				return metric.getValue().longValue();
+			}
+		}
+		return -1;
+	}
+
+	@Test
+	public void TC1_drain() {
+		// the net delta of each user, the users whose votes cancel out are left out
+		buffer.vote(1, true);
+		buffer.vote(1, true);
+		buffer.vote(2, true);
+		buffer.vote(2, false);
+		buffer.vote(3, false);
+		assertEquals(2, metric("pending"));
+		assertEquals(5, metric("votes"));
+
+		Map<Integer, Long> deltas = buffer.drain();
+		assertEquals(2, deltas.size());
+		assertEquals(2, (long) deltas.get(1));
+		assertEquals(-1, (long) deltas.get(3));
+		assertEquals(0, metric("pending"));
+		assertTrue(buffer.drain().isEmpty());
+	}
+
+	@Test
+	public void TC2_drain() {
+		// the deltas of a failed flush are added to the votes arrived meanwhile
+		buffer.vote(1, true);
+		Map<Integer, Long> deltas = buffer.drain();
+		buffer.vote(1, true);
+		buffer.restore(deltas);
+		assertEquals(2, buffer.getPending(1));
+	}
+
+	@Test
+	public void TC3_drain() throws Exception {
+		// votes while draining are never lost nor counted twice
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<?>> voters = new ArrayList<>();
+			for (int i = 0; i < 8; i++) {
+				int userId = i % 2;
+				voters.add(executor.submit(() -> {
+					for (int vote = 0; vote < 10000; vote++) {
+						buffer.vote(userId, true);
+					}
+				}));
+			}
+			Map<Integer, Long> total = new HashMap<>();
+			while (!voters.stream().allMatch(Future::isDone)) {
+				buffer.drain().forEach((userId, delta) -> total.merge(userId, delta, Long::sum));
+			}
+			for (Future<?> voter : voters) {
+				voter.get(1, TimeUnit.MINUTES);
+			}
+			buffer.drain().forEach((userId, delta) -> total.merge(userId, delta, Long::sum));
+			assertEquals(40000, (long) total.get(0));
+			assertEquals(40000, (long) total.get(1));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package it.polito.ezgas;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import it.polito.ezgas.dto.LoginDto;
+import it.polito.ezgas.session.SessionTokenStore;
+import it.polito.ezgas.utils.PasswordHash;
+
+@RunWith(SpringRunner.class)
+public class SessionTokenStoreTests {
+
+	private long now;
+	private SessionTokenStore store;
+
+	@Before
+	public void setUp() {
+		now = 1000;
+		store = new SessionTokenStore(() -> now, 100, 2, SessionTokenStore.WhenFull.REFUSE);
+	}
+
+	private LoginDto login(Integer userId) {
+		LoginDto login = new LoginDto(userId, "user" + userId, null, "user" + userId + "@ezgas.com", 3);
+		login.setAdmin(false);
+		return login;
+	}
+
+	@Test
+	public void TC1_issue() {
+		// a new random token per login, found until it expires
+		String token = store.issue(login(1));
+		assertNotEquals(token, store.issue(login(1)));
+		LoginDto session = store.find(token);
+		assertEquals(1, (int) session.getUserId());
+		assertEquals("user1@ezgas.com", session.getEmail());
+		assertEquals(token, session.getToken());
+		assertNull(session.getReputation());
+		now += 100;
+		assertNull(store.find(token));
+		assertNull(store.find("unknown"));
+		assertNull(store.find(null));
+	}
+
+	@Test
+	public void TC2_issue() {
+		// when full of live sessions a new one is refused, an expired one makes room
+		String first = store.issue(login(1));
+		now += 10;
+		String second = store.issue(login(2));
+		assertNull(store.issue(login(3)));
+		assertEquals(1, (int) store.find(first).getUserId());
+		now += 90;
+		String third = store.issue(login(3));
+		assertEquals(2, store.getSize());
+		assertNull(store.find(first));
+		assertEquals(2, (int) store.find(second).getUserId());
+		assertEquals(3, (int) store.find(third).getUserId());
+		// a revoked one too
+		assertTrue(store.revoke(second));
+		assertEquals(4, (int) store.find(store.issue(login(4))).getUserId());
+	}
+
+	@Test
+	public void TC3_issue() {
+		// with evict-oldest the oldest session makes room for the new one
+		store = new SessionTokenStore(() -> now, 100, 2, SessionTokenStore.WhenFull.EVICT_OLDEST);
+		String first = store.issue(login(1));
+		now += 10;
+		String second = store.issue(login(2));
+		String third = store.issue(login(3));
+		assertEquals(2, store.getSize());
+		assertNull(store.find(first));
+		assertEquals(2, (int) store.find(second).getUserId());
+		assertEquals(3, (int) store.find(third).getUserId());
+	}
+
+	@Test
+	public void TC1_revoke() {
+		String token = store.issue(login(1));
+		assertTrue(store.revoke(token));
+		assertFalse(store.revoke(token));
+		assertNull(store.find(token));
+	}
+
+	@Test
+	public void TC2_revoke() {
+		// the sessions of a deleted user end, the updated ones see the new data
+		String token = store.issue(login(1));
+		String other = store.issue(login(2));
+		store.update(2, "renamed", "renamed@ezgas.com", true);
+		store.revokeUser(1);
+		assertNull(store.find(token));
+		assertEquals("renamed", store.find(other).getUserName());
+		assertTrue(store.find(other).getAdmin());
+	}
+
+	@Test
+	public void TC1_hash() {
+		// salted: the same password has different hashes, all matching it
+		String hash = PasswordHash.hash("secret");
+		assertTrue(PasswordHash.isHash(hash));
+		assertNotEquals(hash, PasswordHash.hash("secret"));
+		assertTrue(PasswordHash.matches("secret", hash));
+		assertFalse(PasswordHash.matches("Secret", hash));
+		assertFalse(PasswordHash.matches("secret", "pbkdf2$broken"));
+		// a password stored before the hashing
+		assertTrue(PasswordHash.matches("secret", "secret"));
+		assertFalse(PasswordHash.matches(null, hash));
+	}
+
+	@Test
+	public void TC2_hash() {
+		// a stored hash asking for too many iterations is refused, not computed
+		String[] parts = PasswordHash.hash("secret").split("\\$");
+		long start = System.currentTimeMillis();
+		assertFalse(PasswordHash.matches("secret", "pbkdf2$2000000000$" + parts[2] + "$" + parts[3]));
+		assertFalse(PasswordHash.matches("secret", "pbkdf2$0$" + parts[2] + "$" + parts[3]));
+		assertTrue(System.currentTimeMillis() - start < 1000);
+	}
+}
@@ -0,0 +1,135 @@
+package it.polito.ezgas;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import it.polito.ezgas.converter.GasStationConverter;
+import it.polito.ezgas.entity.GasStation;
+import it.polito.ezgas.entity.PriceReport;
+import it.polito.ezgas.entity.User;
+import it.polito.ezgas.history.PriceReportRecorder;
+import it.polito.ezgas.repository.GasStationRepository;
+import it.polito.ezgas.repository.PriceReportRepository;
+import it.polito.ezgas.repository.UserRepository;
+import it.polito.ezgas.service.impl.GasStationServiceimpl;
+
+/*
+ * many threads reporting on a few gas stations, each report in its own
+ * transaction as in the application (so the test itself runs without one and
+ * removes what it committed)
+ */
+@RunWith(SpringRunner.class)
+@DataJpaTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class SetReportConcurrencyTests {
+
+	private static final int THREADS = 8;
+	private static final int REPORTS_PER_THREAD = 100;
+
+	@Autowired
+	private GasStationRepository gasStationRepository;
+	@Autowired
+	private UserRepository userRepository;
+	@Autowired
+	private PriceReportRepository priceReportRepository;
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	private GasStationServiceimpl gasStationService;
+	private PriceReportRecorder recorder;
+	private List<GasStation> gasStations = new ArrayList<>();
+	private List<User> users = new ArrayList<>();
+
+	@Before
+	public void setUp() {
+		gasStationService = new GasStationServiceimpl(gasStationRepository, new GasStationConverter(),
+				userRepository);
+		gasStationService.setTransactionTemplate(new TransactionTemplate(transactionManager));
+		gasStationService.setUpdateDependability(true);
+		gasStationService.setMaxRetries(1000);
+		recorder = new PriceReportRecorder(priceReportRepository);
+		gasStationService.setPriceReportRecorder(recorder);
+		for (int i = 0; i < 3; i++) {
+			gasStations.add(gasStationRepository.save(new GasStation("ENI" + i, "corso Duca", true, false, false,
+					false, false, false, "Enjoy", 45.0 + i, 7.6, 1.5, null, null, null, null, null, -1, null, 0)));
+		}
+		for (int i = 0; i < 11; i++) {
+			users.add(userRepository.save(new User("user" + i, "password", "user" + i + "@ezgas.com", i - 5)));
+		}
+	}
+
+	@After
+	public void destroy() {
+		for (GasStation gasStation : gasStations) {
+			priceReportRepository.delete(priceReportRepository.findHistory(gasStation.getGasStationId(), 0L,
+					Long.MAX_VALUE));
+			gasStationRepository.delete(gasStation.getGasStationId());
+		}
+		userRepository.delete(users);
+	}
+
+	@Test
+	public void TC1_setReport() throws Exception {
+		// no report is lost and none overwrites a more reputable one (CR4, all the reports are of today)
+		List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		for (int t = 0; t < THREADS; t++) {
+			Random random = new Random(t);
+			int thread = t;
+			executor.execute(() -> {
+				try {
+					start.await();
+					for (int i = 0; i < REPORTS_PER_THREAD; i++) {
+						GasStation gasStation = gasStations.get(random.nextInt(gasStations.size()));
+						User user = users.get(random.nextInt(users.size()));
+						// every price is different, so every accepted report changes the gas station
+						gasStationService.setReport(gasStation.getGasStationId(),
+								1.0 + (thread * REPORTS_PER_THREAD + i) / 100000.0, null, null, null, null, null,
+								user.getUserId());
+					}
+				} catch (Throwable e) {
+					errors.add(e);
+				}
+			});
+		}
+		start.countDown();
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(2, TimeUnit.MINUTES));
+		assertEquals(new ArrayList<>(), errors);
+
+		for (GasStation gasStation : gasStations) {
+			GasStation reported = gasStationRepository.findOne(gasStation.getGasStationId());
+			List<PriceReport> history = recorder.findHistory(gasStation.getGasStationId(), 0, Long.MAX_VALUE);
+			// every accepted report is one update, none was overwritten by a concurrent one
+			assertEquals(history.size(), reported.getVersion() - gasStation.getVersion());
+			int best = Integer.MIN_VALUE;
+			for (PriceReport priceReport : history) {
+				best = Math.max(best, userRepository.findOne(priceReport.getUserId()).getReputation());
+			}
+			// a less reputable user can't have replaced the best one
+			assertEquals(best, (int) userRepository.findOne(reported.getReportUser()).getReputation());
+		}
+	}
+}
@@ -1,10 +1,13 @@
 package it.polito.ezgas;
 
+import java.util.Arrays;
+
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.test.context.junit4.SpringRunner;
 import static org.junit.Assert.*;
 
@@ -32,4 +35,54 @@ public class UserRepositoryTests {
 		assertEquals(usrep.findByEmail(user.getEmail()), user);
 	}
 
+	@Test
+	public void TestfindByEmailIgnoringCase() {
+		User user = new User("usertest", "pswtest", "Test@Mail.com", 1);
+		usrep.insert(user);
+
+		assertEquals("test@mail.com", user.getEmailKey());
+		assertEquals(user, usrep.findByEmail(" TEST@mail.com"));
+	}
+
+	@Test
+	public void TestexistsByAdminTrue() {
+		usrep.deleteAll();
+		usrep.insert(new User("usertest", "pswtest", "test@mail.com", 1));
+		assertFalse(usrep.existsByAdminTrue());
+
+		User admin = new User("admintest", "pswtest", "admin@mail.com", 5);
+		admin.setAdmin(true);
+		usrep.insert(admin);
+		assertTrue(usrep.existsByAdminTrue());
+	}
+
+	@Test
+	public void TestInsertTakenEmail() {
+		usrep.insert(new User("usertest", "pswtest", "test@mail.com", 1));
+		boolean thrown = false;
+		try {
+			usrep.insert(new User("other", "pswother", "TEST@mail.com", 0));
+		} catch (DataIntegrityViolationException e) {
+			thrown = true;
+		}
+		assertTrue(thrown);
+		// the refused user doesn't break the following queries
+		assertEquals("usertest", usrep.findByEmail("test@mail.com").getUserName());
+	}
+
+	@Test
+	public void TestfindSharedEmailKeys() {
+		User user = usrep.insert(new User("usertest", "pswtest", "test@mail.com", 1));
+		usrep.insert(new User("single", "pswsingle", "single@mail.com", 0));
+		assertTrue(usrep.findSharedEmailKeys().isEmpty());
+
+		// the key of a duplicate leaves the email free for another user
+		assertEquals(1, usrep.updateEmailKey(user.getUserId(), User.duplicateEmailKey(user.getUserId())));
+		usrep.insert(new User("other", "pswother", " Test@Mail.com", 0));
+
+		assertEquals(Arrays.asList("test@mail.com"), usrep.findSharedEmailKeys());
+		assertEquals(Arrays.asList("test@mail.com"), usrep.findEmailKeys(usrep.findSharedEmailKeys()));
+		assertEquals("other", usrep.findByEmail("test@mail.com").getUserName());
+	}
+
 }
\ No newline at end of file
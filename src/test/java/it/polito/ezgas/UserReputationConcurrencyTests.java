@@ -0,0 +1,171 @@
+package it.polito.ezgas;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import it.polito.ezgas.converter.UserConverter;
+import it.polito.ezgas.entity.User;
+import it.polito.ezgas.repository.UserRepository;
+import it.polito.ezgas.reputation.ReputationVoteBuffer;
+import it.polito.ezgas.service.impl.UserServiceimpl;
+
+/*
+ * many votes at the same time, each in its own transaction as in the
+ * application (so the test itself runs without one and removes what it
+ * committed)
+ */
+@RunWith(SpringRunner.class)
+@DataJpaTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class UserReputationConcurrencyTests {
+
+	private static final int THREADS = 16;
+
+	@Autowired
+	private UserRepository userRepository;
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	private UserServiceimpl userService;
+	private ExecutorService executor;
+	private List<User> users = new ArrayList<>();
+
+	@Before
+	public void setUp() {
+		userService = new UserServiceimpl(userRepository, new UserConverter());
+		userService.setTransactionTemplate(new TransactionTemplate(transactionManager));
+		executor = Executors.newFixedThreadPool(THREADS);
+	}
+
+	@After
+	public void destroy() {
+		executor.shutdownNow();
+		userRepository.delete(users);
+	}
+
+	private User user(int reputation) {
+		User user = userRepository.save(new User("voted" + users.size(), "password",
+				"voted" + users.size() + "@ezgas.com", reputation));
+		users.add(user);
+		return user;
+	}
+
+	@Test
+	public void TC1_increaseUserReputation() throws Exception {
+		// 2000 votes on 500 users, 3 up and 1 down each (never reaching a bound): no vote is lost
+		List<Future<Integer>> votes = new ArrayList<>();
+		List<User> voted = new ArrayList<>();
+		for (int i = 0; i < 500; i++) {
+			voted.add(this.user(0));
+		}
+		List<Integer> order = new ArrayList<>();
+		for (int i = 0; i < 4 * voted.size(); i++) {
+			order.add(i);
+		}
+		Collections.shuffle(order);
+		for (int i : order) {
+			Integer userId = voted.get(i / 4).getUserId();
+			votes.add(executor.submit(() -> i % 4 == 0 ? userService.decreaseUserReputation(userId)
+					: userService.increaseUserReputation(userId)));
+		}
+		for (Future<Integer> vote : votes) {
+			vote.get(1, TimeUnit.MINUTES);
+		}
+		for (User user : voted) {
+			assertEquals(2, (int) userRepository.findReputation(user.getUserId()));
+		}
+	}
+
+	@Test
+	public void TC2_increaseUserReputation() throws Exception {
+		// each vote reads back the reputation it wrote, the ones over the bound change nothing
+		Integer userId = this.user(0).getUserId();
+		List<Future<Integer>> votes = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			votes.add(executor.submit(() -> userService.increaseUserReputation(userId)));
+		}
+		List<Integer> returned = new ArrayList<>();
+		for (Future<Integer> vote : votes) {
+			returned.add(vote.get(1, TimeUnit.MINUTES));
+		}
+		Collections.sort(returned);
+		for (int reputation = 1; reputation <= 5; reputation++) {
+			assertEquals(reputation, (int) returned.get(reputation - 1));
+		}
+		assertTrue(returned.subList(5, returned.size()).stream().allMatch(reputation -> reputation == 5));
+		assertEquals(5, (int) userRepository.findReputation(userId));
+	}
+
+	@Test
+	public void TC1_decreaseUserReputation() throws Exception {
+		// the lower bound holds as well
+		Integer userId = this.user(0).getUserId();
+		List<Future<Integer>> votes = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			votes.add(executor.submit(() -> userService.decreaseUserReputation(userId)));
+		}
+		for (Future<Integer> vote : votes) {
+			assertTrue(vote.get(1, TimeUnit.MINUTES) >= -5);
+		}
+		assertEquals(-5, (int) userRepository.findReputation(userId));
+	}
+
+	@Test
+	public void TC3_increaseUserReputation() throws Exception {
+		// buffered votes: the net delta of each user is written by the flush, clamped
+		ReputationVoteBuffer buffer = new ReputationVoteBuffer();
+		buffer.setEnabled(true);
+		userService.setReputationVoteBuffer(buffer);
+		User popular = this.user(0);
+		User top = this.user(4);
+		List<Future<Integer>> votes = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			boolean increase = i % 4 != 0;
+			votes.add(executor.submit(() -> userService.increaseUserReputation(top.getUserId())));
+			votes.add(executor.submit(() -> increase ? userService.increaseUserReputation(popular.getUserId())
+					: userService.decreaseUserReputation(popular.getUserId())));
+		}
+		for (Future<Integer> vote : votes) {
+			assertTrue(Math.abs(vote.get(1, TimeUnit.MINUTES)) <= 5);
+		}
+		// nothing written yet
+		assertEquals(0, (int) userRepository.findReputation(popular.getUserId()));
+		assertEquals(500, buffer.getPending(popular.getUserId()));
+
+		Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+		statistics.setStatisticsEnabled(true);
+		statistics.clear();
+		userService.flushReputationVotes();
+		// one update per user
+		assertEquals(2, statistics.getPrepareStatementCount());
+		assertEquals(5, (int) userRepository.findReputation(popular.getUserId()));
+		assertEquals(5, (int) userRepository.findReputation(top.getUserId()));
+		assertEquals(0, buffer.getPendingUsers());
+	}
+}
@@ -18,6 +18,7 @@ import it.polito.ezgas.entity.User;
 import it.polito.ezgas.repository.UserRepository;
 import it.polito.ezgas.service.*;
 import it.polito.ezgas.service.impl.UserServiceimpl;
+import it.polito.ezgas.utils.PasswordHash;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -134,7 +135,8 @@ public class UserServiceAPITests {
 			assertNotNull(res);
 			assertEquals(res.getEmail(), "prova@email.com");
 			assertEquals(res.getUserName(), "lukeb");
-			assertEquals(res.getPassword(), "password");
+			// only the hash of the password is stored
+			assertTrue(PasswordHash.matches("password", res.getPassword()));
 		} catch (InvalidUserException e) {
 			thrown = true;
 		}
@@ -6,14 +6,20 @@ import org.junit.runner.RunWith;
 import org.springframework.test.context.junit4.SpringRunner;
 import exception.InvalidLoginDataException;
 import exception.InvalidUserException;
+import exception.SessionLimitException;
+import org.mockito.ArgumentMatcher;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.mockito.Mock;
 import it.polito.ezgas.converter.UserConverter;
 import it.polito.ezgas.dto.IdPw;
+import it.polito.ezgas.dto.LoginDto;
 import it.polito.ezgas.dto.UserDto;
 import it.polito.ezgas.entity.User;
 import it.polito.ezgas.repository.UserRepository;
 import it.polito.ezgas.service.*;
 import it.polito.ezgas.service.impl.UserServiceimpl;
+import it.polito.ezgas.session.SessionTokenStore;
+import it.polito.ezgas.utils.PasswordHash;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -51,22 +57,23 @@ public class UserServiceTests {
 	@Test
 	public void TC1_saveUserTest() {
 		// Test: saving without errors
-		when(userRepositoryMock.saveAndFlush(any(User.class))).thenReturn(user);
+		when(userRepositoryMock.insert(any(User.class))).thenReturn(user);
 		when(userConverterMock.toUser(any(UserDto.class))).thenReturn(user);
 		when(userConverterMock.toUserDto(any(User.class))).thenReturn(userDto);
-		when(userRepositoryMock.findByEmail(any(String.class))).thenReturn(null);
 		UserService userService = new UserServiceimpl(userRepositoryMock, userConverterMock);
 		UserDto u = new UserDto(null, "lukeb", "password", "prova@email.com", 5);
 		assertNotNull(userService.saveUser(u));
+		// the email is not looked up first
+		verify(userRepositoryMock, never()).findByEmail(any(String.class));
 	}
 
 	@Test
 	public void TC2_saveUserTest() {
-		// Test: try to save an already existing user
-		when(userRepositoryMock.saveAndFlush(any(User.class))).thenReturn(user);
+		// Test: try to save an already existing user, refused by the unique index
+		when(userRepositoryMock.insert(any(User.class)))
+				.thenThrow(new DataIntegrityViolationException("UK_USER_EMAIL_KEY"));
 		when(userConverterMock.toUser(any(UserDto.class))).thenReturn(user);
 		when(userConverterMock.toUserDto(any(User.class))).thenReturn(userDto);
-		when(userRepositoryMock.findByEmail(any(String.class))).thenReturn(user);
 		UserService userService = new UserServiceimpl(userRepositoryMock, userConverterMock);
 		UserDto u = new UserDto(null, "lukeb", "password", "prova@email.com", 5);
 		assertNull(userService.saveUser(u));
@@ -78,6 +85,7 @@ public class UserServiceTests {
 		user.setUserId(2);
 		when(userRepositoryMock.saveAndFlush(any(User.class))).thenReturn(user);
 		when(userRepositoryMock.findByEmail(any(String.class))).thenReturn(user);
+		when(userRepositoryMock.findOne(2)).thenReturn(user);
 		UserService userService = new UserServiceimpl(userRepositoryMock, userConverterMock);
 		assertNotNull(userService.saveUser(userDto));
 	}
@@ -91,6 +99,56 @@ public class UserServiceTests {
 		assertEquals(userService.saveUser(userDto), userDto);
 	}
 
+	@Test
+	public void TC5_saveUserTest() throws Exception {
+		// a hash sent by the client is hashed again, unless it is the one already stored for the user
+		String stored = PasswordHash.hash("psw");
+		User u = new User("user", stored, "user", 3);
+		u.setUserId(2);
+		when(userRepositoryMock.findByEmail(any(String.class))).thenReturn(u);
+		when(userRepositoryMock.findOne(2)).thenReturn(u);
+		when(userConverterMock.toUser(any(UserDto.class))).thenAnswer(invocation -> {
+			UserDto saved = (UserDto) invocation.getArguments()[0];
+			return new User(saved.getUserName(), saved.getPassword(), saved.getEmail(), saved.getReputation());
+		});
+		when(userRepositoryMock.insert(any(User.class))).thenAnswer(invocation -> invocation.getArguments()[0]);
+		when(userConverterMock.toUserDto(any(User.class))).thenReturn(new UserDto(3, "other", null, "other", 3));
+		UserService userService = new UserServiceimpl(userRepositoryMock, userConverterMock);
+		userService.saveUser(new UserDto(2, "user", stored, "user", 3));
+		userService.saveUser(new UserDto(2, "user", "pbkdf2$2000000000$c2FsdA==$aGFzaA==", "user", 3));
+		userService.saveUser(new UserDto(null, "other", "pbkdf2$1$c2FsdA==$aGFzaA==", "other", 3));
+		verify(userRepositoryMock).saveAndFlush(argThat(new ArgumentMatcher<User>() {
+			@Override
+			public boolean matches(Object user) {
+				return stored.equals(((User) user).getPassword());
+			}
+		}));
+		verify(userRepositoryMock).saveAndFlush(argThat(new ArgumentMatcher<User>() {
+			@Override
+			public boolean matches(Object user) {
+				return PasswordHash.matches("pbkdf2$2000000000$c2FsdA==$aGFzaA==", ((User) user).getPassword());
+			}
+		}));
+		verify(userRepositoryMock).insert(argThat(new ArgumentMatcher<User>() {
+			@Override
+			public boolean matches(Object user) {
+				return PasswordHash.matches("pbkdf2$1$c2FsdA==$aGFzaA==", ((User) user).getPassword());
+			}
+		}));
+	}
+
+	@Test
+	public void TC6_saveUserTest() {
+		// Test: update a user to an email no user has yet
+		user.setUserId(2);
+		when(userRepositoryMock.findOne(2)).thenReturn(user);
+		when(userRepositoryMock.findByEmail(any(String.class))).thenReturn(null);
+		when(userConverterMock.toUser(any(UserDto.class))).thenReturn(user);
+		UserService userService = new UserServiceimpl(userRepositoryMock, userConverterMock);
+		assertEquals(userDto, userService.saveUser(userDto));
+		verify(userRepositoryMock).saveAndFlush(user);
+	}
+
 	@Test
 	public void TC1_getUserById() {
 		// Test: try to get a user with negative id
@@ -273,6 +331,65 @@ public class UserServiceTests {
 		assertFalse(thrown);
 	}
 
+	@Test
+	public void TC6_login() throws Exception {
+		// a password stored in plain text is replaced with its hash, the session is found by token
+		User u = new User("user", "psw", "user", 3);
+		u.setUserId(7);
+		when(userRepositoryMock.findByEmail(any(String.class))).thenReturn(u);
+		UserServiceimpl userService = new UserServiceimpl(userRepositoryMock, userConverterMock);
+		userService.setSessionTokenStore(new SessionTokenStore(60, 10, "refuse"));
+		LoginDto login = userService.login(credentials);
+		verify(userRepositoryMock).updatePassword(eq(7), argThat(new ArgumentMatcher<String>() {
+			@Override
+			public boolean matches(Object password) {
+				return PasswordHash.matches("psw", (String) password) && !"psw".equals(password);
+			}
+		}));
+		assertNotNull(login.getToken());
+		reset(userRepositoryMock);
+		assertEquals(7, (int) userService.getSession(login.getToken()).getUserId());
+		verifyZeroInteractions(userRepositoryMock);
+		assertTrue(userService.logout(login.getToken()));
+		assertNull(userService.getSession(login.getToken()));
+	}
+
+	@Test
+	public void TC7_login() throws Exception {
+		// a hashed password is checked and kept
+		User u = new User("user", PasswordHash.hash("psw"), "user", 3);
+		when(userRepositoryMock.findByEmail(any(String.class))).thenReturn(u);
+		UserService userService = new UserServiceimpl(userRepositoryMock, userConverterMock);
+		assertNotNull(userService.login(credentials));
+		verify(userRepositoryMock, never()).updatePassword(any(Integer.class), any(String.class));
+		credentials.setPw("psw2");
+		Boolean thrown = false;
+		try {
+			userService.login(credentials);
+		} catch (InvalidLoginDataException e) {
+			thrown = true;
+		}
+		assertTrue(thrown);
+	}
+
+	@Test
+	public void TC8_login() throws Exception {
+		// the session store full of live sessions refuses the login
+		User u = new User("user", PasswordHash.hash("psw"), "user", 3);
+		u.setUserId(7);
+		when(userRepositoryMock.findByEmail(any(String.class))).thenReturn(u);
+		UserServiceimpl userService = new UserServiceimpl(userRepositoryMock, userConverterMock);
+		userService.setSessionTokenStore(new SessionTokenStore(60, 1, "refuse"));
+		assertNotNull(userService.login(credentials).getToken());
+		Boolean thrown = false;
+		try {
+			userService.login(credentials);
+		} catch (SessionLimitException e) {
+			thrown = true;
+		}
+		assertTrue(thrown);
+	}
+
 	@Test
 	public void TC1_increaseUserReputation() {
 		// Test: try to update a user with negative id
@@ -294,8 +411,8 @@ public class UserServiceTests {
 		// (5)
 
 		Boolean thrown = false;
-		when(userRepositoryMock.getOne(any(Integer.class))).thenReturn(user);
-		when(userRepositoryMock.exists(any(Integer.class))).thenReturn(true);
+		when(userRepositoryMock.increaseReputation(any(Integer.class))).thenReturn(0);
+		when(userRepositoryMock.findReputation(any(Integer.class))).thenReturn(5);
 		UserService userService = new UserServiceimpl(userRepositoryMock, userConverterMock);
 		try {
 			assertEquals(userService.increaseUserReputation(1), 5, 0);
@@ -309,11 +426,9 @@ public class UserServiceTests {
 	public void TC3_increaseUserReputation() {
 		// Test: try to increase reputation for a user
 
-		User u = new User();
 		Boolean thrown = false;
-		when(userRepositoryMock.getOne(any(Integer.class))).thenReturn(u);
-		when(userRepositoryMock.exists(any(Integer.class))).thenReturn(true);
-		u.setReputation(3);
+		when(userRepositoryMock.increaseReputation(any(Integer.class))).thenReturn(1);
+		when(userRepositoryMock.findReputation(any(Integer.class))).thenReturn(4);
 		UserService userService = new UserServiceimpl(userRepositoryMock, userConverterMock);
 		try {
 			assertEquals(userService.increaseUserReputation(1), 4, 0);
@@ -326,11 +441,9 @@ public class UserServiceTests {
 	public void TC4_increaseUserReputation() {
 		// Test: try to increase reputation for a user
 
-		User u = new User();
 		Boolean thrown = false;
-		when(userRepositoryMock.getOne(any(Integer.class))).thenReturn(u);
-		when(userRepositoryMock.exists(any(Integer.class))).thenReturn(false);
-		u.setReputation(3);
+		when(userRepositoryMock.increaseReputation(any(Integer.class))).thenReturn(0);
+		when(userRepositoryMock.findReputation(any(Integer.class))).thenReturn(null);
 		UserService userService = new UserServiceimpl(userRepositoryMock, userConverterMock);
 		try {
 			assertEquals(userService.increaseUserReputation(1), 4, 0);
@@ -361,9 +474,8 @@ public class UserServiceTests {
 		// (-5)
 
 		Boolean thrown = false;
-		when(userRepositoryMock.getOne(any(Integer.class))).thenReturn(user);
-		when(userRepositoryMock.exists(any(Integer.class))).thenReturn(true);
-		user.setReputation(-5);
+		when(userRepositoryMock.decreaseReputation(any(Integer.class))).thenReturn(0);
+		when(userRepositoryMock.findReputation(any(Integer.class))).thenReturn(-5);
 		UserService userService = new UserServiceimpl(userRepositoryMock, userConverterMock);
 		try {
 			assertEquals(userService.decreaseUserReputation(1), -5, 0);
@@ -376,11 +488,9 @@ public class UserServiceTests {
 	@Test
 	public void TC3_decreaseUserReputation() {
 		// Test: try to decrease reputation of a user
-		User u = new User();
 		Boolean thrown = false;
-		when(userRepositoryMock.getOne(any(Integer.class))).thenReturn(u);
-		when(userRepositoryMock.exists(any(Integer.class))).thenReturn(true);
-		u.setReputation(-3);
+		when(userRepositoryMock.decreaseReputation(any(Integer.class))).thenReturn(1);
+		when(userRepositoryMock.findReputation(any(Integer.class))).thenReturn(-4);
 		UserService userService = new UserServiceimpl(userRepositoryMock, userConverterMock);
 		try {
 			assertEquals(userService.decreaseUserReputation(1), -4, 0);
@@ -392,11 +502,9 @@ public class UserServiceTests {
 	@Test
 	public void TC4_decreaseUserReputation() {
 		// Test: try to decrease reputation of a user
-		User u = new User();
 		Boolean thrown = false;
-		when(userRepositoryMock.getOne(any(Integer.class))).thenReturn(u);
-		when(userRepositoryMock.exists(any(Integer.class))).thenReturn(false);
-		u.setReputation(-3);
+		when(userRepositoryMock.decreaseReputation(any(Integer.class))).thenReturn(0);
+		when(userRepositoryMock.findReputation(any(Integer.class))).thenReturn(null);
 		UserService userService = new UserServiceimpl(userRepositoryMock, userConverterMock);
 		try {
 			assertEquals(userService.decreaseUserReputation(1), -4, 0);